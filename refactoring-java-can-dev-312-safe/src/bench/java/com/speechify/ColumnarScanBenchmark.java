@@ -0,0 +1,109 @@
+package com.speechify;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Compares analytical filters over a List&lt;User&gt; with the same filters over UserColumns:
+ * users aged 30 to 39 with a credit limit of at least 15000, counted and summed.
+ *
+ * Usage: gradle bench -Pbenchmark=ColumnarScanBenchmark [--args="users clients iterations"]
+ */
+public class ColumnarScanBenchmark {
+    private static final int DEFAULT_USERS = 1_000_000;
+    private static final int DEFAULT_CLIENTS = 100;
+    private static final int DEFAULT_ITERATIONS = 20;
+    private static final int WARM_UP_ITERATIONS = 10;
+    private static final LocalDate TODAY = LocalDate.of(2024, 1, 1);
+    private static final int MIN_AGE = 30;
+    private static final int MAX_AGE = 39;
+    private static final double MIN_CREDIT_LIMIT = 15000.0;
+
+    // Keeps results observable so the JIT cannot drop the scans
+    private static volatile double sink;
+
+    public static void main(String[] args) {
+        int userCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_USERS;
+        int clientCount = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_CLIENTS;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_ITERATIONS;
+
+        List<User> users = users(userCount, clientCount, new Random(42));
+        long startNanos = System.nanoTime();
+        UserColumns columns = UserColumns.of(users);
+        System.out.printf("Projected %d users in %.1f ms%n", userCount, (System.nanoTime() - startNanos) / 1e6);
+
+        UserColumns.Filter filter = UserColumns.Filter.all()
+                .agedBetween(MIN_AGE, MAX_AGE, TODAY)
+                .hasCreditLimit(true)
+                .creditLimitBetween(MIN_CREDIT_LIMIT, Double.POSITIVE_INFINITY);
+        LocalDate bornFrom = TODAY.minusYears(MAX_AGE + 1L).plusDays(1);
+        LocalDate bornTo = TODAY.minusYears(MIN_AGE);
+
+        System.out.printf("%-24s %10s %10s%n", "", "ns/user", "result");
+        run("List<User> count", iterations, userCount, () -> scanCount(users, bornFrom, bornTo));
+        run("UserColumns count", iterations, userCount, () -> columns.count(filter));
+        run("List<User> sum", iterations, userCount, () -> scanSum(users, bornFrom, bornTo));
+        run("UserColumns sum", iterations, userCount, () -> columns.sumCreditLimit(filter));
+    }
+
+    private static void run(String name, int iterations, int userCount, DoubleSupplier query) {
+        double result = 0;
+        for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+            result = query.getAsDouble();
+        }
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            result = query.getAsDouble();
+        }
+        double nanosPerUser = (double) (System.nanoTime() - startNanos) / iterations / userCount;
+        sink = result;
+        System.out.printf("%-24s %10.2f %10.0f%n", name, nanosPerUser, result);
+    }
+
+    private static long scanCount(List<User> users, LocalDate bornFrom, LocalDate bornTo) {
+        long count = 0;
+        for (User user : users) {
+            if (matches(user, bornFrom, bornTo)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static double scanSum(List<User> users, LocalDate bornFrom, LocalDate bornTo) {
+        double sum = 0;
+        for (User user : users) {
+            if (matches(user, bornFrom, bornTo)) {
+                sum += user.getCreditLimit();
+            }
+        }
+        return sum;
+    }
+
+    private static boolean matches(User user, LocalDate bornFrom, LocalDate bornTo) {
+        LocalDate dateOfBirth = user.getDateOfBirth();
+        return dateOfBirth != null && !dateOfBirth.isBefore(bornFrom) && !dateOfBirth.isAfter(bornTo)
+                && user.hasCreditLimit() && user.getCreditLimit() >= MIN_CREDIT_LIMIT;
+    }
+
+    // Shuffled allocation order, as after a load and a while of updates
+    private static List<User> users(int count, int clientCount, Random random) {
+        List<Client> clients = new ArrayList<>(clientCount);
+        for (int i = 0; i < clientCount; i++) {
+            clients.add(new Client("client-" + i, "Client " + i));
+        }
+        List<User> users = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            boolean hasCreditLimit = random.nextInt(10) != 0;
+            users.add(new User("user-" + i, clients.get(random.nextInt(clientCount)),
+                    TODAY.minusDays(21 * 365 + random.nextInt(50 * 365)), "user" + i + "@example.com",
+                    "First" + i, "Last" + i, hasCreditLimit, 5000.0 * (1 + random.nextInt(6))));
+        }
+        Collections.shuffle(users, random);
+        return users;
+    }
+}
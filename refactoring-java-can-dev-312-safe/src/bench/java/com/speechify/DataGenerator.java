@@ -0,0 +1,135 @@
+package com.speechify;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Writes a synthetic database in the layout UserService reads by default: clients in `db.json`,
+ * users in `db.json` too with one shard, or routed to `users-<n>.json` by email like UserService
+ * does. Users pick their client from a Zipf distribution, so a few clients own most users.
+ * Client 0 is a VeryImportantClient and client 1 an ImportantClient; credit limits follow
+ * the default CreditPolicy. The output is deterministic for a given seed.
+ *
+ * Usage: gradle generateData --args="directory [users clients clientSkew shards seed]"
+ */
+public class DataGenerator {
+    private static final int DEFAULT_USERS = 100_000;
+    private static final int DEFAULT_CLIENTS = 1_000;
+    private static final double DEFAULT_CLIENT_SKEW = 1.0;
+    private static final int DEFAULT_SHARDS = 1;
+    private static final long DEFAULT_SEED = 42;
+    private static final LocalDate OLDEST_BIRTH_DATE = LocalDate.of(1940, 1, 1);
+    private static final int BIRTH_DATE_RANGE_DAYS = 60 * 365;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: DataGenerator directory [users clients clientSkew shards seed]");
+            System.exit(1);
+        }
+        Path directory = Paths.get(args[0]);
+        int users = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_USERS;
+        int clients = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_CLIENTS;
+        double clientSkew = args.length > 3 ? Double.parseDouble(args[3]) : DEFAULT_CLIENT_SKEW;
+        int shards = args.length > 4 ? Integer.parseInt(args[4]) : DEFAULT_SHARDS;
+        long seed = args.length > 5 ? Long.parseLong(args[5]) : DEFAULT_SEED;
+
+        long startNanos = System.nanoTime();
+        Files.createDirectories(directory);
+        Random random = new Random(seed);
+        List<Client> clientList = generateClients(clients, random);
+        List<List<User>> usersByShard = generateUsers(users, clientList, clientSkew, shards, random);
+
+        if (shards == 1) {
+            write(directory.resolve("db.json"), clientList, usersByShard.get(0));
+        } else {
+            write(directory.resolve("db.json"), clientList, null);
+            for (int shard = 0; shard < shards; shard++) {
+                write(directory.resolve(String.format("users-%d.json", shard)), null, usersByShard.get(shard));
+            }
+        }
+        System.out.printf("Generated %d users of %d clients (skew %.2f) in %d shard(s) under %s in %.1f s%n",
+                users, clients, clientSkew, shards, directory.toAbsolutePath(), (System.nanoTime() - startNanos) / 1e9);
+    }
+
+    private static List<Client> generateClients(int count, Random random) {
+        List<Client> clients = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String name = i == 0 ? "VeryImportantClient" : i == 1 ? "ImportantClient" : "Client " + i;
+            clients.add(new Client(randomId(random), name));
+        }
+        return clients;
+    }
+
+    private static List<List<User>> generateUsers(int count, List<Client> clients, double clientSkew, int shards,
+                                                  Random random) {
+        List<List<User>> usersByShard = new ArrayList<>(shards);
+        for (int shard = 0; shard < shards; shard++) {
+            usersByShard.add(new ArrayList<>(count / shards + 1));
+        }
+        ZipfDistribution clientPopularity = new ZipfDistribution(clients.size(), clientSkew);
+        CreditPolicy creditPolicy = new CreditPolicy();
+        for (int i = 0; i < count; i++) {
+            User user = new User();
+            user.setId(randomId(random));
+            user.setClient(clients.get(clientPopularity.sample(random)));
+            user.setEmail(email(i));
+            user.setFirstname("First" + i);
+            user.setSurname("Surname" + i);
+            user.setDateOfBirth(OLDEST_BIRTH_DATE.plusDays(random.nextInt(BIRTH_DATE_RANGE_DAYS)));
+            creditPolicy.apply(user);
+            // Same routing as UserService.shardFor
+            usersByShard.get(Math.floorMod(user.getEmail().hashCode(), shards)).add(user);
+        }
+        return usersByShard;
+    }
+
+    /**
+     * Email of the generated user number `index`.
+     */
+    static String email(int index) {
+        return "user" + index + "@example.com";
+    }
+
+    // Either list may be null, to leave its field out
+    private static void write(Path file, List<Client> clients, List<User> users) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator generator = new ObjectMapper().getFactory().createGenerator(out, JsonEncoding.UTF8)) {
+            generator.writeStartObject();
+            if (clients != null) {
+                generator.writeArrayFieldStart("clients");
+                for (Client client : clients) {
+                    generator.writeStartObject();
+                    generator.writeStringField("id", client.getId());
+                    generator.writeStringField("name", client.getName());
+                    generator.writeEndObject();
+                }
+                generator.writeEndArray();
+            }
+            if (users != null) {
+                generator.writeArrayFieldStart("users");
+                for (User user : users) {
+                    generator.writeTree(UserJson.toNode(user));
+                }
+                generator.writeEndArray();
+            }
+            generator.writeEndObject();
+        }
+        // Legacy files without a checksum trailer load fine, but this way the output matches a saved one
+        Files.write(file, DatabaseChecksum.append(out.toByteArray()));
+    }
+
+    private static String randomId(Random random) {
+        return new UUID(random.nextLong(), random.nextLong()).toString();
+    }
+}
@@ -0,0 +1,106 @@
+package com.speechify;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.function.IntFunction;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Compares the read and write throughput of AsyncFileStore and BlockingFileStore on a generated
+ * database file, with a fixed number of operations in flight.
+ *
+ * Usage: gradle bench -Pbenchmark=FileStoreBenchmark [--args="users inFlight operations"]
+ */
+public class FileStoreBenchmark {
+    private static final int DEFAULT_USERS = 20_000;
+    private static final int DEFAULT_IN_FLIGHT = 64;
+    private static final int DEFAULT_OPERATIONS = 2_000;
+    private static final int WARMUP_ROUNDS = 2;
+
+    public static void main(String[] args) throws Exception {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_USERS;
+        int inFlight = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_IN_FLIGHT;
+        int operations = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_OPERATIONS;
+
+        Path directory = Files.createTempDirectory("filestore-bench");
+        byte[] database = generateDatabase(users);
+        Path source = directory.resolve("db.json");
+        Files.write(source, database);
+        System.out.printf("Database: %d users, %.1f MB; %d operations, %d in flight, %d cores%n",
+                users, database.length / 1e6, operations, inFlight, Runtime.getRuntime().availableProcessors());
+
+        FileStore[] stores = {new BlockingFileStore(), new AsyncFileStore()};
+        for (FileStore store : stores) {
+            String name = store.getClass().getSimpleName();
+            for (int round = 0; round < WARMUP_ROUNDS; round++) {
+                run(operations / 4, inFlight, i -> store.read(source));
+            }
+            report(name, "read", database.length, operations,
+                    run(operations, inFlight, i -> store.read(source)));
+
+            for (int round = 0; round < WARMUP_ROUNDS; round++) {
+                run(operations / 4, inFlight, i -> store.write(directory.resolve("out-" + (i % inFlight)), database));
+            }
+            report(name, "write", database.length, operations,
+                    run(operations, inFlight, i -> store.write(directory.resolve("out-" + (i % inFlight)), database)));
+        }
+
+        try (var files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    // Issues `operations` calls with at most `inFlight` outstanding, returning the elapsed nanos
+    private static long run(int operations, int inFlight, IntFunction<CompletableFuture<?>> operation)
+            throws InterruptedException {
+        Semaphore permits = new Semaphore(inFlight);
+        List<CompletableFuture<?>> futures = new ArrayList<>(operations);
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < operations; i++) {
+            permits.acquire();
+            futures.add(operation.apply(i).whenComplete((result, error) -> permits.release()));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+        return System.nanoTime() - startNanos;
+    }
+
+    private static void report(String store, String operation, int bytes, int operations, long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        System.out.printf("%-18s %-5s %10.0f ops/s %10.1f MB/s%n",
+                store, operation, operations / seconds, (double) bytes * operations / 1e6 / seconds);
+    }
+
+    private static byte[] generateDatabase(int users) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator generator = new ObjectMapper().getFactory().createGenerator(out)) {
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("users");
+            for (int i = 0; i < users; i++) {
+                User user = new User();
+                user.setId("user-" + i);
+                user.setEmail("user" + i + "@example.com");
+                user.setFirstname("First" + i);
+                user.setSurname("Last" + i);
+                user.setDateOfBirth(LocalDate.of(1970, 1, 1).plusDays(i % 10_000));
+                user.setClient(new Client("client-" + (i % 10), "Client " + (i % 10)));
+                user.setHasCreditLimit(true);
+                user.setCreditLimit(10000.0);
+                generator.writeTree(UserJson.toNode(user));
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+        return out.toByteArray();
+    }
+}
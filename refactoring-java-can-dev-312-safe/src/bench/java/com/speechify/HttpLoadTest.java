@@ -0,0 +1,203 @@
+package com.speechify;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Closed-loop HTTP load test of UserHttpServer: `concurrency` clients each send a request, wait
+ * for the response and send the next, for `seconds`. Reports requests/s and latency percentiles
+ * per route, measured on the client, so the whole stack from socket to storage is included.
+ *
+ * The target is either the base URL of a running server, or a data directory (e.g. written by
+ * DataGenerator) to serve from an embedded server in this JVM. The mix gives percentages like
+ * `get=80,update=15,list=5`; users are picked from the first MAX_EMAILS users of the database.
+ *
+ * Usage: gradle loadTest --args="url|directory [concurrency seconds mix shards]"
+ */
+public class HttpLoadTest {
+    private static final int DEFAULT_CONCURRENCY = 64;
+    private static final int DEFAULT_SECONDS = 20;
+    private static final String DEFAULT_MIX = "get=80,update=15,list=5";
+    private static final int DEFAULT_SHARDS = 1;
+    private static final int MAX_EMAILS = 10_000;
+    private static final int LIST_PAGE_SIZE = 100;
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    enum Route {
+        GET, UPDATE, LIST
+    }
+
+    public static void main(String[] args) throws Exception {
+        UserHttpServer.enableNoDelay();
+        if (args.length == 0) {
+            System.err.println("Usage: HttpLoadTest url|directory [concurrency seconds mix shards]");
+            System.exit(1);
+        }
+        int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_CONCURRENCY;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_SECONDS;
+        Map<Route, Integer> mix = parseMix(args.length > 3 ? args[3] : DEFAULT_MIX);
+        int shards = args.length > 4 ? Integer.parseInt(args[4]) : DEFAULT_SHARDS;
+
+        UserService embeddedService = null;
+        UserHttpServer embedded = null;
+        String baseUrl = args[0];
+        if (!baseUrl.startsWith("http")) {
+            UserServiceOptions options = new UserServiceOptions();
+            options.setDataDirectory(Paths.get(baseUrl));
+            options.setShardCount(shards);
+            embeddedService = new UserService(options);
+            embedded = new UserHttpServer(embeddedService, new InetSocketAddress("localhost", 0));
+            embedded.start();
+            baseUrl = "http://localhost:" + embedded.getPort();
+            System.out.printf("Embedded server on %s (%s threads)%n", baseUrl,
+                    embedded.isVirtualThreads() ? "virtual" : "platform");
+        }
+
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        List<String> emails = loadEmails(client, baseUrl);
+        System.out.printf("%d users to pick from; %d clients for %d s, mix %s%n", emails.size(), concurrency, seconds, mix);
+
+        Map<Route, LatencyHistogram> latencies = new EnumMap<>(Route.class);
+        Map<Route, LongAdder> failures = new EnumMap<>(Route.class);
+        for (Route route : Route.values()) {
+            latencies.put(route, new LatencyHistogram());
+            failures.put(route, new LongAdder());
+        }
+        long startNanos = System.nanoTime();
+        long endNanos = startNanos + seconds * 1_000_000_000L;
+        List<Thread> workers = new ArrayList<>(concurrency);
+        for (int i = 0; i < concurrency; i++) {
+            Random random = new Random(i);
+            String url = baseUrl;
+            Thread worker = new Thread(() -> {
+                while (System.nanoTime() < endNanos) {
+                    Route route = pick(mix, random);
+                    long requestStart = System.nanoTime();
+                    boolean succeeded;
+                    try {
+                        succeeded = send(client, url, route, emails.get(random.nextInt(emails.size())), random);
+                    } catch (IOException e) {
+                        succeeded = false;
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    latencies.get(route).record(System.nanoTime() - requestStart);
+                    if (!succeeded) {
+                        failures.get(route).increment();
+                    }
+                }
+            }, "load-test-" + i);
+            worker.start();
+            workers.add(worker);
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        report(latencies, failures, (System.nanoTime() - startNanos) / 1e9);
+        if (embedded != null) {
+            embedded.stop(0);
+            embeddedService.close();
+        }
+    }
+
+    // Completes one request of the route; returns whether it got the expected status
+    private static boolean send(HttpClient client, String baseUrl, Route route, String email, Random random)
+            throws IOException, InterruptedException {
+        String byEmail = baseUrl + "/users?email=" + URLEncoder.encode(email, StandardCharsets.UTF_8);
+        switch (route) {
+            case GET:
+                return client.send(HttpRequest.newBuilder(URI.create(byEmail)).GET().build(),
+                        HttpResponse.BodyHandlers.discarding()).statusCode() == 200;
+            case UPDATE:
+                HttpResponse<String> found = client.send(HttpRequest.newBuilder(URI.create(byEmail)).GET().build(),
+                        HttpResponse.BodyHandlers.ofString());
+                if (found.statusCode() != 200) {
+                    return false;
+                }
+                ObjectNode user = (ObjectNode) OBJECT_MAPPER.readTree(found.body());
+                user.put("surname", "Load" + random.nextInt(1000));
+                HttpRequest update = HttpRequest.newBuilder(URI.create(baseUrl + "/users"))
+                        .header("Content-Type", "application/json")
+                        .PUT(HttpRequest.BodyPublishers.ofByteArray(OBJECT_MAPPER.writeValueAsBytes(user)))
+                        .build();
+                return client.send(update, HttpResponse.BodyHandlers.discarding()).statusCode() == 200;
+            default:
+                URI page = URI.create(baseUrl + "/users?offset=" + random.nextInt(MAX_EMAILS) + "&limit=" + LIST_PAGE_SIZE);
+                return client.send(HttpRequest.newBuilder(page).GET().build(),
+                        HttpResponse.BodyHandlers.discarding()).statusCode() == 200;
+        }
+    }
+
+    private static List<String> loadEmails(HttpClient client, String baseUrl) throws IOException, InterruptedException {
+        List<String> emails = new ArrayList<>();
+        boolean hasMore = true;
+        while (hasMore && emails.size() < MAX_EMAILS) {
+            URI page = URI.create(baseUrl + "/users?offset=" + emails.size() + "&limit=1000");
+            JsonNode body = OBJECT_MAPPER.readTree(
+                    client.send(HttpRequest.newBuilder(page).GET().build(), HttpResponse.BodyHandlers.ofString()).body());
+            body.path("users").forEach(user -> emails.add(user.path("email").asText()));
+            hasMore = body.path("hasMore").asBoolean(false);
+        }
+        if (emails.isEmpty()) {
+            throw new IllegalStateException("The server has no users to request");
+        }
+        return emails;
+    }
+
+    private static void report(Map<Route, LatencyHistogram> latencies, Map<Route, LongAdder> failures,
+                               double elapsedSeconds) {
+        System.out.printf("%-8s %9s %8s %9s %9s %9s %9s %9s%n",
+                "route", "count", "failed", "req/s", "mean ms", "p50 ms", "p99 ms", "max ms");
+        long total = 0;
+        for (Route route : Route.values()) {
+            LatencyHistogram histogram = latencies.get(route);
+            if (histogram.getCount() == 0) {
+                continue;
+            }
+            total += histogram.getCount();
+            System.out.printf("%-8s %9d %8d %9.0f %9.2f %9.2f %9.2f %9.2f%n",
+                    route.name().toLowerCase(), histogram.getCount(), failures.get(route).sum(),
+                    histogram.getCount() / elapsedSeconds, histogram.getMeanNanos() / 1e6,
+                    histogram.getPercentileNanos(50) / 1e6, histogram.getPercentileNanos(99) / 1e6,
+                    histogram.getMaxNanos() / 1e6);
+        }
+        System.out.printf("Total %.0f requests/s over %.1f s%n", total / elapsedSeconds, elapsedSeconds);
+    }
+
+    private static Map<Route, Integer> parseMix(String mix) {
+        Map<Route, Integer> weights = new EnumMap<>(Route.class);
+        for (String part : mix.split(",")) {
+            String[] pair = part.split("=");
+            weights.put(Route.valueOf(pair[0].trim().toUpperCase()), Integer.parseInt(pair[1].trim()));
+        }
+        return weights;
+    }
+
+    private static Route pick(Map<Route, Integer> weights, Random random) {
+        int total = weights.values().stream().mapToInt(Integer::intValue).sum();
+        int pick = random.nextInt(total);
+        for (Map.Entry<Route, Integer> weight : weights.entrySet()) {
+            pick -= weight.getValue();
+            if (pick < 0) {
+                return weight.getKey();
+            }
+        }
+        throw new IllegalStateException("Empty mix");
+    }
+}
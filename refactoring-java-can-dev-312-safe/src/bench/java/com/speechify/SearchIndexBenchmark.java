@@ -0,0 +1,122 @@
+package com.speechify;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Measures the UserSearchIndex: retained heap per user on top of the users themselves, and the
+ * latency of top-10 prefix and fuzzy queries compared with filtering a List&lt;User&gt; (what
+ * getAllUsers followed by a String filter costs, minus the copies).
+ *
+ * Names are drawn from small pools, so that like real names many users share a term.
+ *
+ * Usage: gradle bench -Pbenchmark=SearchIndexBenchmark [--args="users queries"]
+ */
+public class SearchIndexBenchmark {
+    private static final int DEFAULT_USERS = 200_000;
+    private static final int DEFAULT_QUERIES = 20_000;
+    private static final int SCAN_QUERIES = 20;
+    private static final int LIMIT = 10;
+    private static final String[] FIRST_NAMES = {
+            "James", "Mary", "John", "Patricia", "Robert", "Jennifer", "Michael", "Linda", "William", "Elizabeth",
+            "David", "Barbara", "Richard", "Susan", "Joseph", "Jessica", "Thomas", "Sarah", "Charles", "Karen"};
+    private static final String[] SURNAME_STEMS = {
+            "Smith", "Johnson", "Williams", "Brown", "Jones", "Garcia", "Miller", "Davis", "Rodriguez", "Martinez",
+            "Hernandez", "Lopez", "Gonzalez", "Wilson", "Anderson", "Thomas", "Taylor", "Moore", "Jackson", "Martin"};
+    private static final String[] QUERIES = {"smi", "jennif", "user1234", "martinez7", "wil"};
+    private static final String[] TYPOS = {"smtih", "jenifer", "usr1234", "martniez7", "wli"};
+
+    // Keeps the measured index reachable until after the second collection
+    private static volatile Object retained;
+
+    public static void main(String[] args) {
+        int userCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_USERS;
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_QUERIES;
+        List<User> users = users(userCount, new Random(42));
+
+        long startNanos = System.nanoTime();
+        long indexBytes = retainedBytes(() -> {
+            UserSearchIndex index = new UserSearchIndex();
+            index.addAll(users.stream(), 1);
+            return index;
+        });
+        System.out.printf("Indexed %d users in %.0f ms: %d B/user on top of the users%n",
+                userCount, (System.nanoTime() - startNanos) / 1e6, indexBytes / userCount);
+        long userBytes = retainedBytes(() -> users(userCount, new Random(42)));
+        System.out.printf("The users themselves: %d B/user%n", userBytes / userCount);
+
+        UserSearchIndex index = new UserSearchIndex();
+        index.addAll(users.stream(), 1);
+        System.out.printf("%n%-24s %12s%n", "top-" + LIMIT + " query", "us/query");
+        time("prefix, index", queries, i -> index.findByPrefix(QUERIES[i % QUERIES.length], LIMIT).size());
+        time("fuzzy prefix, index", queries, i -> index.findByFuzzyPrefix(TYPOS[i % TYPOS.length], LIMIT).size());
+        time("prefix, list scan", SCAN_QUERIES, i -> scan(users, QUERIES[i % QUERIES.length]).size());
+    }
+
+    private interface Query {
+        int run(int iteration);
+    }
+
+    private static void time(String name, int queries, Query query) {
+        long found = 0;
+        for (int i = 0; i < queries; i++) {
+            found += query.run(i);
+        }
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < queries; i++) {
+            found += query.run(i);
+        }
+        double micros = (System.nanoTime() - startNanos) / 1e3 / queries;
+        System.out.printf("%-24s %12.2f   (%d results)%n", name, micros, found);
+    }
+
+    private static List<User> scan(List<User> users, String prefix) {
+        List<User> found = new ArrayList<>();
+        for (User user : users) {
+            if (user.getFirstname().toLowerCase(Locale.ROOT).startsWith(prefix)
+                    || user.getSurname().toLowerCase(Locale.ROOT).startsWith(prefix)
+                    || user.getEmail().startsWith(prefix)) {
+                found.add(user);
+                if (found.size() == LIMIT) {
+                    break;
+                }
+            }
+        }
+        return found;
+    }
+
+    // Heap still reachable from the built object, measured around full collections
+    private static long retainedBytes(Supplier<Object> build) {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        collectGarbage(memory);
+        long before = memory.getHeapMemoryUsage().getUsed();
+        retained = build.get();
+        collectGarbage(memory);
+        long after = memory.getHeapMemoryUsage().getUsed();
+        retained = null;
+        return after - before;
+    }
+
+    private static void collectGarbage(MemoryMXBean memory) {
+        for (int i = 0; i < 3; i++) {
+            memory.gc();
+        }
+    }
+
+    private static List<User> users(int count, Random random) {
+        Client client = new Client("client", "Client");
+        List<User> users = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String surname = SURNAME_STEMS[random.nextInt(SURNAME_STEMS.length)] + random.nextInt(1000);
+            users.add(new User("id-" + i, client, LocalDate.of(1980, 1, 1), "user" + i + "@example.com",
+                    FIRST_NAMES[random.nextInt(FIRST_NAMES.length)], surname, true, 10000.0));
+        }
+        return users;
+    }
+}
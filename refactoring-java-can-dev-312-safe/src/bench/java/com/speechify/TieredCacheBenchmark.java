@@ -0,0 +1,121 @@
+package com.speechify;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+/**
+ * Compares a plain LRUCache with a TieredLRUCache: hit ratio under a Zipf-distributed key
+ * popularity, and retained heap per cached client and user with the share of demoted entries that
+ * were deflated. Clients (JsonClientRepository) are too short to deflate; users (the email cache of
+ * UserService) are deflated against the codec's dictionary.
+ *
+ * Usage: gradle bench -Pbenchmark=TieredCacheBenchmark [--args="keys lookups zipfExponent"]
+ */
+public class TieredCacheBenchmark {
+    private static final int DEFAULT_KEYS = 100_000;
+    private static final int DEFAULT_LOOKUPS = 2_000_000;
+    private static final double DEFAULT_ZIPF_EXPONENT = 1.0;
+    private static final int L1_SIZE = 50;
+    private static final int L2_SIZE = 10_000;
+    private static final int HEAP_ENTRIES = 200_000;
+
+    // Keeps the measured cache reachable until after the second collection
+    private static volatile Object retained;
+
+    public static void main(String[] args) throws Exception {
+        int keys = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_KEYS;
+        int lookups = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_LOOKUPS;
+        double exponent = args.length > 2 ? Double.parseDouble(args[2]) : DEFAULT_ZIPF_EXPONENT;
+
+        System.out.printf("Hit ratio, %d lookups over %d keys, Zipf exponent %.2f%n", lookups, keys, exponent);
+        int[] trace = zipfTrace(keys, lookups, exponent, new Random(42));
+        hitRatio("LRU " + L1_SIZE, LRUCacheProvider.createLRUCache(new CacheLimits(L1_SIZE)), trace);
+        hitRatio("LRU " + (L1_SIZE + L2_SIZE), LRUCacheProvider.createLRUCache(new CacheLimits(L1_SIZE + L2_SIZE)), trace);
+        hitRatio("Tiered " + L1_SIZE + "+" + L2_SIZE,
+                new TieredLRUCache<>(new CacheLimits(L1_SIZE), new CacheLimits(L2_SIZE), CacheCodecs.CLIENT), trace);
+
+        System.out.printf("%nRetained heap per entry, %d entries%n", HEAP_ENTRIES);
+        heapPerEntry("Client", CacheCodecs.CLIENT, TieredCacheBenchmark::client);
+        heapPerEntry("User", CacheCodecs.USER, TieredCacheBenchmark::user);
+    }
+
+    private static void hitRatio(String name, LRUCache<Client> cache, int[] trace) {
+        long hits = 0;
+        long startNanos = System.nanoTime();
+        for (int key : trace) {
+            String id = "client-" + key;
+            if (cache.get(id) != null) {
+                hits++;
+            } else {
+                cache.set(id, client(key));
+            }
+        }
+        double nanosPerLookup = (double) (System.nanoTime() - startNanos) / trace.length;
+        System.out.printf("%-20s hit ratio %6.2f%%  %6.0f ns/lookup%n", name, 100.0 * hits / trace.length, nanosPerLookup);
+    }
+
+    private static <T> void heapPerEntry(String name, CacheCodec<T> codec, IntFunction<T> factory) {
+        long plain = retainedBytes(() -> {
+            LRUCache<T> cache = LRUCacheProvider.createLRUCache(new CacheLimits(HEAP_ENTRIES));
+            for (int i = 0; i < HEAP_ENTRIES; i++) {
+                cache.set("key-" + i, factory.apply(i));
+            }
+            return cache;
+        });
+        List<TieredLRUCache<T>> built = new ArrayList<>();
+        long tiered = retainedBytes(() -> {
+            // Everything but a single live entry ends up compressed in L2
+            TieredLRUCache<T> cache = new TieredLRUCache<>(new CacheLimits(1), new CacheLimits(HEAP_ENTRIES), codec);
+            for (int i = 0; i <= HEAP_ENTRIES; i++) {
+                cache.set("key-" + i, factory.apply(i));
+            }
+            built.add(cache);
+            return cache;
+        });
+        TieredLRUCache<T> cache = built.get(0);
+        System.out.printf("%-8s live %5d B/entry   compressed %5d B/entry   deflated %3d%% of demoted%n",
+                name, plain / HEAP_ENTRIES, tiered / HEAP_ENTRIES, 100 * cache.getDeflated() / cache.getDemoted());
+    }
+
+    // Heap still reachable from the built object, measured around full collections
+    private static long retainedBytes(Supplier<Object> build) {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        collectGarbage(memory);
+        long before = memory.getHeapMemoryUsage().getUsed();
+        retained = build.get();
+        collectGarbage(memory);
+        long after = memory.getHeapMemoryUsage().getUsed();
+        retained = null;
+        return after - before;
+    }
+
+    private static void collectGarbage(MemoryMXBean memory) {
+        for (int i = 0; i < 3; i++) {
+            memory.gc();
+        }
+    }
+
+    private static int[] zipfTrace(int keys, int lookups, double exponent, Random random) {
+        ZipfDistribution distribution = new ZipfDistribution(keys, exponent);
+        int[] trace = new int[lookups];
+        for (int i = 0; i < lookups; i++) {
+            trace[i] = distribution.sample(random);
+        }
+        return trace;
+    }
+
+    private static Client client(int index) {
+        return new Client("client-" + index, "Client number " + index);
+    }
+
+    private static User user(int index) {
+        return new User("5f0c8a2e-" + index, client(index % 100), LocalDate.of(1970, 1, 1).plusDays(index % 15_000),
+                "user" + index + "@example.com", "First" + index, "Surname" + index, true, 10000.0);
+    }
+}
@@ -0,0 +1,107 @@
+package com.speechify;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Runs the same workload against every UserRepository backend: bulk inserts through applyCommands,
+ * single-user updates through updateUser, then a cold reload of all shards.
+ *
+ * Usage: gradle bench -Pbenchmark=UserRepositoryBenchmark [--args="users updates shards"]
+ */
+public class UserRepositoryBenchmark {
+    private static final int DEFAULT_USERS = 20_000;
+    private static final int DEFAULT_UPDATES = 2_000;
+    private static final int DEFAULT_SHARDS = 4;
+    private static final int BATCH_SIZE = 500;
+    private static final int UPDATES_IN_FLIGHT = 32;
+    private static final Client CLIENT = new Client("c1", "Client");
+
+    public static void main(String[] args) throws Exception {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_USERS;
+        int updates = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_UPDATES;
+        int shards = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_SHARDS;
+        System.out.printf("%d users, %d updates, %d shards%n", users, updates, shards);
+        System.out.printf("%-14s %12s %12s %10s%n", "backend", "inserts/s", "updates/s", "reload ms");
+
+        Map<String, UserRepositoryFactory> backends = new LinkedHashMap<>();
+        Path directory = Files.createTempDirectory("repository-bench");
+        Map<Integer, UserRepository> inMemory = new ConcurrentHashMap<>();
+        backends.put("in-memory", (shard, count) -> inMemory.computeIfAbsent(shard, ignored -> new InMemoryUserRepository()));
+        backends.put("json", (shard, count) -> new JsonFileUserRepository(directory.resolve("users-" + shard + ".json")));
+        backends.put("wal", (shard, count) -> new WalUserRepository(directory.resolve("users-" + shard + ".wal")));
+        backends.put("file-per-user", (shard, count) -> new FilePerUserRepository(directory.resolve("users-" + shard)));
+
+        for (Map.Entry<String, UserRepositoryFactory> backend : backends.entrySet()) {
+            run(backend.getKey(), backend.getValue(), users, updates, shards);
+        }
+        deleteRecursively(directory);
+    }
+
+    private static void run(String name, UserRepositoryFactory factory, int users, int updates, int shards) {
+        UserService service = newService(factory, shards);
+
+        long startNanos = System.nanoTime();
+        for (int first = 0; first < users; first += BATCH_SIZE) {
+            List<UserCommand> batch = new ArrayList<>(BATCH_SIZE);
+            for (int i = first; i < Math.min(users, first + BATCH_SIZE); i++) {
+                batch.add(UserCommand.add("First" + i, "Last", email(i), LocalDate.of(1980, 1, 1), CLIENT.getId()));
+            }
+            service.applyCommands(batch).join();
+        }
+        double insertsPerSecond = users / ((System.nanoTime() - startNanos) / 1e9);
+
+        startNanos = System.nanoTime();
+        List<CompletableFuture<Boolean>> inFlight = new ArrayList<>(UPDATES_IN_FLIGHT);
+        for (int i = 0; i < updates; i++) {
+            User user = service.getUserByEmail(email(i % users)).join();
+            user.setSurname("Updated" + i);
+            inFlight.add(service.updateUser(user));
+            if (inFlight.size() == UPDATES_IN_FLIGHT) {
+                CompletableFuture.allOf(inFlight.toArray(new CompletableFuture<?>[0])).join();
+                inFlight.clear();
+            }
+        }
+        CompletableFuture.allOf(inFlight.toArray(new CompletableFuture<?>[0])).join();
+        double updatesPerSecond = updates / ((System.nanoTime() - startNanos) / 1e9);
+
+        startNanos = System.nanoTime();
+        int reloaded = newService(factory, shards).getAllUsers().join().size();
+        double reloadMillis = (System.nanoTime() - startNanos) / 1e6;
+        if (reloaded != users) {
+            throw new IllegalStateException(name + " reloaded " + reloaded + " of " + users + " users");
+        }
+        System.out.printf("%-14s %12.0f %12.0f %10.1f%n", name, insertsPerSecond, updatesPerSecond, reloadMillis);
+    }
+
+    private static UserService newService(UserRepositoryFactory factory, int shards) {
+        UserServiceOptions options = new UserServiceOptions();
+        options.setShardCount(shards);
+        options.setUserRepositoryFactory(factory);
+        options.setClientRepository(new InMemoryClientRepository(List.of(CLIENT)));
+        options.setMetricsRecorder(MetricsRecorder.NOOP);
+        return new UserService(options);
+    }
+
+    private static String email(int index) {
+        return "user" + index + "@example.com";
+    }
+
+    private static void deleteRecursively(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package com.speechify;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Drives a UserService over an existing database (e.g. one written by DataGenerator) at a fixed
+ * request rate and reports throughput and latency percentiles per operation.
+ *
+ * Requests are either a synthetic mix, given as percentages like `get=70,update=20,add=9,all=1`
+ * with users picked from a Zipf distribution, or a recorded trace file. A trace has one request per
+ * line: `get <email>`, `update <email>`, `add <email> <clientId>` or `all`; it is replayed in
+ * order, from the top again if it runs out before the time is up.
+ *
+ * The load is open-loop: request n is due at start + n / rate whether or not earlier ones have
+ * completed, and latency is measured from that due time, so a stall shows up in the percentiles
+ * instead of silently lowering the rate. Requests due while MAX_IN_FLIGHT are outstanding are shed
+ * and counted.
+ *
+ * With `limiter` set to `adaptive` the service runs with a ConcurrencyLimiter; requests it rejects
+ * are counted apart and left out of the latencies, which then show what admitted requests see.
+ * Run at a rate above the service's capacity with and without it to compare p99 under overload.
+ *
+ * Usage: gradle replayWorkload --args="directory [shards rate seconds mix|traceFile keySkew limiter]"
+ */
+public class WorkloadReplay {
+    private static final int DEFAULT_SHARDS = 1;
+    private static final int DEFAULT_RATE = 1_000;
+    private static final int DEFAULT_SECONDS = 30;
+    private static final String DEFAULT_MIX = "get=70,update=20,add=9,all=1";
+    private static final double DEFAULT_KEY_SKEW = 1.0;
+    private static final int MAX_IN_FLIGHT = 1024;
+    private static final long SEED = 42;
+    private static final LocalDate ADULT_BIRTH_DATE = LocalDate.of(1980, 1, 1);
+
+    enum Kind {
+        GET, UPDATE, ADD, ALL
+    }
+
+    private static final class Request {
+        private final Kind kind;
+        private final String email;
+        private final String clientId;
+
+        private Request(Kind kind, String email, String clientId) {
+            this.kind = kind;
+            this.email = email;
+            this.clientId = clientId;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.println("Usage: WorkloadReplay directory [shards rate seconds mix|traceFile keySkew limiter]");
+            System.exit(1);
+        }
+        Path directory = Paths.get(args[0]);
+        int shards = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_SHARDS;
+        int rate = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_RATE;
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_SECONDS;
+        String workload = args.length > 4 ? args[4] : DEFAULT_MIX;
+        double keySkew = args.length > 5 ? Double.parseDouble(args[5]) : DEFAULT_KEY_SKEW;
+        boolean limited = args.length > 6 && "adaptive".equals(args[6]);
+
+        UserServiceOptions options = new UserServiceOptions();
+        options.setDataDirectory(directory);
+        options.setShardCount(shards);
+        options.setConcurrencyLimiter(limited ? new ConcurrencyLimiter() : null);
+        UserService service = new UserService(options);
+
+        long loadStart = System.nanoTime();
+        List<User> users = service.getAllUsers().join();
+        System.out.printf("Loaded %d users in %.1f s%n", users.size(), (System.nanoTime() - loadStart) / 1e9);
+
+        Supplier<Request> requests = workload.contains("=")
+                ? syntheticRequests(parseMix(workload), users, keySkew)
+                : recordedRequests(Paths.get(workload));
+        System.out.printf("Replaying %s at %d requests/s for %d s%s%n", workload, rate, seconds,
+                limited ? " with an adaptive concurrency limit" : "");
+        run(service, requests, rate, seconds);
+        service.close();
+    }
+
+    private static void run(UserService service, Supplier<Request> requests, int rate, int seconds)
+            throws InterruptedException {
+        Map<Kind, LatencyHistogram> latencies = new EnumMap<>(Kind.class);
+        Map<Kind, LongAdder> failures = new EnumMap<>(Kind.class);
+        Map<Kind, LongAdder> rejections = new EnumMap<>(Kind.class);
+        for (Kind kind : Kind.values()) {
+            latencies.put(kind, new LatencyHistogram());
+            failures.put(kind, new LongAdder());
+            rejections.put(kind, new LongAdder());
+        }
+        Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+        long shed = 0;
+        long intervalNanos = 1_000_000_000L / rate;
+        long startNanos = System.nanoTime();
+        long endNanos = startNanos + seconds * 1_000_000_000L;
+
+        for (long n = 0; ; n++) {
+            long dueNanos = startNanos + n * intervalNanos;
+            if (dueNanos >= endNanos) {
+                break;
+            }
+            long waitNanos = dueNanos - System.nanoTime();
+            if (waitNanos > 0) {
+                LockSupport.parkNanos(waitNanos);
+            }
+            Request request = requests.get();
+            if (!inFlight.tryAcquire()) {
+                shed++;
+                continue;
+            }
+            execute(service, request).whenComplete((succeeded, error) -> {
+                Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                if (cause instanceof OverloadedException) {
+                    rejections.get(request.kind).increment();
+                } else {
+                    latencies.get(request.kind).record(System.nanoTime() - dueNanos);
+                    if (error != null || !succeeded) {
+                        failures.get(request.kind).increment();
+                    }
+                }
+                inFlight.release();
+            });
+        }
+        inFlight.acquire(MAX_IN_FLIGHT);
+        double elapsedSeconds = (System.nanoTime() - startNanos) / 1e9;
+        report(latencies, failures, rejections, shed, elapsedSeconds);
+    }
+
+    // Completes with whether the request did what it asked for
+    private static CompletableFuture<Boolean> execute(UserService service, Request request) {
+        switch (request.kind) {
+            case GET:
+                return service.getUserByEmail(request.email).thenApply(user -> user != null);
+            case UPDATE:
+                return service.getUserByEmail(request.email).thenCompose(user -> {
+                    if (user == null) {
+                        return CompletableFuture.completedFuture(false);
+                    }
+                    user.setSurname("Replayed" + System.nanoTime());
+                    return service.updateUser(user);
+                });
+            case ADD:
+                return service.addUser("Replay", "User", request.email, ADULT_BIRTH_DATE, request.clientId);
+            default:
+                return service.getAllUsers().thenApply(all -> true);
+        }
+    }
+
+    private static void report(Map<Kind, LatencyHistogram> latencies, Map<Kind, LongAdder> failures,
+                               Map<Kind, LongAdder> rejections, long shed, double elapsedSeconds) {
+        System.out.printf("%-8s %9s %8s %9s %9s %9s %9s %9s %9s %9s%n", "request", "count", "failed",
+                "rejected", "req/s", "mean ms", "p50 ms", "p99 ms", "p99.9 ms", "max ms");
+        long total = 0;
+        for (Kind kind : Kind.values()) {
+            LatencyHistogram histogram = latencies.get(kind);
+            if (histogram.getCount() == 0 && rejections.get(kind).sum() == 0) {
+                continue;
+            }
+            total += histogram.getCount();
+            System.out.printf("%-8s %9d %8d %9d %9.0f %9.2f %9.2f %9.2f %9.2f %9.2f%n",
+                    kind.name().toLowerCase(), histogram.getCount(), failures.get(kind).sum(), rejections.get(kind).sum(),
+                    histogram.getCount() / elapsedSeconds, histogram.getMeanNanos() / 1e6,
+                    histogram.getPercentileNanos(50) / 1e6, histogram.getPercentileNanos(99) / 1e6,
+                    histogram.getPercentileNanos(99.9) / 1e6, histogram.getMaxNanos() / 1e6);
+        }
+        System.out.printf("Completed %d requests in %.1f s (%.0f req/s), shed %d%n",
+                total, elapsedSeconds, total / elapsedSeconds, shed);
+    }
+
+    // Percentages per request kind, e.g. `get=70,update=30`
+    private static Map<Kind, Integer> parseMix(String mix) {
+        Map<Kind, Integer> weights = new EnumMap<>(Kind.class);
+        for (String part : mix.split(",")) {
+            String[] pair = part.split("=");
+            weights.put(Kind.valueOf(pair[0].trim().toUpperCase()), Integer.parseInt(pair[1].trim()));
+        }
+        return weights;
+    }
+
+    private static Supplier<Request> syntheticRequests(Map<Kind, Integer> weights, List<User> users, double keySkew) {
+        if (users.isEmpty()) {
+            throw new IllegalArgumentException("The database has no users to pick from");
+        }
+        List<String> emails = new ArrayList<>(users.size());
+        Set<String> clientIds = new LinkedHashSet<>();
+        for (User user : users) {
+            emails.add(user.getEmail());
+            clientIds.add(user.getClient().getId());
+        }
+        List<String> clients = new ArrayList<>(clientIds);
+        ZipfDistribution userPopularity = new ZipfDistribution(emails.size(), keySkew);
+        ZipfDistribution clientPopularity = new ZipfDistribution(clients.size(), keySkew);
+        int totalWeight = weights.values().stream().mapToInt(Integer::intValue).sum();
+        Random random = new Random(SEED);
+        // Emails of added users must not clash with earlier runs against the same directory
+        String runId = Long.toString(System.currentTimeMillis(), 36);
+        long[] added = {0};
+
+        return () -> {
+            int pick = random.nextInt(totalWeight);
+            Kind kind = null;
+            for (Map.Entry<Kind, Integer> weight : weights.entrySet()) {
+                kind = weight.getKey();
+                pick -= weight.getValue();
+                if (pick < 0) {
+                    break;
+                }
+            }
+            switch (kind) {
+                case ADD:
+                    return new Request(kind, "replay-" + runId + "-" + added[0]++ + "@example.com",
+                            clients.get(clientPopularity.sample(random)));
+                case ALL:
+                    return new Request(kind, null, null);
+                default:
+                    return new Request(kind, emails.get(userPopularity.sample(random)), null);
+            }
+        };
+    }
+
+    private static Supplier<Request> recordedRequests(Path traceFile) throws IOException {
+        List<Request> trace = new ArrayList<>();
+        for (String line : Files.readAllLines(traceFile)) {
+            String[] fields = line.trim().split("\\s+");
+            if (fields[0].isEmpty() || fields[0].startsWith("#")) {
+                continue;
+            }
+            Kind kind = Kind.valueOf(fields[0].toUpperCase());
+            trace.add(new Request(kind, fields.length > 1 ? fields[1] : null, fields.length > 2 ? fields[2] : null));
+        }
+        if (trace.isEmpty()) {
+            throw new IllegalArgumentException("No requests in " + traceFile);
+        }
+        int[] next = {0};
+        return () -> trace.get(next[0]++ % trace.size());
+    }
+}
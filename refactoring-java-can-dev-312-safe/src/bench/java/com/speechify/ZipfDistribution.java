@@ -0,0 +1,26 @@
+package com.speechify;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Samples ranks 0..size-1 where rank r is drawn with probability proportional to 1/(r+1)^exponent.
+ * Exponent 0 is uniform; around 1 a few ranks dominate, as with popular clients or hot users.
+ */
+class ZipfDistribution {
+    private final double[] cumulative;
+
+    ZipfDistribution(int size, double exponent) {
+        cumulative = new double[size];
+        double sum = 0;
+        for (int rank = 1; rank <= size; rank++) {
+            sum += 1.0 / Math.pow(rank, exponent);
+            cumulative[rank - 1] = sum;
+        }
+    }
+
+    int sample(Random random) {
+        int index = Arrays.binarySearch(cumulative, random.nextDouble() * cumulative[cumulative.length - 1]);
+        return index >= 0 ? index : -index - 1;
+    }
+}
@@ -0,0 +1,180 @@
+package com.speechify;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * FileStore built on AsynchronousFileChannel. Files are transferred in chunks through pooled direct
+ * buffers, and each chunk is issued from the completion handler of the previous one, so no thread
+ * waits on the I/O; the returned future completes from the channel's completion handler.
+ *
+ * Writes go to a temp file that is fsynced and then renamed over the target (see AtomicFiles), so
+ * readers see either the previous or the new contents. The fsync is the one blocking step; it runs
+ * on the channel's completion thread once the last chunk has been written.
+ */
+public class AsyncFileStore implements FileStore {
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    private static final int DEFAULT_MAX_POOLED_BUFFERS = 32;
+
+    private final DirectBufferPool buffers;
+
+    public AsyncFileStore() {
+        this(DEFAULT_BUFFER_SIZE, DEFAULT_MAX_POOLED_BUFFERS);
+    }
+
+    public AsyncFileStore(int bufferSize, int maxPooledBuffers) {
+        this.buffers = new DirectBufferPool(bufferSize, maxPooledBuffers);
+    }
+
+    @Override
+    public CompletableFuture<byte[]> read(Path path) {
+        AsynchronousFileChannel channel;
+        byte[] data;
+        try {
+            channel = AsynchronousFileChannel.open(path, StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            return CompletableFuture.completedFuture(null);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        try {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE - 8) {
+                closeQuietly(channel);
+                return CompletableFuture.failedFuture(new IOException("File too large to read at once: " + path));
+            }
+            data = new byte[(int) size];
+        } catch (IOException e) {
+            closeQuietly(channel);
+            return CompletableFuture.failedFuture(e);
+        }
+
+        CompletableFuture<byte[]> result = new CompletableFuture<>();
+        ByteBuffer buffer = buffers.acquire();
+        result.whenComplete((bytes, error) -> {
+            buffers.release(buffer);
+            closeQuietly(channel);
+        });
+        readChunk(channel, buffer, data, 0, result);
+        return result;
+    }
+
+    @Override
+    public CompletableFuture<Void> write(Path path, byte[] data) {
+        Path temp;
+        AsynchronousFileChannel channel;
+        try {
+            temp = AtomicFiles.createTempFor(path);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        try {
+            channel = AsynchronousFileChannel.open(temp, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            AtomicFiles.deleteQuietly(temp);
+            return CompletableFuture.failedFuture(e);
+        }
+
+        CompletableFuture<Void> written = new CompletableFuture<>();
+        ByteBuffer buffer = buffers.acquire();
+        writeChunk(channel, buffer, data, 0, written);
+        // The temp file is closed before it is renamed into place
+        return written.handle((ignored, error) -> {
+            buffers.release(buffer);
+            closeQuietly(channel);
+            try {
+                if (error != null) {
+                    throw error instanceof IOException ? (IOException) error : new IOException(error);
+                }
+                AtomicFiles.commit(temp, path);
+                return null;
+            } catch (IOException e) {
+                AtomicFiles.deleteQuietly(temp);
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    private void readChunk(AsynchronousFileChannel channel, ByteBuffer buffer, byte[] data,
+                           int offset, CompletableFuture<byte[]> result) {
+        if (offset == data.length) {
+            result.complete(data);
+            return;
+        }
+        buffer.clear();
+        buffer.limit(Math.min(buffer.capacity(), data.length - offset));
+        channel.read(buffer, offset, null, new CompletionHandler<Integer, Void>() {
+            @Override
+            public void completed(Integer bytesRead, Void attachment) {
+                if (bytesRead < 0) {
+                    // The file was truncated while we were reading it
+                    result.complete(Arrays.copyOf(data, offset));
+                    return;
+                }
+                buffer.flip();
+                buffer.get(data, offset, bytesRead);
+                readChunk(channel, buffer, data, offset + bytesRead, result);
+            }
+
+            @Override
+            public void failed(Throwable error, Void attachment) {
+                result.completeExceptionally(error);
+            }
+        });
+    }
+
+    private void writeChunk(AsynchronousFileChannel channel, ByteBuffer buffer, byte[] data,
+                            int offset, CompletableFuture<Void> result) {
+        if (offset == data.length) {
+            try {
+                channel.force(true);
+                result.complete(null);
+            } catch (IOException e) {
+                result.completeExceptionally(e);
+            }
+            return;
+        }
+        buffer.clear();
+        int length = Math.min(buffer.capacity(), data.length - offset);
+        buffer.put(data, offset, length);
+        buffer.flip();
+        writeBuffer(channel, buffer, data, offset, result);
+    }
+
+    // Writes the rest of `buffer`, which holds data starting at `offset`, then moves on to the next chunk
+    private void writeBuffer(AsynchronousFileChannel channel, ByteBuffer buffer, byte[] data,
+                             int offset, CompletableFuture<Void> result) {
+        long position = offset + buffer.position();
+        channel.write(buffer, position, null, new CompletionHandler<Integer, Void>() {
+            @Override
+            public void completed(Integer bytesWritten, Void attachment) {
+                if (buffer.hasRemaining()) {
+                    writeBuffer(channel, buffer, data, offset, result);
+                } else {
+                    writeChunk(channel, buffer, data, offset + buffer.limit(), result);
+                }
+            }
+
+            @Override
+            public void failed(Throwable error, Void attachment) {
+                result.completeExceptionally(error);
+            }
+        });
+    }
+
+    private static void closeQuietly(AsynchronousFileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Closing file channel failed: " + e.getMessage());
+        }
+    }
+}
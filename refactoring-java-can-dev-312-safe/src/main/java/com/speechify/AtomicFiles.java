@@ -0,0 +1,59 @@
+package com.speechify;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Helpers for replacing a file atomically: the new contents are written and fsynced to a temp file
+ * in the same directory, which is then renamed over the target. A reader (or a crash) therefore
+ * sees either the complete previous generation or the complete new one, never a mix; readers that
+ * already opened the previous file keep reading it undisturbed.
+ */
+final class AtomicFiles {
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private AtomicFiles() {
+    }
+
+    /**
+     * Creates an empty temp file next to `target` to write the new contents into.
+     */
+    static Path createTempFor(Path target) throws IOException {
+        return Files.createTempFile(directoryOf(target), target.getFileName().toString() + ".", TEMP_SUFFIX);
+    }
+
+    /**
+     * Renames the fully written and fsynced `temp` over `target`, then fsyncs the directory so the
+     * rename itself survives a crash.
+     */
+    static void commit(Path temp, Path target) throws IOException {
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        syncDirectory(directoryOf(target));
+    }
+
+    static void deleteQuietly(Path temp) {
+        try {
+            Files.deleteIfExists(temp);
+        } catch (IOException e) {
+            System.err.println("Deleting temp file " + temp + " failed: " + e.getMessage());
+        }
+    }
+
+    private static Path directoryOf(Path file) {
+        Path parent = file.toAbsolutePath().getParent();
+        return parent != null ? parent : file.toAbsolutePath().getRoot();
+    }
+
+    // Not every platform can open a directory for fsync (Windows cannot); the rename is still atomic there
+    private static void syncDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Best effort
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.speechify;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * FileStore that performs blocking reads and writes on a common pool thread, which stays parked for
+ * the duration of the I/O. Kept as the baseline AsyncFileStore is compared against.
+ * Writes replace the file atomically (see AtomicFiles).
+ */
+public class BlockingFileStore implements FileStore {
+
+    @Override
+    public CompletableFuture<byte[]> read(Path path) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return Files.readAllBytes(path);
+            } catch (NoSuchFileException e) {
+                return null;
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> write(Path path, byte[] data) {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                writeAtomically(path, data);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    private static void writeAtomically(Path path, byte[] data) throws IOException {
+        Path temp = AtomicFiles.createTempFor(path);
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(data);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            AtomicFiles.commit(temp, path);
+        } catch (IOException e) {
+            AtomicFiles.deleteQuietly(temp);
+            throw e;
+        }
+    }
+}
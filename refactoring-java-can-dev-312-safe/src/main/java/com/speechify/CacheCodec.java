@@ -0,0 +1,20 @@
+package com.speechify;
+
+/**
+ * Converts cached values to bytes and back, for cache tiers that keep values serialized
+ * (see TieredLRUCache).
+ */
+public interface CacheCodec<T> {
+
+    byte[] encode(T value);
+
+    T decode(byte[] bytes);
+
+    /**
+     * Byte sequences typical of encoded values, used as a preset compression dictionary. Values are
+     * compressed one by one and are usually too small to compress well without one.
+     */
+    default byte[] dictionary() {
+        return null;
+    }
+}
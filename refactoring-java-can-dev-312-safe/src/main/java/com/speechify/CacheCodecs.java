@@ -0,0 +1,65 @@
+package com.speechify;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Codecs for the values cached by the repositories.
+ */
+final class CacheCodecs {
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    // The stored JSON shape of a user, field names and typical values included
+    private static final byte[] USER_DICTIONARY = ("{\"id\":\"\",\"client\":{\"id\":\"\",\"name\":\"ImportantClient\"},"
+            + "\"dateOfBirth\":\"19\",\"email\":\"@gmail.com\",\"firstname\":\"\",\"surname\":\"\","
+            + "\"hasCreditLimit\":true,\"creditLimit\":10000.0}").getBytes(StandardCharsets.UTF_8);
+
+    // `id\nname`, or just `id` for a client without a name. Too short to be deflated, so a tier of
+    // clients saves the live objects' overhead but does not compress.
+    static final CacheCodec<Client> CLIENT = new CacheCodec<>() {
+        @Override
+        public byte[] encode(Client client) {
+            String text = client.getName() == null ? client.getId() : client.getId() + '\n' + client.getName();
+            return text.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public Client decode(byte[] bytes) {
+            String text = new String(bytes, StandardCharsets.UTF_8);
+            int separator = text.indexOf('\n');
+            return separator < 0
+                    ? new Client(text, null)
+                    : new Client(text.substring(0, separator), text.substring(separator + 1));
+        }
+    };
+
+    static final CacheCodec<User> USER = new CacheCodec<>() {
+        @Override
+        public byte[] encode(User user) {
+            try {
+                return OBJECT_MAPPER.writeValueAsBytes(UserJson.toNode(user));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public User decode(byte[] bytes) {
+            try {
+                return UserJson.fromNode(OBJECT_MAPPER.readTree(bytes));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public byte[] dictionary() {
+            return USER_DICTIONARY;
+        }
+    };
+
+    private CacheCodecs() {
+    }
+}
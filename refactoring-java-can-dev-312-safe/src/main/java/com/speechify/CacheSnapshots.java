@@ -0,0 +1,163 @@
+package com.speechify;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Dumps the hot key set of an LRUCache to a file and brings it back after a restart, so the first
+ * requests after a deploy do not all miss.
+ *
+ * A snapshot is a JSON document `{"keys":[...]}` listing keys most recently used first, optionally
+ * with `"values"` (base64 of the CacheCodec encoding) in the same order. It is written atomically
+ * and checksummed like the database files. Restoring keys only means reloading them through the
+ * regular read path (`warmUp`), which keeps values fresh; restoring values skips storage entirely
+ * but may bring back values that changed while the process was down.
+ */
+public final class CacheSnapshots {
+    private static final String KEYS_FIELD = "keys";
+    private static final String VALUES_FIELD = "values";
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private CacheSnapshots() {
+    }
+
+    /**
+     * Writes a key list, most recently used first, to `file`.
+     */
+    public static CompletableFuture<Void> saveKeys(List<String> keys, Path file, FileStore fileStore) {
+        ObjectNode root = JsonNodeFactory.instance.objectNode();
+        ArrayNode keyArray = root.putArray(KEYS_FIELD);
+        keys.forEach(keyArray::add);
+        return write(root, file, fileStore);
+    }
+
+    /**
+     * Writes the keys of `cache` to `file`, and their values too when `codec` is not null.
+     */
+    public static <T> CompletableFuture<Void> save(LRUCache<T> cache, CacheCodec<T> codec, Path file, FileStore fileStore) {
+        ObjectNode root = JsonNodeFactory.instance.objectNode();
+        ArrayNode keys = root.putArray(KEYS_FIELD);
+        ArrayNode values = codec != null ? root.putArray(VALUES_FIELD) : null;
+        for (String key : cache.keys()) {
+            if (values == null) {
+                keys.add(key);
+                continue;
+            }
+            // Looking a value up refreshes it; the dump is taken once, on shutdown
+            T value = cache.get(key);
+            if (value != null) {
+                keys.add(key);
+                values.add(Base64.getEncoder().encodeToString(codec.encode(value)));
+            }
+        }
+        return write(root, file, fileStore);
+    }
+
+    /**
+     * Completes with the keys of a snapshot, most recently used first; empty if there is none.
+     */
+    public static CompletableFuture<List<String>> loadKeys(Path file, FileStore fileStore) {
+        return read(file, fileStore).thenApply(root -> {
+            List<String> keys = new ArrayList<>();
+            if (root != null) {
+                root.path(KEYS_FIELD).forEach(key -> keys.add(key.asText()));
+            }
+            return keys;
+        });
+    }
+
+    /**
+     * Puts the values stored in a snapshot back into `cache`, keeping their recency order.
+     * Completes with the number of restored entries.
+     */
+    public static <T> CompletableFuture<Integer> restoreValues(LRUCache<T> cache, CacheCodec<T> codec,
+                                                               Path file, FileStore fileStore) {
+        return read(file, fileStore).thenApply(root -> {
+            if (root == null || !root.has(VALUES_FIELD)) {
+                return 0;
+            }
+            JsonNode keys = root.get(KEYS_FIELD);
+            JsonNode values = root.get(VALUES_FIELD);
+            // Coldest first, so the hottest entries end up most recently used
+            for (int i = keys.size() - 1; i >= 0; i--) {
+                cache.set(keys.get(i).asText(), codec.decode(Base64.getDecoder().decode(values.get(i).asText())));
+            }
+            return keys.size();
+        });
+    }
+
+    /**
+     * Loads `keys` through `loader`, hottest first, with at most `parallelism` loads in flight.
+     * Failed loads are skipped. Completes with the number of keys that loaded a value.
+     */
+    public static <T> CompletableFuture<Integer> warmUp(List<String> keys, Function<String, CompletableFuture<T>> loader,
+                                                       int parallelism) {
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger loaded = new AtomicInteger();
+        List<CompletableFuture<Void>> workers = new ArrayList<>();
+        for (int i = 0; i < Math.min(parallelism, keys.size()); i++) {
+            workers.add(loadNext(keys, loader, next, loaded));
+        }
+        return CompletableFuture.allOf(workers.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> loaded.get());
+    }
+
+    // One worker: loads a key, then the next unclaimed one once that completed, until none is left.
+    // Loads that complete immediately are looped over rather than chained, to keep the stack flat.
+    private static <T> CompletableFuture<Void> loadNext(List<String> keys, Function<String, CompletableFuture<T>> loader,
+                                                        AtomicInteger next, AtomicInteger loaded) {
+        while (true) {
+            int index = next.getAndIncrement();
+            if (index >= keys.size()) {
+                return CompletableFuture.completedFuture(null);
+            }
+            CompletableFuture<T> load;
+            try {
+                load = loader.apply(keys.get(index));
+            } catch (RuntimeException e) {
+                continue;
+            }
+            CompletableFuture<Void> counted = load.handle((value, error) -> {
+                if (value != null) {
+                    loaded.incrementAndGet();
+                }
+                return null;
+            });
+            if (!counted.isDone()) {
+                return counted.thenCompose(ignored -> loadNext(keys, loader, next, loaded));
+            }
+        }
+    }
+
+    private static CompletableFuture<Void> write(ObjectNode root, Path file, FileStore fileStore) {
+        try {
+            return fileStore.write(file, DatabaseChecksum.append(OBJECT_MAPPER.writeValueAsBytes(root)));
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private static CompletableFuture<JsonNode> read(Path file, FileStore fileStore) {
+        return fileStore.read(file).thenApply(data -> {
+            if (data == null) {
+                return null;
+            }
+            try {
+                return OBJECT_MAPPER.readTree(DatabaseChecksum.strip(data, file.toString()));
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+}
@@ -0,0 +1,293 @@
+package com.speechify;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Ordered log of the user adds and updates applied by a UserService, so consumers can follow the
+ * changes instead of re-reading all users.
+ *
+ * Every change gets the next sequence number. Consumers keep the last sequence they processed and
+ * ask for what came after it with `read`, or `await` to wait for the next change. Only the latest
+ * `capacity` changes are retained; a consumer that fell further behind gets a page that is not
+ * `complete` and must resynchronize from a full read (taking `getLatestSequence` first).
+ *
+ * With a log file, changes are also appended to it as JSON lines, rotated into `<file>.1` every
+ * `capacity` changes, and reloaded on construction, so sequences keep increasing across restarts
+ * and consumers can resume where they stopped. Appends are not fsynced: the users themselves are
+ * durable in their repository, and the last few changes of a host crash may be missing from the
+ * feed (and their sequence numbers reused).
+ */
+public class ChangeFeed {
+    private static final String ROTATED_SUFFIX = ".1";
+
+    /**
+     * Changes following a given sequence, as returned by `read` and `await`.
+     */
+    public static final class Page {
+        private final List<UserChange> changes;
+        private final boolean complete;
+        private final long lastSequence;
+
+        private Page(List<UserChange> changes, boolean complete, long lastSequence) {
+            this.changes = changes;
+            this.complete = complete;
+            this.lastSequence = lastSequence;
+        }
+
+        public List<UserChange> getChanges() {
+            return changes;
+        }
+
+        /**
+         * False if changes right after the requested sequence are no longer retained.
+         */
+        public boolean isComplete() {
+            return complete;
+        }
+
+        /**
+         * Sequence to resume from: that of the last change on this page, or the requested one if empty.
+         */
+        public long getLastSequence() {
+            return lastSequence;
+        }
+    }
+
+    private final int capacity;
+    private final Path logFile;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    // The fields below are guarded by this; change n is at ring[n % capacity] while retained
+    private final UserChange[] ring;
+    private final Set<Waiter> waiters = new LinkedHashSet<>();
+    private long oldestSequence = 1;
+    private long latestSequence;
+    private int loggedInSegment;
+    private Writer log;
+    private boolean closed;
+
+    /**
+     * Creates a feed retaining `capacity` changes, in memory only if `logFile` is null.
+     */
+    public ChangeFeed(int capacity, Path logFile) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.ring = new UserChange[capacity];
+        this.logFile = logFile;
+        if (logFile != null) {
+            try {
+                replay(rotatedFile());
+                loggedInSegment = replay(logFile);
+            } catch (IOException e) {
+                System.err.println("Change log could not be read: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Sequence of the latest change, 0 if there was none.
+     */
+    public synchronized long getLatestSequence() {
+        return latestSequence;
+    }
+
+    /**
+     * Returns up to `maxChanges` changes following `afterSequence`, oldest first.
+     */
+    public synchronized Page read(long afterSequence, int maxChanges) {
+        // A consumer ahead of the feed saw sequences from before a lost log, and is out of step too
+        if (afterSequence < oldestSequence - 1 || afterSequence > latestSequence) {
+            return new Page(Collections.emptyList(), false, afterSequence);
+        }
+        long last = Math.min(latestSequence, afterSequence + maxChanges);
+        List<UserChange> changes = new ArrayList<>((int) (last - afterSequence));
+        for (long sequence = afterSequence + 1; sequence <= last; sequence++) {
+            changes.add(ring[slot(sequence)]);
+        }
+        return new Page(changes, true, last);
+    }
+
+    /**
+     * Like `read`, but completes only once there is at least one change after `afterSequence`.
+     * Callers bound the wait with e.g. `orTimeout`; a wait that times out or is cancelled is dropped.
+     */
+    public synchronized CompletableFuture<Page> await(long afterSequence, int maxChanges) {
+        Page page = read(afterSequence, maxChanges);
+        if (!page.getChanges().isEmpty() || !page.isComplete()) {
+            return CompletableFuture.completedFuture(page);
+        }
+        Waiter waiter = new Waiter(afterSequence, maxChanges);
+        waiters.add(waiter);
+        // Completed exceptionally only by the caller, as append completes it normally
+        waiter.future.whenComplete((result, error) -> {
+            if (error != null) {
+                synchronized (this) {
+                    waiters.remove(waiter);
+                }
+            }
+        });
+        return waiter.future;
+    }
+
+    /**
+     * Number of `await` calls waiting for a change.
+     */
+    public synchronized int getWaitingCount() {
+        return waiters.size();
+    }
+
+    /**
+     * Appends one change per user, in order, and wakes up the waiting consumers.
+     */
+    void append(UserChange.Type type, List<User> users) {
+        if (users.isEmpty()) {
+            return;
+        }
+        List<Waiter> woken;
+        synchronized (this) {
+            for (User user : users) {
+                add(new UserChange(latestSequence + 1, type, user));
+            }
+            writeToLog(users.size());
+            woken = new ArrayList<>(waiters);
+            waiters.clear();
+        }
+        // Completed outside the lock, as the consumers' continuations may run right here
+        for (Waiter waiter : woken) {
+            if (!waiter.future.isDone()) {
+                waiter.future.complete(read(waiter.afterSequence, waiter.maxChanges));
+            }
+        }
+    }
+
+    // Must be called with this locked; `change` must have the sequence right after the latest one
+    private void add(UserChange change) {
+        latestSequence = change.getSequence();
+        ring[slot(latestSequence)] = change;
+        oldestSequence = Math.max(oldestSequence, latestSequence - capacity + 1);
+    }
+
+    private int slot(long sequence) {
+        return (int) (sequence % capacity);
+    }
+
+    /**
+     * Closes the log file. Later changes are still retained in memory, but no longer logged.
+     */
+    public synchronized void close() {
+        closed = true;
+        if (log == null) {
+            return;
+        }
+        try {
+            log.close();
+        } catch (IOException e) {
+            System.err.println("Change log close failed: " + e.getMessage());
+        }
+        log = null;
+    }
+
+    // Must be called with this locked; logs the last `count` retained changes
+    private void writeToLog(int count) {
+        if (logFile == null || closed) {
+            return;
+        }
+        try {
+            if (log == null || loggedInSegment >= capacity) {
+                rotate();
+            }
+            for (long sequence = latestSequence - count + 1; sequence <= latestSequence; sequence++) {
+                log.write(toLine(ring[slot(sequence)]));
+                loggedInSegment++;
+            }
+            log.flush();
+        } catch (IOException e) {
+            System.err.println("Change log write failed: " + e.getMessage());
+        }
+    }
+
+    private void rotate() throws IOException {
+        if (log != null) {
+            log.close();
+            Files.move(logFile, rotatedFile(), StandardCopyOption.REPLACE_EXISTING);
+            loggedInSegment = 0;
+        }
+        log = Files.newBufferedWriter(logFile, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE);
+    }
+
+    // Loads the changes of a log segment; stops at a torn last line. Returns the number of lines read.
+    private int replay(Path segment) throws IOException {
+        if (!Files.exists(segment)) {
+            return 0;
+        }
+        int lines = 0;
+        try (BufferedReader reader = Files.newBufferedReader(segment, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                UserChange change;
+                try {
+                    change = fromLine(line);
+                } catch (JsonProcessingException | RuntimeException e) {
+                    break;
+                }
+                if (change.getSequence() > latestSequence) {
+                    // Sequences lost with a torn log are skipped
+                    oldestSequence = Math.max(oldestSequence,
+                            change.getSequence() == latestSequence + 1 ? oldestSequence : change.getSequence());
+                    add(change);
+                }
+                lines++;
+            }
+        }
+        return lines;
+    }
+
+    private String toLine(UserChange change) throws JsonProcessingException {
+        ObjectNode node = JsonNodeFactory.instance.objectNode();
+        node.put("sequence", change.getSequence());
+        node.put("type", change.getType().name());
+        node.set("user", UserJson.toNode(change.getUser()));
+        return objectMapper.writeValueAsString(node) + "\n";
+    }
+
+    private UserChange fromLine(String line) throws JsonProcessingException {
+        JsonNode node = objectMapper.readTree(line);
+        return new UserChange(node.get("sequence").asLong(),
+                UserChange.Type.valueOf(node.get("type").asText()), UserJson.fromNode(node.get("user")));
+    }
+
+    private Path rotatedFile() {
+        return logFile.resolveSibling(logFile.getFileName() + ROTATED_SUFFIX);
+    }
+
+    private static final class Waiter {
+        private final long afterSequence;
+        private final int maxChanges;
+        private final CompletableFuture<Page> future = new CompletableFuture<>();
+
+        private Waiter(long afterSequence, int maxChanges) {
+            this.afterSequence = afterSequence;
+            this.maxChanges = maxChanges;
+        }
+    }
+}
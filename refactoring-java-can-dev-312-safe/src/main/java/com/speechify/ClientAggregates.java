@@ -0,0 +1,125 @@
+package com.speechify;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Per-client user count and credit exposure, kept up to date by the shards as they publish
+ * snapshots instead of being recomputed from all users for each report.
+ *
+ * Counters are LongAdders keyed by client id, so concurrent writes to users of the same client do
+ * not contend, and a query is a map lookup plus a sum over the adder's cells. Credit limits are
+ * counted in cents rather than summed as doubles, so adding and later subtracting the same user
+ * leaves no rounding drift. Users with no credit limit are counted apart and add nothing to the
+ * exposure; users without a client are not counted at all.
+ *
+ * Values are not a consistent snapshot across clients or shards: while a write is being applied a
+ * query may see it in some counters and not yet in others.
+ */
+public class ClientAggregates {
+    private static final double CENTS_PER_UNIT = 100.0;
+
+    /**
+     * Aggregates of one client at the time they were read.
+     */
+    public static final class Totals {
+        private final long userCount;
+        private final long unlimitedUserCount;
+        private final double totalCreditLimit;
+
+        private Totals(long userCount, long unlimitedUserCount, double totalCreditLimit) {
+            this.userCount = userCount;
+            this.unlimitedUserCount = unlimitedUserCount;
+            this.totalCreditLimit = totalCreditLimit;
+        }
+
+        public long getUserCount() {
+            return userCount;
+        }
+
+        /**
+         * Count of users without a credit limit, included in `getUserCount`.
+         */
+        public long getUnlimitedUserCount() {
+            return unlimitedUserCount;
+        }
+
+        /**
+         * Sum of the credit limits of the users that have one.
+         */
+        public double getTotalCreditLimit() {
+            return totalCreditLimit;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Counters> countersByClientId = new ConcurrentHashMap<>();
+
+    public long getUserCount(String clientId) {
+        Counters counters = countersByClientId.get(clientId);
+        return counters == null ? 0 : counters.users.sum();
+    }
+
+    public double getTotalCreditLimit(String clientId) {
+        Counters counters = countersByClientId.get(clientId);
+        return counters == null ? 0.0 : counters.creditLimitCents.sum() / CENTS_PER_UNIT;
+    }
+
+    public Totals getTotals(String clientId) {
+        Counters counters = countersByClientId.get(clientId);
+        return counters == null ? new Totals(0, 0, 0.0) : counters.totals();
+    }
+
+    /**
+     * Returns the totals of every client that ever had a user, keyed by client id.
+     */
+    public Map<String, Totals> getAllTotals() {
+        Map<String, Totals> totals = new HashMap<>();
+        countersByClientId.forEach((clientId, counters) -> totals.put(clientId, counters.totals()));
+        return totals;
+    }
+
+    /**
+     * Counts `previous` out and `current` in; either may be null for an insert or a removal.
+     */
+    void replaced(User previous, User current) {
+        if (previous != null) {
+            add(previous, -1);
+        }
+        if (current != null) {
+            add(current, 1);
+        }
+    }
+
+    /**
+     * Counts a whole shard in (or out, with `sign` -1), in parallel.
+     */
+    void addAll(Stream<User> users, int sign) {
+        users.parallel().forEach(user -> add(user, sign));
+    }
+
+    private void add(User user, int sign) {
+        if (user.getClient() == null || user.getClient().getId() == null) {
+            return;
+        }
+        Counters counters = countersByClientId.computeIfAbsent(user.getClient().getId(), ignored -> new Counters());
+        counters.users.add(sign);
+        if (user.hasCreditLimit()) {
+            counters.creditLimitCents.add(sign * Math.round(user.getCreditLimit() * CENTS_PER_UNIT));
+        } else {
+            counters.unlimitedUsers.add(sign);
+        }
+    }
+
+    private static final class Counters {
+        private final LongAdder users = new LongAdder();
+        private final LongAdder unlimitedUsers = new LongAdder();
+        private final LongAdder creditLimitCents = new LongAdder();
+
+        private Totals totals() {
+            return new Totals(users.sum(), unlimitedUsers.sum(), creditLimitCents.sum() / CENTS_PER_UNIT);
+        }
+    }
+}
@@ -1,99 +1,49 @@
 package com.speechify;
 
-import java.io.File;
-import java.io.IOException;
-import java.util.ArrayList;
+import java.nio.file.Path;
+import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.fasterxml.jackson.databind.node.ArrayNode;
 
-public class ClientRepository {
-    private static final String DB_FILE = "db.json";
-    private static final String ALL_CLIENTS_CACHE_KEY = "ALL_CLIENTS";
-    private static final int CLIENT_CACHE_SIZE = 50;
-    private static final int ALL_ITEMS_CACHE_SIZE = 1;
-    
-    private final ObjectMapper objectMapper;
-    private final LRUCache<Client> clientIdCache;
-    private final LRUCache<List<Client>> allClientsCache;
+/**
+ * Read access to clients. JsonClientRepository reads them from the database file,
+ * InMemoryClientRepository serves a fixed list.
+ */
+public interface ClientRepository {
 
-    public ClientRepository() {
-        this.objectMapper = new ObjectMapper();
-        this.clientIdCache = LRUCacheProvider.createLRUCache(new CacheLimits(CLIENT_CACHE_SIZE));
-        this.allClientsCache = LRUCacheProvider.createLRUCache(new CacheLimits(ALL_ITEMS_CACHE_SIZE));
-    }
+    /**
+     * Completes with the client, or with null if there is none with this id.
+     */
+    CompletableFuture<Client> getById(String id);
 
-    public CompletableFuture<Client> getById(String id) {
-        return CompletableFuture.supplyAsync(() -> {
-            // Check cache first
-            Client cached = clientIdCache.get(id);
-            if (cached != null) {
-                return cached;
-            }
-            
-            try {
-                File dbFile = new File(DB_FILE);
-                if (!dbFile.exists()) {
-                    return null;
-                }
+    CompletableFuture<List<Client>> getAll();
 
-                ObjectNode root = (ObjectNode) objectMapper.readTree(dbFile);
-                ArrayNode clients = (ArrayNode) root.get("clients");
-                
-                for (int i = 0; i < clients.size(); i++) {
-                    ObjectNode clientNode = (ObjectNode) clients.get(i);
-                    if (clientNode.get("id").asText().equals(id)) {
-                        Client client = new Client();
-                        client.setId(clientNode.get("id").asText());
-                        client.setName(clientNode.get("name").asText());
-                        // Cache the result
-                        clientIdCache.set(id, client);
-                        return client;
-                    }
-                }
-                return null;
-            } catch (IOException e) {
-                return null;
-            }
-        });
+    /**
+     * Drops any cached copy of these clients, and of client lists containing them, after they
+     * changed in storage. A no-op for repositories without a cache.
+     */
+    default void invalidate(Collection<String> clientIds) {
     }
 
-    public CompletableFuture<List<Client>> getAll() {
-        return CompletableFuture.supplyAsync(() -> {
-            // Check cache first
-            List<Client> cached = allClientsCache.get(ALL_CLIENTS_CACHE_KEY);
-            if (cached != null) {
-                return cached;
-            }
-            
-            try {
-                File dbFile = new File(DB_FILE);
-                if (!dbFile.exists()) {
-                    return new ArrayList<>();
-                }
+    /**
+     * Drops every cached client. A no-op for repositories without a cache.
+     */
+    default void invalidateAll() {
+    }
 
-                ObjectNode root = (ObjectNode) objectMapper.readTree(dbFile);
-                ArrayNode clients = (ArrayNode) root.get("clients");
-                List<Client> clientList = new ArrayList<>();
+    /**
+     * Dumps the ids of the cached clients so a restarted process can `warmUp` from them.
+     * A no-op for repositories without a cache.
+     */
+    default CompletableFuture<Void> saveCacheSnapshot(Path file) {
+        return CompletableFuture.completedFuture(null);
+    }
 
-                for (int i = 0; i < clients.size(); i++) {
-                    ObjectNode clientNode = (ObjectNode) clients.get(i);
-                    Client client = new Client();
-                    client.setId(clientNode.get("id").asText());
-                    client.setName(clientNode.get("name").asText());
-                    clientList.add(client);
-                    // Also cache individual clients by ID
-                   clientIdCache.set(client.getId(), client); 
-                }
-                
-                // Cache the complete list
-                allClientsCache.set(ALL_CLIENTS_CACHE_KEY, clientList);
-                return clientList;
-            } catch (IOException e) {
-                return new ArrayList<>();
-            }
-        });
+    /**
+     * Loads the clients listed in a snapshot into the cache, at most `parallelism` at a time.
+     * Completes with the number of clients loaded.
+     */
+    default CompletableFuture<Integer> warmUp(Path file, int parallelism) {
+        return CompletableFuture.completedFuture(0);
     }
-} 
\ No newline at end of file
+}
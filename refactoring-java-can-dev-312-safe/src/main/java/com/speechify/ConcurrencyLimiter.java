@@ -0,0 +1,142 @@
+package com.speechify;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Adaptive bound on the number of calls in flight, so that a spike is turned away at the door
+ * instead of queueing behind file I/O and slowing down every caller.
+ *
+ * Reads and writes have limits of their own, as their latencies differ by orders of magnitude.
+ * Each limit follows a latency gradient: a short-term average of its calls' latency (the last ten
+ * or so) is compared with a long-term one (the last few hundred). While calls are as fast as
+ * usual the limit grows by about its square root per sample; once the short-term average exceeds
+ * TOLERANCE times the long-term one (calls are queueing), it shrinks in proportion, by at most
+ * half. A failed call shrinks its limit multiplicatively. A limit only grows while more than half
+ * of it is in use, so an idle period does not inflate it.
+ *
+ * Reads take priority: when reads slow down, the write limit shrinks along with the read limit,
+ * so writes give way to them rather than the other way round.
+ */
+public class ConcurrencyLimiter {
+    private static final int DEFAULT_INITIAL_LIMIT = 20;
+    private static final int DEFAULT_MIN_LIMIT = 2;
+    private static final int DEFAULT_MAX_LIMIT = 1000;
+    private static final double TOLERANCE = 1.5;
+    private static final double SMOOTHING = 0.2;
+    private static final double MIN_GRADIENT = 0.5;
+    private static final double FAILURE_BACKOFF = 0.9;
+    private static final double SHORT_AVERAGE_WEIGHT = 1.0 / 10;
+    private static final double LONG_AVERAGE_WEIGHT = 1.0 / 500;
+    // A long-term average this much above the short-term one drifts down quickly, after a slow period
+    private static final double RECOVERY_RATIO = 2.0;
+    private static final double RECOVERY_DECAY = 0.95;
+
+    public enum Priority {
+        READ, WRITE
+    }
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final Lane reads;
+    private final Lane writes;
+
+    public ConcurrencyLimiter() {
+        this(DEFAULT_INITIAL_LIMIT, DEFAULT_MIN_LIMIT, DEFAULT_MAX_LIMIT);
+    }
+
+    /**
+     * Limits apply to reads and writes each.
+     */
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit <= 0 || minLimit > initialLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("Limits must satisfy 0 < minLimit <= initialLimit <= maxLimit");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.reads = new Lane(initialLimit);
+        this.writes = new Lane(initialLimit);
+    }
+
+    /**
+     * Admits a call if there is room for its priority. An admitted call must be followed by
+     * exactly one `release`.
+     */
+    public boolean tryAcquire(Priority priority) {
+        Lane lane = lane(priority);
+        while (true) {
+            int current = lane.inFlight.get();
+            if (current >= lane.limit) {
+                return false;
+            }
+            if (lane.inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Ends an admitted call and adapts the limit of its priority to how long it took.
+     */
+    public void release(Priority priority, long latencyNanos, boolean succeeded) {
+        Lane lane = lane(priority);
+        int current = lane.inFlight.getAndDecrement();
+        synchronized (this) {
+            if (!succeeded) {
+                lane.limit = Math.max(minLimit, lane.limit * FAILURE_BACKOFF);
+                return;
+            }
+            double gradient = lane.sample(latencyNanos);
+            if (current >= lane.limit / 2) {
+                lane.limit = next(lane.limit, gradient);
+            }
+            if (priority == Priority.READ && gradient < 1.0) {
+                writes.limit = next(writes.limit, gradient);
+            }
+        }
+    }
+
+    public int getLimit(Priority priority) {
+        return (int) lane(priority).limit;
+    }
+
+    public int getInFlight(Priority priority) {
+        return lane(priority).inFlight.get();
+    }
+
+    private Lane lane(Priority priority) {
+        return priority == Priority.READ ? reads : writes;
+    }
+
+    private double next(double limit, double gradient) {
+        double target = limit * gradient + Math.sqrt(limit);
+        double next = limit * (1 - SMOOTHING) + target * SMOOTHING;
+        return Math.max(minLimit, Math.min(maxLimit, next));
+    }
+
+    private static final class Lane {
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private volatile double limit;
+        // Guarded by the limiter
+        private double shortNanos;
+        private double longNanos;
+
+        private Lane(double limit) {
+            this.limit = limit;
+        }
+
+        // Records a latency and returns the gradient, between MIN_GRADIENT and 1 (not queueing)
+        private double sample(long latencyNanos) {
+            if (longNanos == 0) {
+                shortNanos = latencyNanos;
+                longNanos = latencyNanos;
+                return 1.0;
+            }
+            shortNanos += (latencyNanos - shortNanos) * SHORT_AVERAGE_WEIGHT;
+            longNanos += (latencyNanos - longNanos) * LONG_AVERAGE_WEIGHT;
+            if (longNanos > RECOVERY_RATIO * shortNanos) {
+                longNanos *= RECOVERY_DECAY;
+            }
+            return Math.max(MIN_GRADIENT, Math.min(1.0, TOLERANCE * longNanos / Math.max(1.0, shortNanos)));
+        }
+    }
+}
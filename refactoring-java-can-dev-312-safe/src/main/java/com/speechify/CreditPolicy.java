@@ -0,0 +1,99 @@
+package com.speechify;
+
+/**
+ * Decides the credit limit of users from the tier of their client.
+ *
+ * A client's tier is derived from its name once and then cached by client id, so applying the
+ * policy to many users of the same client costs one cache lookup each. A client whose name
+ * changed keeps its cached tier until `invalidate` is called (UserService.retierClient does).
+ */
+public class CreditPolicy {
+    private static final int DEFAULT_TIER_CACHE_SIZE = 1000;
+    private static final double DEFAULT_CREDIT_LIMIT = 10000.0;
+    private static final double IMPORTANT_CLIENT_MULTIPLIER = 2.0;
+    private static final String VERY_IMPORTANT_CLIENT = "VeryImportantClient";
+    private static final String IMPORTANT_CLIENT = "ImportantClient";
+
+    /**
+     * Credit terms granted to the users of a client.
+     */
+    public enum Tier {
+        STANDARD(true, DEFAULT_CREDIT_LIMIT),
+        IMPORTANT(true, DEFAULT_CREDIT_LIMIT * IMPORTANT_CLIENT_MULTIPLIER),
+        VERY_IMPORTANT(false, 0.0);
+
+        private final boolean hasCreditLimit;
+        private final double creditLimit;
+
+        Tier(boolean hasCreditLimit, double creditLimit) {
+            this.hasCreditLimit = hasCreditLimit;
+            this.creditLimit = creditLimit;
+        }
+
+        public boolean hasCreditLimit() {
+            return hasCreditLimit;
+        }
+
+        public double getCreditLimit() {
+            return creditLimit;
+        }
+    }
+
+    private final LRUCache<Tier> tiersByClientId;
+
+    public CreditPolicy() {
+        this(DEFAULT_TIER_CACHE_SIZE);
+    }
+
+    public CreditPolicy(int tierCacheSize) {
+        this.tiersByClientId = LRUCacheProvider.createLRUCache(new CacheLimits(tierCacheSize));
+    }
+
+    public Tier tierOf(Client client) {
+        Tier tier = tiersByClientId.get(client.getId());
+        if (tier == null) {
+            tier = resolveTier(client);
+            tiersByClientId.set(client.getId(), tier);
+        }
+        return tier;
+    }
+
+    /**
+     * Sets the credit limit of `user` from the tier of its client. Returns true if it changed.
+     */
+    public boolean apply(User user) {
+        Tier tier = tierOf(user.getClient());
+        // Users without a limit keep whatever stale amount they had; only the flag matters then
+        boolean changed = user.hasCreditLimit() != tier.hasCreditLimit()
+                || tier.hasCreditLimit() && user.getCreditLimit() != tier.getCreditLimit();
+        user.setHasCreditLimit(tier.hasCreditLimit());
+        if (tier.hasCreditLimit()) {
+            user.setCreditLimit(tier.getCreditLimit());
+        }
+        return changed;
+    }
+
+    /**
+     * Forgets the cached tier of a client, e.g. after it was renamed.
+     */
+    public void invalidate(String clientId) {
+        tiersByClientId.invalidate(clientId);
+    }
+
+    public void invalidateAll() {
+        tiersByClientId.invalidateAll(clientId -> true);
+    }
+
+    /**
+     * Maps a client to its tier. Override to plug in other rules; results are cached by client id.
+     */
+    protected Tier resolveTier(Client client) {
+        if (VERY_IMPORTANT_CLIENT.equals(client.getName())) {
+            return Tier.VERY_IMPORTANT;
+        }
+        if (IMPORTANT_CLIENT.equals(client.getName())) {
+            return Tier.IMPORTANT;
+        }
+        return Tier.STANDARD;
+    }
+}
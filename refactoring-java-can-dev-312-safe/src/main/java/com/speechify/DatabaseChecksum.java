@@ -0,0 +1,76 @@
+package com.speechify;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * Trailing checksum line of the database files, e.g. `\n#CRC32C:1a2b3c4d\n` after the JSON document.
+ *
+ * Saves append it and loads verify it, so a truncated or otherwise damaged file is reported as such
+ * instead of being parsed into a partial user list. Files without the trailer (written before it
+ * existed, or edited by hand) are accepted as they are.
+ */
+final class DatabaseChecksum {
+    private static final byte[] TRAILER_PREFIX = "\n#CRC32C:".getBytes(StandardCharsets.US_ASCII);
+    private static final int HEX_DIGITS = 8;
+    // Prefix, checksum digits and the final newline
+    private static final int TRAILER_LENGTH = TRAILER_PREFIX.length + HEX_DIGITS + 1;
+
+    private DatabaseChecksum() {
+    }
+
+    /**
+     * Returns `data` followed by its checksum trailer.
+     */
+    static byte[] append(byte[] data) {
+        byte[] trailerBytes = String.format("\n#CRC32C:%08x\n", checksum(data, data.length))
+                .getBytes(StandardCharsets.US_ASCII);
+        byte[] sealed = Arrays.copyOf(data, data.length + trailerBytes.length);
+        System.arraycopy(trailerBytes, 0, sealed, data.length, trailerBytes.length);
+        return sealed;
+    }
+
+    /**
+     * Returns the document without its trailer, or `data` itself if it has none.
+     * Throws if a trailer is present and does not match the document.
+     */
+    static byte[] strip(byte[] data, String source) throws IOException {
+        int trailerStart = data.length - TRAILER_LENGTH;
+        if (trailerStart < 0 || !hasTrailerAt(data, trailerStart)) {
+            return data;
+        }
+        long expected;
+        try {
+            String digits = new String(data, trailerStart + TRAILER_PREFIX.length, HEX_DIGITS, StandardCharsets.US_ASCII);
+            expected = Long.parseLong(digits, 16);
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed checksum trailer in " + source);
+        }
+        long actual = checksum(data, trailerStart);
+        if (actual != expected) {
+            throw new IOException(String.format(
+                    "Checksum mismatch in %s: expected %08x, found %08x", source, expected, actual));
+        }
+        return Arrays.copyOf(data, trailerStart);
+    }
+
+    private static boolean hasTrailerAt(byte[] data, int offset) {
+        if (data[data.length - 1] != '\n') {
+            return false;
+        }
+        for (int i = 0; i < TRAILER_PREFIX.length; i++) {
+            if (data[offset + i] != TRAILER_PREFIX[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static long checksum(byte[] data, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(data, 0, length);
+        return crc.getValue();
+    }
+}
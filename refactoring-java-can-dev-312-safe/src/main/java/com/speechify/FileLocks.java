@@ -0,0 +1,76 @@
+package com.speechify;
+
+import java.io.IOException;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Asynchronous mutual exclusion between processes (and within this one) on a lock file.
+ *
+ * An OS file lock is held by the whole JVM and cannot be taken twice in it, so operations on the
+ * same lock file are first queued per path in this process, then each takes the file lock for its
+ * duration. No thread is parked while waiting, either for the queue or for the other processes.
+ */
+final class FileLocks {
+    // Completes when the last operation queued for a lock file has finished
+    private static final Map<Path, CompletableFuture<?>> QUEUES = new ConcurrentHashMap<>();
+
+    private FileLocks() {
+    }
+
+    /**
+     * Runs `operation` once this process and every other one released `lockFile`, holding the lock
+     * until the future it returns completes. The lock file is created if needed.
+     */
+    static <T> CompletableFuture<T> withLock(Path lockFile, Supplier<CompletableFuture<T>> operation) {
+        Path key = lockFile.toAbsolutePath().normalize();
+        CompletableFuture<T> result = new CompletableFuture<>();
+        CompletableFuture<?> previous = QUEUES.put(key, result.handle((value, error) -> null));
+        (previous == null ? CompletableFuture.completedFuture(null) : previous)
+                .thenCompose(ignored -> lockAndRun(key, operation))
+                .whenComplete((value, error) -> {
+                    if (error != null) {
+                        result.completeExceptionally(error);
+                    } else {
+                        result.complete(value);
+                    }
+                });
+        return result;
+    }
+
+    private static <T> CompletableFuture<T> lockAndRun(Path lockFile, Supplier<CompletableFuture<T>> operation) {
+        AsynchronousFileChannel channel;
+        try {
+            channel = AsynchronousFileChannel.open(lockFile, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        CompletableFuture<FileLock> locked = new CompletableFuture<>();
+        channel.lock(null, new CompletionHandler<FileLock, Void>() {
+            @Override
+            public void completed(FileLock lock, Void attachment) {
+                locked.complete(lock);
+            }
+
+            @Override
+            public void failed(Throwable error, Void attachment) {
+                locked.completeExceptionally(error);
+            }
+        });
+        // Closing the channel releases the lock
+        return locked.thenCompose(lock -> operation.get()).whenComplete((value, error) -> {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("Releasing lock " + lockFile + " failed: " + e.getMessage());
+            }
+        });
+    }
+}
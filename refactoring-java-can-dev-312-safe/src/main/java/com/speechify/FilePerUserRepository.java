@@ -0,0 +1,111 @@
+package com.speechify;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Stream;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * UserRepository that keeps one small JSON file per user in a directory, named after the hex-encoded
+ * user id. A save only writes the files of the changed users (concurrently) and deletes those of
+ * removed ones, like a minimal embedded key-value store. Each file is replaced atomically and
+ * carries a checksum trailer.
+ */
+public class FilePerUserRepository implements UserRepository {
+    private static final String FILE_SUFFIX = ".json";
+
+    private final Path directory;
+    private final FileStore fileStore;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    public FilePerUserRepository(Path directory) {
+        this(directory, new AsyncFileStore());
+    }
+
+    public FilePerUserRepository(Path directory, FileStore fileStore) {
+        this.directory = directory;
+        this.fileStore = fileStore;
+    }
+
+    @Override
+    public CompletableFuture<List<User>> loadAll() {
+        List<CompletableFuture<User>> reads = new ArrayList<>();
+        if (Files.isDirectory(directory)) {
+            try (Stream<Path> files = Files.list(directory)) {
+                files.filter(file -> file.getFileName().toString().endsWith(FILE_SUFFIX))
+                        .forEach(file -> reads.add(fileStore.read(file).thenApply(data -> parse(file, data))));
+            } catch (IOException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+        return CompletableFuture.allOf(reads.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> {
+            List<User> users = new ArrayList<>(reads.size());
+            for (CompletableFuture<User> read : reads) {
+                User user = read.join();
+                // A file deleted between listing and reading
+                if (user != null) {
+                    users.add(user);
+                }
+            }
+            return users;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> save(List<User> upserted, List<String> removedIds, Iterable<User> allUsers) {
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        // Only the last version of a user written twice in one change set is kept
+        Map<String, User> latest = new LinkedHashMap<>();
+        for (User user : upserted) {
+            latest.put(user.getId(), user);
+        }
+        List<CompletableFuture<Void>> writes = new ArrayList<>(latest.size() + removedIds.size());
+        for (User user : latest.values()) {
+            byte[] data;
+            try {
+                data = DatabaseChecksum.append(objectMapper.writeValueAsBytes(UserJson.toStoredNode(user)));
+            } catch (IOException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+            writes.add(fileStore.write(fileOf(user.getId()), data));
+        }
+        for (String id : removedIds) {
+            writes.add(CompletableFuture.runAsync(() -> {
+                try {
+                    Files.deleteIfExists(fileOf(id));
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }));
+        }
+        return CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[0]));
+    }
+
+    private User parse(Path file, byte[] data) {
+        if (data == null) {
+            return null;
+        }
+        try {
+            return UserJson.fromStoredNode(objectMapper.readTree(DatabaseChecksum.strip(data, file.toString())));
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private Path fileOf(String id) {
+        return directory.resolve(HexFormat.of().formatHex(id.getBytes(StandardCharsets.UTF_8)) + FILE_SUFFIX);
+    }
+}
@@ -0,0 +1,24 @@
+package com.speechify;
+
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Whole-file reads and writes used by the file-backed user and client repositories.
+ *
+ * Both operations are asynchronous; how much of the work happens on a parked thread depends on the
+ * implementation. AsyncFileStore completes on I/O completion, BlockingFileStore runs the classic
+ * blocking calls on the common pool.
+ */
+public interface FileStore {
+
+    /**
+     * Completes with the file contents, or with null if the file does not exist.
+     */
+    CompletableFuture<byte[]> read(Path path);
+
+    /**
+     * Replaces the contents of the file, creating it if needed.
+     */
+    CompletableFuture<Void> write(Path path, byte[] data);
+}
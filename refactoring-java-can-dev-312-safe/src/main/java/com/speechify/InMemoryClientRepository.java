@@ -0,0 +1,31 @@
+package com.speechify;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * ClientRepository serving a fixed set of clients from memory.
+ */
+public class InMemoryClientRepository implements ClientRepository {
+    private final Map<String, Client> clientsById = new LinkedHashMap<>();
+
+    public InMemoryClientRepository(Collection<Client> clients) {
+        for (Client client : clients) {
+            clientsById.put(client.getId(), client);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Client> getById(String id) {
+        return CompletableFuture.completedFuture(clientsById.get(id));
+    }
+
+    @Override
+    public CompletableFuture<List<Client>> getAll() {
+        return CompletableFuture.completedFuture(new ArrayList<>(clientsById.values()));
+    }
+}
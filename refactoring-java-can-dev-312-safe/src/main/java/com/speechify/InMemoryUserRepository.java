@@ -0,0 +1,45 @@
+package com.speechify;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * UserRepository that keeps users on the heap only. Useful for tests, benchmarks and as a baseline
+ * for the cost of the persistent backends; nothing survives the process.
+ */
+public class InMemoryUserRepository implements UserRepository {
+    private final Map<String, User> usersById = new ConcurrentHashMap<>();
+
+    public InMemoryUserRepository() {
+    }
+
+    public InMemoryUserRepository(Collection<User> initialUsers) {
+        for (User user : initialUsers) {
+            usersById.put(user.getId(), new User(user));
+        }
+    }
+
+    @Override
+    public CompletableFuture<List<User>> loadAll() {
+        List<User> users = new ArrayList<>(usersById.size());
+        for (User user : usersById.values()) {
+            users.add(new User(user));
+        }
+        return CompletableFuture.completedFuture(users);
+    }
+
+    @Override
+    public CompletableFuture<Void> save(List<User> upserted, List<String> removedIds, Iterable<User> allUsers) {
+        for (User user : upserted) {
+            usersById.put(user.getId(), new User(user));
+        }
+        for (String id : removedIds) {
+            usersById.remove(id);
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+}
@@ -0,0 +1,337 @@
+package com.speechify;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Invalidation channel between processes sharing a data directory: a ring buffer of changed keys
+ * in a memory-mapped file that every process appends to and tails.
+ *
+ * Each record names a channel (e.g. "users") and a key. Writers take a file lock on the header,
+ * fill the next slot and then advance the head sequence, so records are totally ordered across
+ * processes. Readers never lock: a poll reads the head and copies the slots it has not seen yet,
+ * which costs a single memory read when nothing changed. A reader that falls more than a full
+ * ring behind, or sees a slot rewritten while copying it, has lost records and tells every
+ * subscriber to invalidate everything instead. Records published by this journal are not
+ * delivered back to it.
+ *
+ * File layout, in native byte order: a 64 byte header (magic, version, slot count, head
+ * sequence), then fixed 256 byte slots of (sequence + 1 once committed, writer id, channel
+ * length, key length, channel, key). A key too long for its slot is recorded as "all keys".
+ *
+ * `close()` stops the polling thread and closes the file; the mapping is released once the journal
+ * is no longer referenced, as Java has no way to unmap it explicitly.
+ */
+public class InvalidationJournal implements Closeable {
+    public static final String FILE_NAME = "invalidations.journal";
+    private static final int MAGIC = 0x494e564a;
+    private static final int VERSION = 1;
+    private static final int DEFAULT_SLOT_COUNT = 4096;
+    private static final int HEADER_SIZE = 64;
+    private static final int SLOT_SIZE = 256;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int SLOT_COUNT_OFFSET = 8;
+    private static final int HEAD_OFFSET = 16;
+    private static final int WRITER_OFFSET = 8;
+    private static final int CHANNEL_LENGTH_OFFSET = 16;
+    private static final int KEY_LENGTH_OFFSET = 17;
+    private static final int PAYLOAD_OFFSET = 19;
+    private static final int MAX_CHANNEL_LENGTH = 64;
+    private static final int MAX_PAYLOAD_LENGTH = SLOT_SIZE - PAYLOAD_OFFSET;
+    private static final short ALL_KEYS = -1;
+    private static final long WRITING = -1;
+    private static final String THREAD_NAME = "invalidation-journal";
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    // A FileLock belongs to the whole JVM, so journals of one JVM on the same file take turns here first
+    private static final ConcurrentMap<Path, Object> WRITE_LOCKS = new ConcurrentHashMap<>();
+
+    /**
+     * Receives the keys other processes invalidated on one channel.
+     */
+    public interface Subscriber {
+        void invalidate(Collection<String> keys);
+
+        /**
+         * Records were lost (or a key did not fit its slot); everything cached may be stale.
+         */
+        void invalidateAll();
+    }
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int slotCount;
+    private final long writerId = ThreadLocalRandom.current().nextLong();
+    private final Object writeLock;
+    private final Map<String, List<Subscriber>> subscribers = new ConcurrentHashMap<>();
+    private final LongAdder overruns = new LongAdder();
+    // Null unless polled on a timer
+    private final ScheduledExecutorService tailer;
+    // Guarded by this
+    private long nextSequence;
+
+    /**
+     * Opens (creating if needed) the journal file and, if `pollInterval` is not null, starts
+     * polling it on a daemon thread at that interval. Only records published from now on are seen.
+     */
+    public InvalidationJournal(Path file, Duration pollInterval) throws IOException {
+        Path normalized = file.toAbsolutePath().normalize();
+        this.writeLock = WRITE_LOCKS.computeIfAbsent(normalized, ignored -> new Object());
+        this.channel = FileChannel.open(normalized,
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        try {
+            this.slotCount = initialize();
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) slotCount * SLOT_SIZE);
+            buffer.order(ByteOrder.nativeOrder());
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        this.nextSequence = (long) LONGS.getAcquire(buffer, HEAD_OFFSET);
+        if (pollInterval != null) {
+            this.tailer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, THREAD_NAME);
+                thread.setDaemon(true);
+                return thread;
+            });
+            long intervalNanos = pollInterval.toNanos();
+            tailer.scheduleWithFixedDelay(this::pollQuietly, intervalNanos, intervalNanos, TimeUnit.NANOSECONDS);
+        } else {
+            this.tailer = null;
+        }
+    }
+
+    public void subscribe(String channelName, Subscriber subscriber) {
+        checkChannelName(channelName);
+        subscribers.computeIfAbsent(channelName, ignored -> new CopyOnWriteArrayList<>()).add(subscriber);
+    }
+
+    /**
+     * Tells the other processes that these keys of a channel changed.
+     */
+    public void publish(String channelName, Collection<String> keys) throws IOException {
+        checkChannelName(channelName);
+        if (keys.isEmpty()) {
+            return;
+        }
+        if (!channel.isOpen()) {
+            throw new IOException("Invalidation journal is closed");
+        }
+        synchronized (writeLock) {
+            FileLock lock = channel.lock(0, HEADER_SIZE, false);
+            try {
+                long head = (long) LONGS.getAcquire(buffer, HEAD_OFFSET);
+                for (String key : keys) {
+                    writeSlot(head++, channelName, key);
+                }
+                LONGS.setRelease(buffer, HEAD_OFFSET, head);
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    /**
+     * Delivers the records published by other processes since the last poll to the subscribers
+     * of their channels. Called by the polling thread, or directly when there is none.
+     * Returns the number of records delivered.
+     */
+    public synchronized int poll() {
+        if (!channel.isOpen()) {
+            return 0;
+        }
+        long head = (long) LONGS.getAcquire(buffer, HEAD_OFFSET);
+        if (head == nextSequence) {
+            return 0;
+        }
+        if (head - nextSequence > slotCount || head < nextSequence) {
+            nextSequence = head;
+            lost();
+            return 0;
+        }
+        Map<String, Set<String>> keysByChannel = new LinkedHashMap<>();
+        Set<String> allKeysChannels = new LinkedHashSet<>();
+        int delivered = 0;
+        for (long sequence = nextSequence; sequence < head; sequence++) {
+            int offset = slotOffset(sequence);
+            long marker = (long) LONGS.getAcquire(buffer, offset);
+            long writer = buffer.getLong(offset + WRITER_OFFSET);
+            int channelLength = buffer.get(offset + CHANNEL_LENGTH_OFFSET) & 0xff;
+            short keyLength = buffer.getShort(offset + KEY_LENGTH_OFFSET);
+            boolean valid = marker == sequence + 1 && channelLength <= MAX_CHANNEL_LENGTH
+                    && channelLength + Math.max(0, keyLength) <= MAX_PAYLOAD_LENGTH;
+            byte[] channelBytes = new byte[valid ? channelLength : 0];
+            byte[] keyBytes = new byte[valid ? Math.max(0, keyLength) : 0];
+            buffer.get(offset + PAYLOAD_OFFSET, channelBytes);
+            buffer.get(offset + PAYLOAD_OFFSET + channelBytes.length, keyBytes);
+            // The slot must not have been reused while it was copied
+            VarHandle.loadLoadFence();
+            if (!valid || (long) LONGS.getAcquire(buffer, offset) != marker) {
+                nextSequence = head;
+                lost();
+                return delivered;
+            }
+            if (writer == writerId) {
+                continue;
+            }
+            String channelName = new String(channelBytes, StandardCharsets.UTF_8);
+            if (keyLength == ALL_KEYS) {
+                allKeysChannels.add(channelName);
+            } else {
+                keysByChannel.computeIfAbsent(channelName, ignored -> new LinkedHashSet<>())
+                        .add(new String(keyBytes, StandardCharsets.UTF_8));
+            }
+            delivered++;
+        }
+        nextSequence = head;
+        for (String channelName : allKeysChannels) {
+            keysByChannel.remove(channelName);
+            for (Subscriber subscriber : subscribersOf(channelName)) {
+                notify(subscriber, null);
+            }
+        }
+        for (Map.Entry<String, Set<String>> entry : keysByChannel.entrySet()) {
+            for (Subscriber subscriber : subscribersOf(entry.getKey())) {
+                notify(subscriber, entry.getValue());
+            }
+        }
+        return delivered;
+    }
+
+    /**
+     * Number of polls that lost records and invalidated everything.
+     */
+    public long getOverruns() {
+        return overruns.sum();
+    }
+
+    /**
+     * Stops polling, waiting for a poll that is delivering records, and closes the file. Later
+     * polls deliver nothing and publishing fails.
+     */
+    @Override
+    public void close() throws IOException {
+        if (tailer != null) {
+            tailer.shutdownNow();
+        }
+        // Polls hold this lock
+        synchronized (this) {
+            channel.close();
+        }
+    }
+
+    // Writes the header of a new file under the file lock; returns the slot count of the file
+    private int initialize() throws IOException {
+        synchronized (writeLock) {
+            FileLock lock = channel.lock();
+            try {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.nativeOrder());
+                if (channel.size() < HEADER_SIZE) {
+                    header.putInt(MAGIC_OFFSET, MAGIC);
+                    header.putInt(VERSION_OFFSET, VERSION);
+                    header.putInt(SLOT_COUNT_OFFSET, DEFAULT_SLOT_COUNT);
+                    channel.write(header, 0);
+                    // Extends the file to its full size, zero filled
+                    channel.write(ByteBuffer.allocate(1), HEADER_SIZE + (long) DEFAULT_SLOT_COUNT * SLOT_SIZE - 1);
+                    channel.force(true);
+                    return DEFAULT_SLOT_COUNT;
+                }
+                channel.read(header, 0);
+                if (header.getInt(MAGIC_OFFSET) != MAGIC || header.getInt(VERSION_OFFSET) != VERSION) {
+                    throw new IOException("Not an invalidation journal: " + channel);
+                }
+                return header.getInt(SLOT_COUNT_OFFSET);
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    // Must be called with the write lock held
+    private void writeSlot(long sequence, String channelName, String key) {
+        int offset = slotOffset(sequence);
+        byte[] channelBytes = channelName.getBytes(StandardCharsets.UTF_8);
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        boolean fits = channelBytes.length + keyBytes.length <= MAX_PAYLOAD_LENGTH;
+        // Readers copying this slot from the previous round must notice it changed
+        LONGS.setVolatile(buffer, offset, WRITING);
+        buffer.putLong(offset + WRITER_OFFSET, writerId);
+        buffer.put(offset + CHANNEL_LENGTH_OFFSET, (byte) channelBytes.length);
+        buffer.putShort(offset + KEY_LENGTH_OFFSET, fits ? (short) keyBytes.length : ALL_KEYS);
+        buffer.put(offset + PAYLOAD_OFFSET, channelBytes);
+        if (fits) {
+            buffer.put(offset + PAYLOAD_OFFSET + channelBytes.length, keyBytes);
+        }
+        LONGS.setRelease(buffer, offset, sequence + 1);
+    }
+
+    private int slotOffset(long sequence) {
+        return HEADER_SIZE + (int) (sequence % slotCount) * SLOT_SIZE;
+    }
+
+    private List<Subscriber> subscribersOf(String channelName) {
+        return subscribers.getOrDefault(channelName, Collections.emptyList());
+    }
+
+    private void lost() {
+        overruns.increment();
+        for (List<Subscriber> channelSubscribers : subscribers.values()) {
+            for (Subscriber subscriber : channelSubscribers) {
+                notify(subscriber, null);
+            }
+        }
+    }
+
+    // Null keys mean all keys
+    private void notify(Subscriber subscriber, Collection<String> keys) {
+        try {
+            if (keys == null) {
+                subscriber.invalidateAll();
+            } else {
+                subscriber.invalidate(keys);
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Invalidation subscriber failed: " + e.getMessage());
+        }
+    }
+
+    private void pollQuietly() {
+        try {
+            poll();
+        } catch (RuntimeException e) {
+            System.err.println("Invalidation journal poll failed: " + e.getMessage());
+        }
+    }
+
+    private static void checkChannelName(String channelName) {
+        if (channelName.getBytes(StandardCharsets.UTF_8).length > MAX_CHANNEL_LENGTH) {
+            throw new IllegalArgumentException("Channel name too long: " + channelName);
+        }
+    }
+}
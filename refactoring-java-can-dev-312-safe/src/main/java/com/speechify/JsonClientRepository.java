@@ -0,0 +1,184 @@
+package com.speechify;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+
+/**
+ * ClientRepository reading the `clients` array of a JSON database file, with LRU caches in front.
+ *
+ * A database read only fills the caches if no `invalidate` happened since it started, so a slow
+ * read cannot put back clients that were invalidated meanwhile.
+ */
+public class JsonClientRepository implements ClientRepository {
+    private static final String ALL_CLIENTS_CACHE_KEY = "ALL_CLIENTS";
+    private static final int CLIENT_CACHE_SIZE = 50;
+    private static final int COMPRESSED_CLIENT_CACHE_SIZE = 10_000;
+    private static final int ALL_ITEMS_CACHE_SIZE = 1;
+    private static final String METRIC_PREFIX = "ClientRepository.";
+    
+    private final ObjectMapper objectMapper;
+    private final TieredLRUCache<Client> clientIdCache;
+    private final LRUCache<List<Client>> allClientsCache;
+    private final MetricsRecorder metrics;
+    private final FileStore fileStore;
+    private final Path file;
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public JsonClientRepository(Path file) {
+        this(file, new AsyncFileStore(), MetricsRecorder.NOOP);
+    }
+
+    public JsonClientRepository(Path file, FileStore fileStore, MetricsRecorder metrics) {
+        this.file = file;
+        this.metrics = metrics;
+        this.fileStore = fileStore;
+        this.objectMapper = new ObjectMapper();
+        // The hottest clients stay live, many more are kept compressed
+        this.clientIdCache = new TieredLRUCache<>(new CacheLimits(CLIENT_CACHE_SIZE),
+                new CacheLimits(COMPRESSED_CLIENT_CACHE_SIZE), CacheCodecs.CLIENT);
+        this.allClientsCache = LRUCacheProvider.createLRUCache(new CacheLimits(ALL_ITEMS_CACHE_SIZE));
+        metrics.registerGauge(METRIC_PREFIX + "clientIdCache.l1Hits", clientIdCache::getL1Hits);
+        metrics.registerGauge(METRIC_PREFIX + "clientIdCache.l2Hits", clientIdCache::getL2Hits);
+    }
+
+    @Override
+    public CompletableFuture<Client> getById(String id) {
+        long startNanos = System.nanoTime();
+        // Check cache first
+        Client cached = clientIdCache.get(id);
+        if (cached != null) {
+            metrics.increment(METRIC_PREFIX + "clientIdCache.hit");
+            return timed("getById", startNanos, CompletableFuture.completedFuture(cached));
+        }
+        metrics.increment(METRIC_PREFIX + "clientIdCache.miss");
+
+        long epoch = invalidations.get();
+        CompletableFuture<Client> client = readDatabase()
+                .thenApply(root -> {
+                    if (root == null) {
+                        return null;
+                    }
+
+                    ArrayNode clients = (ArrayNode) root.get("clients");
+                    
+                    for (int i = 0; i < clients.size(); i++) {
+                        ObjectNode clientNode = (ObjectNode) clients.get(i);
+                        if (clientNode.get("id").asText().equals(id)) {
+                            Client found = new Client();
+                            found.setId(clientNode.get("id").asText());
+                            found.setName(clientNode.path("name").asText(null));
+                            if (invalidations.get() == epoch) {
+                                clientIdCache.set(id, found);
+                            }
+                            return found;
+                        }
+                    }
+                    return (Client) null;
+                })
+                .exceptionally(error -> null);
+        return timed("getById", startNanos, client);
+    }
+
+    @Override
+    public CompletableFuture<List<Client>> getAll() {
+        long startNanos = System.nanoTime();
+        // Check cache first
+        List<Client> cached = allClientsCache.get(ALL_CLIENTS_CACHE_KEY);
+        if (cached != null) {
+            metrics.increment(METRIC_PREFIX + "allClientsCache.hit");
+            return timed("getAll", startNanos, CompletableFuture.completedFuture(cached));
+        }
+        metrics.increment(METRIC_PREFIX + "allClientsCache.miss");
+
+        long epoch = invalidations.get();
+        CompletableFuture<List<Client>> all = readDatabase()
+                .thenApply(root -> {
+                    if (root == null) {
+                        return new ArrayList<Client>();
+                    }
+
+                    ArrayNode clients = (ArrayNode) root.get("clients");
+                    List<Client> clientList = new ArrayList<>();
+                    Map<String, Client> clientsById = new LinkedHashMap<>();
+
+                    for (int i = 0; i < clients.size(); i++) {
+                        ObjectNode clientNode = (ObjectNode) clients.get(i);
+                        Client client = new Client();
+                        client.setId(clientNode.get("id").asText());
+                        client.setName(clientNode.path("name").asText(null));
+                        clientList.add(client);
+                        clientsById.put(client.getId(), client);
+                    }
+                    
+                    if (invalidations.get() == epoch) {
+                        // Also cache individual clients by ID, in one pass
+                        clientIdCache.putAll(clientsById);
+                        allClientsCache.set(ALL_CLIENTS_CACHE_KEY, clientList);
+                    }
+                    return clientList;
+                })
+                .exceptionally(error -> new ArrayList<>());
+        return timed("getAll", startNanos, all);
+    }
+    
+    @Override
+    public void invalidate(Collection<String> clientIds) {
+        invalidations.incrementAndGet();
+        allClientsCache.invalidate(ALL_CLIENTS_CACHE_KEY);
+        for (String id : clientIds) {
+            clientIdCache.invalidate(id);
+        }
+    }
+
+    @Override
+    public void invalidateAll() {
+        invalidations.incrementAndGet();
+        allClientsCache.invalidateAll(key -> true);
+        clientIdCache.invalidateAll(key -> true);
+    }
+
+    @Override
+    public CompletableFuture<Void> saveCacheSnapshot(Path snapshotFile) {
+        return CacheSnapshots.save(clientIdCache, null, snapshotFile, fileStore);
+    }
+
+    @Override
+    public CompletableFuture<Integer> warmUp(Path snapshotFile, int parallelism) {
+        return CacheSnapshots.loadKeys(snapshotFile, fileStore)
+                .thenCompose(ids -> CacheSnapshots.warmUp(ids, this::getById, parallelism));
+    }
+    
+    // Completes with the parsed database, or with null if the file does not exist
+    private CompletableFuture<ObjectNode> readDatabase() {
+        long startNanos = System.nanoTime();
+        return fileStore.read(file).thenApply(data -> {
+            if (data == null) {
+                return null;
+            }
+            try {
+                return (ObjectNode) objectMapper.readTree(DatabaseChecksum.strip(data, file.toString()));
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            } finally {
+                metrics.recordLatency(METRIC_PREFIX + "readDatabase", System.nanoTime() - startNanos);
+            }
+        });
+    }
+    
+    private <T> CompletableFuture<T> timed(String method, long startNanos, CompletableFuture<T> future) {
+        future.whenComplete((result, error) ->
+                metrics.recordLatency(METRIC_PREFIX + method, System.nanoTime() - startNanos));
+        return future;
+    }
+} 
\ No newline at end of file
@@ -0,0 +1,209 @@
+package com.speechify;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * UserRepository storing all users of a shard in one JSON document (the original `db.json` format),
+ * rewritten in full on every save. Top-level fields other than `users` (e.g. `clients`) are kept
+ * as they were loaded. Saves are atomic and checksummed (see AtomicFiles and DatabaseChecksum).
+ *
+ * A repository created as shared lets other processes write the same file. Each save then holds a
+ * lock on `<file>.lock` (see FileLocks). If the file changed since this repository last loaded or
+ * wrote it, the save re-reads it and applies its change set on top of what is there, including
+ * the other top-level fields, instead of writing the caller's view over it. Such a save fails if
+ * another process meanwhile gave one of the written emails to a different user.
+ */
+public class JsonFileUserRepository implements UserRepository {
+    private static final String USERS_FIELD = "users";
+    private static final String LOCK_SUFFIX = ".lock";
+
+    private final Path file;
+    private final FileStore fileStore;
+    private final UserDatabaseLoader loader;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    // Null unless the file is shared with other processes
+    private final Path lockFile;
+    // Filled by loadAll, which always precedes the first save
+    private final ObjectNode otherFields = JsonNodeFactory.instance.objectNode();
+    // The fields below are only touched by loadAll and save, which never overlap
+    // Identity of the file as this repository last loaded or wrote it
+    private String seenVersion;
+    // Whether the file holds changes of other processes that the callers' users lack
+    private boolean merged;
+
+    public JsonFileUserRepository(Path file) {
+        this(file, new AsyncFileStore(), new UserDatabaseLoader());
+    }
+
+    public JsonFileUserRepository(Path file, FileStore fileStore, UserDatabaseLoader loader) {
+        this(file, fileStore, loader, false);
+    }
+
+    public JsonFileUserRepository(Path file, FileStore fileStore, UserDatabaseLoader loader, boolean shared) {
+        this.file = file;
+        this.fileStore = fileStore;
+        this.loader = loader;
+        this.lockFile = shared ? file.resolveSibling(file.getFileName() + LOCK_SUFFIX) : null;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    // Top-level fields kept across saves, which a wrapping repository may add its own to
+    ObjectNode getOtherFields() {
+        return otherFields;
+    }
+
+    @Override
+    public CompletableFuture<List<User>> loadAll() {
+        if (lockFile != null) {
+            // Taken before the read, so a write in between is noticed by the next save
+            try {
+                seenVersion = version();
+            } catch (IOException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+            merged = false;
+        }
+        return fileStore.read(file).thenApplyAsync(data -> {
+            try {
+                return parse(data, otherFields);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> save(List<User> upserted, List<String> removedIds, Iterable<User> allUsers) {
+        if (lockFile == null) {
+            return write(allUsers, otherFields);
+        }
+        return FileLocks.withLock(lockFile, () -> {
+            try {
+                if (!merged && Objects.equals(version(), seenVersion)) {
+                    return writeShared(allUsers, otherFields);
+                }
+            } catch (IOException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+            return fileStore.read(file).thenCompose(data -> {
+                ObjectNode fields = JsonNodeFactory.instance.objectNode();
+                Map<String, User> usersById = new LinkedHashMap<>();
+                try {
+                    for (User user : parse(data, fields)) {
+                        usersById.put(user.getId(), user);
+                    }
+                    applyChanges(usersById, upserted, removedIds);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+                return writeShared(usersById.values(), fields).thenRun(() -> {
+                    otherFields.removeAll();
+                    otherFields.setAll(fields);
+                    merged = true;
+                });
+            });
+        });
+    }
+
+    private CompletableFuture<Void> writeShared(Iterable<User> users, ObjectNode fields) {
+        return write(users, fields).thenRun(() -> {
+            try {
+                seenVersion = version();
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    private CompletableFuture<Void> write(Iterable<User> users, ObjectNode fields) {
+        byte[] data;
+        try {
+            data = serialize(users, fields);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return fileStore.write(file, data);
+    }
+
+    private List<User> parse(byte[] data, ObjectNode fields) throws IOException {
+        if (data == null) {
+            return new ArrayList<>();
+        }
+        return loader.loadUsers(DatabaseChecksum.strip(data, file.toString()), fields);
+    }
+
+    // Applies a change set to the users another process left in the file
+    private void applyChanges(Map<String, User> usersById, List<User> upserted, List<String> removedIds)
+            throws IOException {
+        for (String id : removedIds) {
+            usersById.remove(id);
+        }
+        Map<String, String> idsByEmail = new HashMap<>();
+        for (User user : usersById.values()) {
+            idsByEmail.put(user.getEmail(), user.getId());
+        }
+        for (User user : upserted) {
+            User replaced = usersById.put(user.getId(), user);
+            if (replaced != null) {
+                idsByEmail.remove(replaced.getEmail(), replaced.getId());
+            }
+            String owner = idsByEmail.putIfAbsent(user.getEmail(), user.getId());
+            if (owner != null && !owner.equals(user.getId())) {
+                throw new IOException("Email " + user.getEmail() + " was taken by another process in " + file);
+            }
+        }
+    }
+
+    // Changes whenever the file is replaced, as every write renames a new file into place
+    private String version() throws IOException {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            return attributes.fileKey() + "/" + attributes.lastModifiedTime().toMillis() + "/" + attributes.size();
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private byte[] serialize(Iterable<User> users, ObjectNode fields) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out, JsonEncoding.UTF8)) {
+            generator.writeStartObject();
+            Iterator<Map.Entry<String, JsonNode>> fieldIterator = fields.fields();
+            while (fieldIterator.hasNext()) {
+                Map.Entry<String, JsonNode> field = fieldIterator.next();
+                generator.writeFieldName(field.getKey());
+                generator.writeTree(field.getValue());
+            }
+            generator.writeArrayFieldStart(USERS_FIELD);
+            for (User user : users) {
+                generator.writeTree(UserJson.toStoredNode(user));
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+        return DatabaseChecksum.append(out.toByteArray());
+    }
+}
@@ -1,5 +1,10 @@
 package com.speechify;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
 /**
  * A Least Recently Used (LRU) cache is a type of cache that evicts the 'least recently used items'
  * when there is a need to constrain its size.
@@ -12,6 +17,9 @@ package com.speechify;
  * This removal process will not happen on a separate thread but in the caller's thread,
  * thus potentially blocking their return for a cleanup when deemed necessary.
  *
+ * Implementations are safe for concurrent use. Every method, the bulk ones included, is atomic:
+ * other threads never observe a bulk operation half applied.
+ *
  * Use the provided com.speechify.LRUCacheProviderTest in `src/test/java/LruCacheTest.java` to validate your
  * implementation.
  *
@@ -23,4 +31,31 @@ package com.speechify;
 public interface LRUCache<T> {
     T get(String key);
     void set(String key, T value);
+
+    /**
+     * Returns the keys currently holding a value, most recently used first, without counting as
+     * an access. Meant for dumping the hot set (see CacheSnapshots), not for hot paths.
+     */
+    List<String> keys();
+
+    /**
+     * Returns the values of those `keys` that are cached, in the order of `keys`.
+     * Each key found counts as accessed.
+     */
+    Map<String, T> getAll(Collection<String> keys);
+
+    /**
+     * Same as calling `set` for every entry, in iteration order.
+     */
+    void putAll(Map<String, ? extends T> entries);
+
+    /**
+     * Removes the entry of `key`, if any.
+     */
+    void invalidate(String key);
+
+    /**
+     * Removes every entry whose key matches `keyFilter`. Costs a pass over the whole cache.
+     */
+    void invalidateAll(Predicate<String> keyFilter);
 }
\ No newline at end of file
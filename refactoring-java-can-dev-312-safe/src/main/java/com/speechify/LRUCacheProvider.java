@@ -1,7 +1,13 @@
 package com.speechify;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Predicate;
 
 /**
  *
@@ -17,38 +23,111 @@ import java.util.Map;
 public class LRUCacheProvider {
 
     public static <T> LRUCache<T> createLRUCache(CacheLimits options) {
-        return new LinkedHashMapCache<>(options.getMaxItemsCount());
+        return new LinkedHashMapCache<>(options.getMaxItemsCount(), null);
+    }
+
+    /**
+     * Same as `createLRUCache(CacheLimits)`, additionally reporting every non-null value that is
+     * evicted or replaced to `listener`.
+     */
+    public static <T> LRUCache<T> createLRUCache(CacheLimits options, RemovalListener<T> listener) {
+        return new LinkedHashMapCache<>(options.getMaxItemsCount(), listener);
     }
     
     /**
      * LRU Cache implementation using LinkedHashMap with access-order mode.
      * Provides O(1) time complexity for both get and set operations.
+     * Access-order mode reorders entries on `get`, so every access is synchronized; a bulk
+     * operation holds the lock once for all its keys.
      */
     private static class LinkedHashMapCache<V> implements LRUCache<V> {
         
         private final int capacity;
         private final Map<String, V> map;
+        private final RemovalListener<V> listener;
         
-        private LinkedHashMapCache(int capacity) {
+        private LinkedHashMapCache(int capacity, RemovalListener<V> listener) {
             this.capacity = capacity;
+            this.listener = listener;
             // LinkedHashMap with access-order mode (true = move to end on access)
             this.map = new LinkedHashMap<String, V>(capacity, 0.75f, true) {
                 @Override
                 protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
                     // Automatically remove eldest (least recently used) when size exceeds capacity
-                    return size() > LinkedHashMapCache.this.capacity;
+                    boolean evict = size() > LinkedHashMapCache.this.capacity;
+                    if (evict && listener != null && eldest.getValue() != null) {
+                        listener.onRemoval(eldest.getKey(), eldest.getValue(), RemovalCause.EVICTED);
+                    }
+                    return evict;
                 }
             };
         }
         
         @Override
-        public V get(String key) {
+        public synchronized V get(String key) {
             return map.get(key);
         }
         
         @Override
-        public void set(String key, V value) {
-            map.put(key, value);
+        public synchronized void set(String key, V value) {
+            V previous = map.put(key, value);
+            if (listener != null && previous != null && previous != value) {
+                listener.onRemoval(key, previous, RemovalCause.REPLACED);
+            }
+        }
+
+        @Override
+        public synchronized List<String> keys() {
+            // Access order iterates from the least recently used entry
+            List<String> keys = new ArrayList<>(map.size());
+            for (Map.Entry<String, V> entry : map.entrySet()) {
+                if (entry.getValue() != null) {
+                    keys.add(entry.getKey());
+                }
+            }
+            Collections.reverse(keys);
+            return keys;
+        }
+
+        @Override
+        public synchronized Map<String, V> getAll(Collection<String> keys) {
+            Map<String, V> found = new LinkedHashMap<>();
+            for (String key : keys) {
+                V value = map.get(key);
+                if (value != null) {
+                    found.put(key, value);
+                }
+            }
+            return found;
+        }
+
+        @Override
+        public synchronized void putAll(Map<String, ? extends V> entries) {
+            for (Map.Entry<String, ? extends V> entry : entries.entrySet()) {
+                set(entry.getKey(), entry.getValue());
+            }
+        }
+
+        @Override
+        public synchronized void invalidate(String key) {
+            V previous = map.remove(key);
+            if (listener != null && previous != null) {
+                listener.onRemoval(key, previous, RemovalCause.EXPLICIT);
+            }
+        }
+
+        @Override
+        public synchronized void invalidateAll(Predicate<String> keyFilter) {
+            Iterator<Map.Entry<String, V>> entries = map.entrySet().iterator();
+            while (entries.hasNext()) {
+                Map.Entry<String, V> entry = entries.next();
+                if (keyFilter.test(entry.getKey())) {
+                    entries.remove();
+                    if (listener != null && entry.getValue() != null) {
+                        listener.onRemoval(entry.getKey(), entry.getValue(), RemovalCause.EXPLICIT);
+                    }
+                }
+            }
         }
     }
 }
@@ -0,0 +1,131 @@
+package com.speechify;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+/**
+ * Read-only JMX view of a HistogramMetricsRecorder.
+ *
+ * Attributes are discovered from the recorder each time the MBean info is requested, so metrics
+ * that appear after registration show up without re-registering. Every latency `name` exposes
+ * `name.count`, `name.meanMicros`, `name.p50Micros`, `name.p99Micros`, `name.p999Micros` and
+ * `name.maxMicros`; counters and gauges are exposed under their own name.
+ */
+public class MetricsMBean implements DynamicMBean {
+    private static final String[] LATENCY_ATTRIBUTES = {"count", "meanMicros", "p50Micros", "p99Micros", "p999Micros", "maxMicros"};
+    private static final double NANOS_PER_MICRO = 1000.0;
+
+    private final HistogramMetricsRecorder recorder;
+
+    public MetricsMBean(HistogramMetricsRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    /**
+     * Registers the recorder with the platform MBean server under `com.speechify:type=Metrics,name=<name>`.
+     */
+    public static ObjectName register(HistogramMetricsRecorder recorder, String name) {
+        try {
+            ObjectName objectName = new ObjectName("com.speechify:type=Metrics,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(recorder), objectName);
+            return objectName;
+        } catch (JMException e) {
+            throw new IllegalStateException("Could not register metrics MBean " + name, e);
+        }
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Supplier<? extends Number> gauge = recorder.getGauges().get(attribute);
+        if (gauge != null) {
+            return gauge.get().doubleValue();
+        }
+        if (recorder.getCounters().containsKey(attribute)) {
+            return recorder.getCount(attribute);
+        }
+        int separator = attribute.lastIndexOf('.');
+        LatencyHistogram histogram = separator < 0 ? null : recorder.getHistogram(attribute.substring(0, separator));
+        if (histogram != null) {
+            switch (attribute.substring(separator + 1)) {
+                case "count":
+                    return (double) histogram.getCount();
+                case "meanMicros":
+                    return histogram.getMeanNanos() / NANOS_PER_MICRO;
+                case "p50Micros":
+                    return histogram.getPercentileNanos(50) / NANOS_PER_MICRO;
+                case "p99Micros":
+                    return histogram.getPercentileNanos(99) / NANOS_PER_MICRO;
+                case "p999Micros":
+                    return histogram.getPercentileNanos(99.9) / NANOS_PER_MICRO;
+                case "maxMicros":
+                    return histogram.getMaxNanos() / NANOS_PER_MICRO;
+                default:
+                    break;
+            }
+        }
+        throw new AttributeNotFoundException(attribute);
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            try {
+                list.add(new Attribute(attribute, getAttribute(attribute)));
+            } catch (AttributeNotFoundException e) {
+                // Skipped, as the DynamicMBean contract allows
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName), "Metrics have no operations: " + actionName);
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<>();
+        for (String name : recorder.getHistograms().keySet()) {
+            for (String suffix : LATENCY_ATTRIBUTES) {
+                attributes.add(readOnly(name + "." + suffix, Double.class, "Latency of " + name));
+            }
+        }
+        for (String name : recorder.getCounters().keySet()) {
+            attributes.add(readOnly(name, Long.class, "Counter"));
+        }
+        for (Map.Entry<String, Supplier<? extends Number>> gauge : recorder.getGauges().entrySet()) {
+            attributes.add(readOnly(gauge.getKey(), Double.class, "Gauge"));
+        }
+        return new MBeanInfo(getClass().getName(), "UserService and ClientRepository metrics",
+                attributes.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[0], null);
+    }
+
+    private static MBeanAttributeInfo readOnly(String name, Class<?> type, String description) {
+        return new MBeanAttributeInfo(name, type.getName(), description, true, false, false);
+    }
+}
@@ -0,0 +1,36 @@
+package com.speechify;
+
+import java.util.function.Supplier;
+
+/**
+ * Sink for the latency, counter and gauge metrics emitted by UserService and ClientRepository.
+ *
+ * Implementations are called on the request path, from many threads at once, and must be cheap and
+ * thread-safe. HistogramMetricsRecorder is the built-in implementation; adapters to other metrics
+ * libraries only need these three methods.
+ */
+public interface MetricsRecorder {
+
+    MetricsRecorder NOOP = new MetricsRecorder() {
+        @Override
+        public void recordLatency(String name, long nanos) {
+        }
+
+        @Override
+        public void increment(String name) {
+        }
+
+        @Override
+        public void registerGauge(String name, Supplier<? extends Number> gauge) {
+        }
+    };
+
+    void recordLatency(String name, long nanos);
+
+    void increment(String name);
+
+    /**
+     * Registers a value that is sampled when metrics are read rather than pushed on every change.
+     */
+    void registerGauge(String name, Supplier<? extends Number> gauge);
+}
@@ -0,0 +1,13 @@
+package com.speechify;
+
+/**
+ * Fails a UserService call that its ConcurrencyLimiter turned away. Nothing was done; the caller
+ * may retry later.
+ */
+public class OverloadedException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public OverloadedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,280 @@
+package com.speechify;
+
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+/**
+ * Immutable hash map from String keys to values with structural sharing (a hash array mapped trie).
+ *
+ * `plus` and `minus` return a new map and leave the receiver untouched. Only the O(log32 n) nodes on
+ * the path to the changed key are copied; every other node is shared with the previous version,
+ * which makes it cheap to publish a new version per write while readers keep using the old one.
+ *
+ * Iteration order is unspecified. Null keys and values are not supported.
+ */
+public final class PersistentMap<V> {
+    private static final int BITS_PER_LEVEL = 5;
+    private static final int LEVEL_MASK = (1 << BITS_PER_LEVEL) - 1;
+    private static final PersistentMap<?> EMPTY = new PersistentMap<>(new Branch(0, new Object[0]), 0);
+
+    // Either a Branch, a Collision or a Leaf
+    private final Object root;
+    private final int size;
+
+    private PersistentMap(Object root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <V> PersistentMap<V> empty() {
+        return (PersistentMap<V>) EMPTY;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean containsKey(String key) {
+        return get(key) != null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(String key) {
+        return (V) find(root, hash(key), 0, key);
+    }
+
+    public PersistentMap<V> plus(String key, V value) {
+        if (key == null || value == null) {
+            throw new NullPointerException("Null keys and values are not supported");
+        }
+        boolean[] added = new boolean[1];
+        Object newRoot = insert(root, new Leaf(hash(key), key, value), 0, added);
+        if (newRoot == root) {
+            return this;
+        }
+        return new PersistentMap<>(newRoot, added[0] ? size + 1 : size);
+    }
+
+    public PersistentMap<V> minus(String key) {
+        if (key == null || !containsKey(key)) {
+            return this;
+        }
+        Object newRoot = delete(root, hash(key), 0, key);
+        if (newRoot == null) {
+            return empty();
+        }
+        return new PersistentMap<>(newRoot, size - 1);
+    }
+
+    /**
+     * Lazily streams the values of this version of the map.
+     */
+    @SuppressWarnings("unchecked")
+    public Stream<V> values() {
+        return (Stream<V>) streamOf(root);
+    }
+
+    private static int hash(String key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static int bit(int hash, int shift) {
+        return 1 << ((hash >>> shift) & LEVEL_MASK);
+    }
+
+    private static Object find(Object node, int hash, int shift, String key) {
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            return leaf.hash == hash && leaf.key.equals(key) ? leaf.value : null;
+        }
+        if (node instanceof Collision) {
+            Collision collision = (Collision) node;
+            int index = collision.indexOf(key);
+            return collision.hash == hash && index >= 0 ? collision.leaves[index].value : null;
+        }
+        Branch branch = (Branch) node;
+        int bit = bit(hash, shift);
+        if ((branch.bitmap & bit) == 0) {
+            return null;
+        }
+        return find(branch.children[branch.index(bit)], hash, shift + BITS_PER_LEVEL, key);
+    }
+
+    private static Object insert(Object node, Leaf leaf, int shift, boolean[] added) {
+        if (node instanceof Leaf) {
+            Leaf existing = (Leaf) node;
+            if (existing.hash == leaf.hash) {
+                if (existing.key.equals(leaf.key)) {
+                    return existing.value == leaf.value ? existing : leaf;
+                }
+                added[0] = true;
+                return new Collision(leaf.hash, new Leaf[] {existing, leaf});
+            }
+            added[0] = true;
+            return merge(existing, leaf, shift);
+        }
+        if (node instanceof Collision) {
+            Collision collision = (Collision) node;
+            if (collision.hash == leaf.hash) {
+                return collision.with(leaf, added);
+            }
+            // Push the collision one level down under a branch, then insert next to it
+            Branch wrapper = new Branch(bit(collision.hash, shift), new Object[] {collision});
+            return insert(wrapper, leaf, shift, added);
+        }
+        Branch branch = (Branch) node;
+        int bit = bit(leaf.hash, shift);
+        int index = branch.index(bit);
+        if ((branch.bitmap & bit) == 0) {
+            added[0] = true;
+            Object[] children = new Object[branch.children.length + 1];
+            System.arraycopy(branch.children, 0, children, 0, index);
+            children[index] = leaf;
+            System.arraycopy(branch.children, index, children, index + 1, branch.children.length - index);
+            return new Branch(branch.bitmap | bit, children);
+        }
+        Object child = branch.children[index];
+        Object newChild = insert(child, leaf, shift + BITS_PER_LEVEL, added);
+        if (newChild == child) {
+            return branch;
+        }
+        Object[] children = branch.children.clone();
+        children[index] = newChild;
+        return new Branch(branch.bitmap, children);
+    }
+
+    // Builds the smallest subtree holding two leaves with different hashes
+    private static Object merge(Leaf first, Leaf second, int shift) {
+        int firstBit = bit(first.hash, shift);
+        int secondBit = bit(second.hash, shift);
+        if (firstBit == secondBit) {
+            return new Branch(firstBit, new Object[] {merge(first, second, shift + BITS_PER_LEVEL)});
+        }
+        Object[] children = Integer.compareUnsigned(firstBit, secondBit) < 0
+                ? new Object[] {first, second}
+                : new Object[] {second, first};
+        return new Branch(firstBit | secondBit, children);
+    }
+
+    // Returns null when the subtree becomes empty; the key is known to be present
+    private static Object delete(Object node, int hash, int shift, String key) {
+        if (node instanceof Leaf) {
+            return null;
+        }
+        if (node instanceof Collision) {
+            return ((Collision) node).without(key);
+        }
+        Branch branch = (Branch) node;
+        int bit = bit(hash, shift);
+        int index = branch.index(bit);
+        Object newChild = delete(branch.children[index], hash, shift + BITS_PER_LEVEL, key);
+        if (newChild != null) {
+            // A branch left with a single leaf below the root collapses into that leaf
+            if (newChild instanceof Leaf && branch.children.length == 1 && shift > 0) {
+                return newChild;
+            }
+            Object[] children = branch.children.clone();
+            children[index] = newChild;
+            return new Branch(branch.bitmap, children);
+        }
+        if (branch.children.length == 1) {
+            return shift == 0 ? new Branch(0, new Object[0]) : null;
+        }
+        Object[] children = new Object[branch.children.length - 1];
+        System.arraycopy(branch.children, 0, children, 0, index);
+        System.arraycopy(branch.children, index + 1, children, index, children.length - index);
+        if (children.length == 1 && children[0] instanceof Leaf && shift > 0) {
+            return children[0];
+        }
+        return new Branch(branch.bitmap & ~bit, children);
+    }
+
+    private static Stream<?> streamOf(Object node) {
+        if (node instanceof Leaf) {
+            return Stream.of(((Leaf) node).value);
+        }
+        if (node instanceof Collision) {
+            return Arrays.stream(((Collision) node).leaves).map(leaf -> leaf.value);
+        }
+        return Arrays.stream(((Branch) node).children).flatMap(PersistentMap::streamOf);
+    }
+
+    private static final class Leaf {
+        private final int hash;
+        private final String key;
+        private final Object value;
+
+        private Leaf(int hash, String key, Object value) {
+            this.hash = hash;
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    private static final class Branch {
+        private final int bitmap;
+        private final Object[] children;
+
+        private Branch(int bitmap, Object[] children) {
+            this.bitmap = bitmap;
+            this.children = children;
+        }
+
+        private int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+    }
+
+    // Leaves whose keys have the same full hash
+    private static final class Collision {
+        private final int hash;
+        private final Leaf[] leaves;
+
+        private Collision(int hash, Leaf[] leaves) {
+            this.hash = hash;
+            this.leaves = leaves;
+        }
+
+        private int indexOf(String key) {
+            for (int i = 0; i < leaves.length; i++) {
+                if (leaves[i].key.equals(key)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private Collision with(Leaf leaf, boolean[] added) {
+            int index = indexOf(leaf.key);
+            if (index >= 0) {
+                if (leaves[index].value == leaf.value) {
+                    return this;
+                }
+                Leaf[] copy = leaves.clone();
+                copy[index] = leaf;
+                return new Collision(hash, copy);
+            }
+            added[0] = true;
+            Leaf[] copy = Arrays.copyOf(leaves, leaves.length + 1);
+            copy[leaves.length] = leaf;
+            return new Collision(hash, copy);
+        }
+
+        private Object without(String key) {
+            int index = indexOf(key);
+            if (leaves.length == 2) {
+                return leaves[1 - index];
+            }
+            Leaf[] copy = new Leaf[leaves.length - 1];
+            System.arraycopy(leaves, 0, copy, 0, index);
+            System.arraycopy(leaves, index + 1, copy, index, copy.length - index);
+            return new Collision(hash, copy);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.speechify;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Back-pressured facade over UserService built on java.util.concurrent.Flow.
+ *
+ * `process` turns a publisher of add/update commands into a publisher of results, one per command
+ * and in command order. Commands are requested from upstream in advance of downstream demand, but
+ * never more than `2 * maxBatchSize` are held at once (buffered, being written, or completed and
+ * waiting for demand). A slow consumer therefore slows the producer down instead of growing queues,
+ * while the prefetch still lets writes be batched when the consumer asks for one result at a time.
+ * Commands that arrive while a batch is being written are collected into the next batch and applied
+ * with UserService.applyCommands, one save per shard.
+ */
+public class ReactiveUserService {
+    private final UserService userService;
+    private final int maxBatchSize;
+
+    public ReactiveUserService(UserService userService, int maxBatchSize) {
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException("maxBatchSize must be positive");
+        }
+        this.userService = userService;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Returns a cold publisher: every subscriber gets its own subscription to `commands`.
+     */
+    public Flow.Publisher<UserCommandResult> process(Flow.Publisher<UserCommand> commands) {
+        return subscriber -> commands.subscribe(new CommandPipeline(subscriber));
+    }
+
+    /**
+     * Subscriber to the commands and subscription handed to the result subscriber. All downstream
+     * signals and upstream requests are issued from `drain`, which runs on one thread at a time.
+     */
+    private class CommandPipeline implements Flow.Subscriber<UserCommand>, Flow.Subscription {
+        private final Flow.Subscriber<? super UserCommandResult> downstream;
+        private final Queue<UserCommand> buffered = new ConcurrentLinkedQueue<>();
+        private final Queue<UserCommandResult> completed = new ConcurrentLinkedQueue<>();
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicLong outstanding = new AtomicLong();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger wip = new AtomicInteger();
+        private final int capacity = 2 * maxBatchSize;
+        private volatile Flow.Subscription upstream;
+        private volatile boolean upstreamDone;
+        private volatile Throwable upstreamError;
+        private volatile boolean cancelled;
+        private boolean terminated;
+
+        private CommandPipeline(Flow.Subscriber<? super UserCommandResult> downstream) {
+            this.downstream = downstream;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            if (upstream != null) {
+                subscription.cancel();
+                return;
+            }
+            upstream = subscription;
+            downstream.onSubscribe(this);
+        }
+
+        @Override
+        public void onNext(UserCommand command) {
+            outstanding.decrementAndGet();
+            buffered.add(command);
+            drain();
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            upstreamError = throwable;
+            upstreamDone = true;
+            drain();
+        }
+
+        @Override
+        public void onComplete() {
+            upstreamDone = true;
+            drain();
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                upstreamError = new IllegalArgumentException("Requested " + n + " results, must be positive");
+                upstreamDone = true;
+                cancelUpstream();
+            } else {
+                demand.accumulateAndGet(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            cancelUpstream();
+            drain();
+        }
+
+        private void cancelUpstream() {
+            Flow.Subscription subscription = upstream;
+            if (subscription != null) {
+                subscription.cancel();
+            }
+        }
+
+        private void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                drainOnce();
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void drainOnce() {
+            if (terminated) {
+                return;
+            }
+            if (cancelled) {
+                terminated = true;
+                buffered.clear();
+                completed.clear();
+                return;
+            }
+
+            // Deliver finished results while the subscriber has demand
+            UserCommandResult result;
+            while (demand.get() > 0 && (result = completed.poll()) != null) {
+                downstream.onNext(result);
+                if (demand.get() != Long.MAX_VALUE) {
+                    demand.decrementAndGet();
+                }
+            }
+
+            if (inFlight.get() == 0 && !buffered.isEmpty()) {
+                writeBatch();
+            }
+
+            if (upstreamDone && buffered.isEmpty() && inFlight.get() == 0 && completed.isEmpty()) {
+                terminated = true;
+                if (upstreamError != null) {
+                    downstream.onError(upstreamError);
+                } else {
+                    downstream.onComplete();
+                }
+                return;
+            }
+
+            // Top the pipeline up to its capacity; results beyond demand wait in `completed`
+            long held = buffered.size() + inFlight.get() + completed.size() + outstanding.get();
+            long toRequest = capacity - held;
+            if (toRequest > 0 && !upstreamDone && upstream != null) {
+                outstanding.addAndGet(toRequest);
+                upstream.request(toRequest);
+            }
+        }
+
+        private void writeBatch() {
+            List<UserCommand> batch = new ArrayList<>(maxBatchSize);
+            UserCommand command;
+            while (batch.size() < maxBatchSize && (command = buffered.poll()) != null) {
+                batch.add(command);
+            }
+            inFlight.set(batch.size());
+            CompletableFuture<List<Boolean>> applied;
+            try {
+                applied = userService.applyCommands(batch);
+            } catch (RuntimeException e) {
+                // Completes the batch as failed, as `inFlight` must be reset for the pipeline to go on
+                applied = CompletableFuture.failedFuture(e);
+            }
+            applied.whenComplete((results, error) -> {
+                for (int i = 0; i < batch.size(); i++) {
+                    boolean success = error == null && Boolean.TRUE.equals(results.get(i));
+                    completed.add(new UserCommandResult(batch.get(i), success));
+                }
+                inFlight.set(0);
+                drain();
+            });
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package com.speechify;
+
+/**
+ * Why an entry left an LRUCache, as reported to a RemovalListener.
+ */
+public enum RemovalCause {
+    /**
+     * The entry was the least recently used one when the cache ran out of space.
+     */
+    EVICTED,
+
+    /**
+     * `set` stored another value under the same key.
+     */
+    REPLACED,
+
+    /**
+     * The entry was removed by `invalidate` or `invalidateAll`.
+     */
+    EXPLICIT
+}
@@ -0,0 +1,13 @@
+package com.speechify;
+
+/**
+ * Notified of every value that leaves an LRUCache created with it (see LRUCacheProvider).
+ *
+ * The listener runs in the thread that caused the removal, while the cache is locked: it must be
+ * quick and must not call back into the same cache.
+ */
+@FunctionalInterface
+public interface RemovalListener<T> {
+
+    void onRemoval(String key, T value, RemovalCause cause);
+}
@@ -0,0 +1,236 @@
+package com.speechify;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Two-level LRU cache: a small L1 of live objects in front of a much larger L2 of values encoded
+ * by a CacheCodec and deflate-compressed (unless too small to benefit), which costs a fraction of
+ * the heap of the live objects.
+ *
+ * Tiers are exclusive. An entry evicted from L1 is demoted into L2; an L2 hit decodes the value
+ * and promotes it back into L1 (which may demote another entry). A `set` always goes to L1 and
+ * drops any older copy from L2. Both tiers are LRUCache instances from LRUCacheProvider.
+ *
+ * Operations that touch both tiers lock the whole cache, so an entry is never seen in neither
+ * tier while it moves between them.
+ */
+public class TieredLRUCache<T> implements LRUCache<T> {
+    private static final int COMPRESSION_LEVEL = Deflater.BEST_SPEED;
+    // Encoded values shorter than this are stored as they are: deflate would not make them smaller
+    private static final int MIN_COMPRESSED_LENGTH = 64;
+    private static final byte STORED = 0;
+    private static final byte DEFLATED = 1;
+
+    private final LRUCache<T> l1;
+    private final LRUCache<byte[]> l2;
+    private final CacheCodec<T> codec;
+    private final ThreadLocal<Deflater> deflaters;
+    private final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(Inflater::new);
+    private final LongAdder l1Hits = new LongAdder();
+    private final LongAdder l2Hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder demoted = new LongAdder();
+    private final LongAdder deflated = new LongAdder();
+
+    public TieredLRUCache(CacheLimits l1Limits, CacheLimits l2Limits, CacheCodec<T> codec) {
+        this.codec = codec;
+        this.deflaters = ThreadLocal.withInitial(() -> new Deflater(COMPRESSION_LEVEL));
+        this.l2 = LRUCacheProvider.createLRUCache(l2Limits);
+        this.l1 = LRUCacheProvider.createLRUCache(l1Limits, (key, value, cause) -> {
+            if (cause == RemovalCause.EVICTED) {
+                demote(key, value);
+            }
+        });
+    }
+
+    @Override
+    public synchronized T get(String key) {
+        T value = l1.get(key);
+        if (value != null) {
+            l1Hits.increment();
+            return value;
+        }
+        byte[] compressed = l2.get(key);
+        if (compressed == null) {
+            misses.increment();
+            return null;
+        }
+        l2Hits.increment();
+        value = codec.decode(unpack(compressed));
+        l2.invalidate(key);
+        l1.set(key, value);
+        return value;
+    }
+
+    @Override
+    public synchronized void set(String key, T value) {
+        l2.invalidate(key);
+        l1.set(key, value);
+    }
+
+    /**
+     * Returns the keys of L1, then those of L2, each most recently used first.
+     */
+    @Override
+    public synchronized List<String> keys() {
+        Set<String> keys = new LinkedHashSet<>(l1.keys());
+        keys.addAll(l2.keys());
+        return new ArrayList<>(keys);
+    }
+
+    /**
+     * Looks all keys up in L1 first, then the remaining ones in L2, promoting the L2 hits together.
+     */
+    @Override
+    public synchronized Map<String, T> getAll(Collection<String> keys) {
+        Map<String, T> live = l1.getAll(keys);
+        List<String> missing = new ArrayList<>();
+        for (String key : keys) {
+            if (!live.containsKey(key)) {
+                missing.add(key);
+            }
+        }
+        Map<String, T> promoted = new LinkedHashMap<>();
+        l2.getAll(missing).forEach((key, compressed) -> {
+            promoted.put(key, codec.decode(unpack(compressed)));
+            l2.invalidate(key);
+        });
+        l1.putAll(promoted);
+        l1Hits.add(live.size());
+        l2Hits.add(promoted.size());
+        misses.add(missing.size() - promoted.size());
+
+        Map<String, T> found = new LinkedHashMap<>();
+        for (String key : keys) {
+            T value = live.containsKey(key) ? live.get(key) : promoted.get(key);
+            if (value != null) {
+                found.put(key, value);
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public synchronized void putAll(Map<String, ? extends T> entries) {
+        for (String key : entries.keySet()) {
+            l2.invalidate(key);
+        }
+        l1.putAll(entries);
+    }
+
+    @Override
+    public synchronized void invalidate(String key) {
+        l1.invalidate(key);
+        l2.invalidate(key);
+    }
+
+    @Override
+    public synchronized void invalidateAll(Predicate<String> keyFilter) {
+        l1.invalidateAll(keyFilter);
+        l2.invalidateAll(keyFilter);
+    }
+
+    public long getL1Hits() {
+        return l1Hits.sum();
+    }
+
+    public long getL2Hits() {
+        return l2Hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getDemoted() {
+        return demoted.sum();
+    }
+
+    /**
+     * Count of demoted entries that were stored deflated rather than as encoded, which stays at 0
+     * for a codec whose values are all shorter than deflate can shrink.
+     */
+    public long getDeflated() {
+        return deflated.sum();
+    }
+
+    // Called by L1 while it is locked, for the entry it is about to evict
+    private void demote(String key, T value) {
+        byte[] packed = pack(codec.encode(value));
+        demoted.increment();
+        if (packed[0] == DEFLATED) {
+            deflated.increment();
+        }
+        l2.set(key, packed);
+    }
+
+    // Prefixes the encoded value with a marker telling whether it was deflated
+    private byte[] pack(byte[] encoded) {
+        byte[] deflated = encoded.length >= MIN_COMPRESSED_LENGTH ? deflate(encoded) : null;
+        byte[] body = deflated != null && deflated.length < encoded.length ? deflated : encoded;
+        byte[] packed = new byte[body.length + 1];
+        packed[0] = body == encoded ? STORED : DEFLATED;
+        System.arraycopy(body, 0, packed, 1, body.length);
+        return packed;
+    }
+
+    private byte[] unpack(byte[] packed) {
+        byte[] body = Arrays.copyOfRange(packed, 1, packed.length);
+        return packed[0] == DEFLATED ? inflate(body) : body;
+    }
+
+    private byte[] deflate(byte[] bytes) {
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        if (codec.dictionary() != null) {
+            deflater.setDictionary(codec.dictionary());
+        }
+        deflater.setInput(bytes);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2 + 16);
+        byte[] buffer = new byte[Math.max(64, bytes.length)];
+        while (!deflater.finished()) {
+            int length = deflater.deflate(buffer);
+            out.write(buffer, 0, length);
+        }
+        return out.toByteArray();
+    }
+
+    private byte[] inflate(byte[] compressed) {
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(compressed);
+        byte[] result = new byte[Math.max(64, compressed.length * 4)];
+        int length = 0;
+        try {
+            while (!inflater.finished()) {
+                if (length == result.length) {
+                    result = Arrays.copyOf(result, result.length * 2);
+                }
+                int inflated = inflater.inflate(result, length, result.length - length);
+                if (inflated == 0 && inflater.needsDictionary()) {
+                    inflater.setDictionary(codec.dictionary());
+                } else if (inflated == 0 && inflater.needsInput()) {
+                    throw new IllegalStateException("Truncated compressed cache entry");
+                }
+                length += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt compressed cache entry", e);
+        }
+        return Arrays.copyOf(result, length);
+    }
+}
@@ -0,0 +1,442 @@
+package com.speechify;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * UserRepository splitting a shard into a small, mutable hot tier and immutable cold segments. The
+ * hot tier is a JsonFileUserRepository file, rewritten on every save; users that were not written
+ * for `coldAfter` move out of it, at least `minUsersPerSegment` at a time, into a new segment file
+ * next to it (`<file>.<n>.seg`), so that saves stop rewriting them.
+ *
+ * Tiering is storage-only: it makes saves cheaper, not memory or startup. `loadAll` still reads and
+ * inflates every segment, as UserShard keeps all of its users in memory for its email lookups,
+ * filters and aggregates, and the users are served from there.
+ *
+ * A segment holds users sorted by id in blocks of BLOCK_USERS, each a Deflate-compressed JSON array
+ * with a CRC32C, followed by an index of the first id and position of every block. Writing a cold
+ * user makes it hot again, shadowing its segment copy; removing one leaves a tombstone. Once a demotion would make MAX_SEGMENTS segments, or there are as many
+ * tombstones as `minUsersPerSegment`, every cold user is merged into one new segment instead and
+ * the older ones are deleted.
+ *
+ * Write times and tombstones are kept in the hot file (field `coldTier`), and a segment is complete
+ * before the hot file stops listing its users, so a crash at any point loses nothing. A save changes
+ * the tier state only once the hot file is written; demotion and merging follow it as a separate
+ * step, and users stay hot if that step fails.
+ */
+public class TieredUserRepository implements UserRepository {
+    private static final int DEFAULT_MIN_USERS_PER_SEGMENT = 1024;
+    private static final int BLOCK_USERS = 128;
+    private static final int MAX_SEGMENTS = 8;
+    private static final String TIER_FIELD = "coldTier";
+    private static final String WRITTEN_AT_FIELD = "writtenAt";
+    private static final String REMOVED_FIELD = "removed";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final int SEGMENT_MAGIC = 0x55534547;
+    // Index position, index checksum and magic
+    private static final int TRAILER_LENGTH = Long.BYTES + 2 * Integer.BYTES;
+
+    private final JsonFileUserRepository hotFile;
+    private final FileStore fileStore;
+    private final long coldAfterMillis;
+    private final int minUsersPerSegment;
+    private final Clock clock;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    // Written by loadAll and save through `publishHot`; the counts may be read at any time
+    private final Map<String, User> hotUsers = new ConcurrentHashMap<>();
+    private final Set<String> tombstones = ConcurrentHashMap.newKeySet();
+    // Oldest first, and replaced as a whole
+    private volatile List<Segment> segments = List.of();
+    // The fields below are only touched by loadAll and save, which never overlap
+    private final Map<String, Long> writtenAt = new HashMap<>();
+    private final Set<String> coldIds = new HashSet<>();
+    private int nextSegmentNumber = 1;
+
+    public TieredUserRepository(JsonFileUserRepository hotFile, FileStore fileStore, Duration coldAfter) {
+        this(hotFile, fileStore, coldAfter, DEFAULT_MIN_USERS_PER_SEGMENT, Clock.systemUTC());
+    }
+
+    public TieredUserRepository(JsonFileUserRepository hotFile, FileStore fileStore, Duration coldAfter,
+                                int minUsersPerSegment, Clock clock) {
+        this.hotFile = hotFile;
+        this.fileStore = fileStore;
+        this.coldAfterMillis = coldAfter.toMillis();
+        this.minUsersPerSegment = Math.max(1, minUsersPerSegment);
+        this.clock = clock;
+    }
+
+    @Override
+    public CompletableFuture<List<User>> loadAll() {
+        return hotFile.loadAll().thenCompose(hot -> readSegments().thenApply(loaded -> {
+            long now = clock.millis();
+            // Replaces the whole tier state, as the files may have changed since the last load
+            Map<String, User> usersById = new LinkedHashMap<>();
+            List<Segment> opened = new ArrayList<>();
+            Set<String> loadedColdIds = new HashSet<>();
+            for (Map.Entry<Segment, List<User>> segment : loaded) {
+                for (User user : segment.getValue()) {
+                    usersById.put(user.getId(), user);
+                    loadedColdIds.add(user.getId());
+                }
+                opened.add(segment.getKey());
+            }
+            JsonNode tier = hotFile.getOtherFields().path(TIER_FIELD);
+            Set<String> loadedTombstones = new HashSet<>();
+            tier.path(REMOVED_FIELD).forEach(id -> loadedTombstones.add(id.asText()));
+            usersById.keySet().removeAll(loadedTombstones);
+            JsonNode times = tier.path(WRITTEN_AT_FIELD);
+            Map<String, User> loadedHot = new HashMap<>();
+            Map<String, Long> loadedWrittenAt = new HashMap<>();
+            for (User user : hot) {
+                usersById.put(user.getId(), user);
+                loadedHot.put(user.getId(), user);
+                loadedWrittenAt.put(user.getId(), times.path(user.getId()).asLong(now));
+            }
+            segments = List.copyOf(opened);
+            coldIds.clear();
+            coldIds.addAll(loadedColdIds);
+            publishHot(loadedHot, loadedWrittenAt, loadedTombstones);
+            return new ArrayList<>(usersById.values());
+        }));
+    }
+
+    @Override
+    public CompletableFuture<Void> save(List<User> upserted, List<String> removedIds, Iterable<User> allUsers) {
+        long now = clock.millis();
+        // Staged in copies, published once written; the hot file is rewritten whole anyway
+        Map<String, User> nextHot = new HashMap<>(hotUsers);
+        Map<String, Long> nextWrittenAt = new HashMap<>(writtenAt);
+        Set<String> nextTombstones = new HashSet<>(tombstones);
+        for (User user : upserted) {
+            nextHot.put(user.getId(), user);
+            nextWrittenAt.put(user.getId(), now);
+            nextTombstones.remove(user.getId());
+        }
+        for (String id : removedIds) {
+            if (coldIds.contains(id)) {
+                nextTombstones.add(id);
+            }
+            nextHot.remove(id);
+            nextWrittenAt.remove(id);
+        }
+        return writeHot(nextHot, nextWrittenAt, nextTombstones).thenCompose(ignored -> {
+            publishHot(nextHot, nextWrittenAt, nextTombstones);
+            // The changes are stored; the users a failed compaction leaves hot are moved by a later save
+            return compact(now, allUsers).exceptionally(error -> {
+                System.err.println("Compacting " + hotFile.getFile() + " failed: " + error.getMessage());
+                return null;
+            });
+        });
+    }
+
+    /**
+     * Count of users in the hot tier.
+     */
+    public int getHotUserCount() {
+        return hotUsers.size();
+    }
+
+    /**
+     * Count of segment files.
+     */
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    // Moves the users idle for `coldAfter` into a new segment, or merges every cold user into one
+    private CompletableFuture<Void> compact(long now, Iterable<User> allUsers) {
+        Set<String> idle = new HashSet<>();
+        for (Map.Entry<String, Long> written : writtenAt.entrySet()) {
+            if (now - written.getValue() >= coldAfterMillis) {
+                idle.add(written.getKey());
+            }
+        }
+        boolean demote = idle.size() >= minUsersPerSegment;
+        boolean merge = tombstones.size() >= minUsersPerSegment || demote && segments.size() + 1 >= MAX_SEGMENTS;
+        if (!demote && !merge) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        List<User> cold = new ArrayList<>();
+        if (merge) {
+            for (User user : allUsers) {
+                if (!hotUsers.containsKey(user.getId()) || idle.contains(user.getId())) {
+                    cold.add(user);
+                }
+            }
+        } else {
+            for (String id : idle) {
+                cold.add(hotUsers.get(id));
+            }
+        }
+        cold.sort(Comparator.comparing(User::getId));
+        Path path = segmentPath(nextSegmentNumber++);
+        byte[] data;
+        try {
+            data = Segment.encode(cold, objectMapper);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        List<Segment> replaced = segments;
+        return fileStore.write(path, data).thenCompose(ignored -> {
+            Segment segment;
+            try {
+                segment = Segment.open(path, data);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+            // The segment is stored, so it is published even if the hot file cannot be written below
+            if (merge) {
+                segments = List.of(segment);
+                coldIds.clear();
+                // Deleted before the hot file drops its tombstones, which the older segments need
+                for (Segment old : replaced) {
+                    deleteQuietly(old.path);
+                }
+            } else {
+                List<Segment> appended = new ArrayList<>(replaced);
+                appended.add(segment);
+                segments = List.copyOf(appended);
+            }
+            for (User user : cold) {
+                coldIds.add(user.getId());
+            }
+            Map<String, User> nextHot = new HashMap<>(hotUsers);
+            Map<String, Long> nextWrittenAt = new HashMap<>(writtenAt);
+            nextHot.keySet().removeAll(idle);
+            nextWrittenAt.keySet().removeAll(idle);
+            Set<String> nextTombstones = merge ? new HashSet<>() : new HashSet<>(tombstones);
+            return writeHot(nextHot, nextWrittenAt, nextTombstones)
+                    .thenRun(() -> publishHot(nextHot, nextWrittenAt, nextTombstones));
+        });
+    }
+
+    private CompletableFuture<Void> writeHot(Map<String, User> hot, Map<String, Long> times, Set<String> removed) {
+        ObjectNode tier = hotFile.getOtherFields().putObject(TIER_FIELD);
+        ObjectNode timesNode = tier.putObject(WRITTEN_AT_FIELD);
+        for (Map.Entry<String, Long> written : times.entrySet()) {
+            timesNode.put(written.getKey(), written.getValue().longValue());
+        }
+        ArrayNode removedNode = tier.putArray(REMOVED_FIELD);
+        for (String id : removed) {
+            removedNode.add(id);
+        }
+        return hotFile.save(List.of(), List.of(), new ArrayList<>(hot.values()));
+    }
+
+    // Makes a written hot tier the current one
+    private void publishHot(Map<String, User> hot, Map<String, Long> times, Set<String> removed) {
+        hotUsers.clear();
+        hotUsers.putAll(hot);
+        tombstones.clear();
+        tombstones.addAll(removed);
+        writtenAt.clear();
+        writtenAt.putAll(times);
+    }
+
+    // Completes with every segment, oldest first, and its users
+    private CompletableFuture<List<Map.Entry<Segment, List<User>>>> readSegments() {
+        List<Path> paths;
+        try (Stream<Path> files = Files.list(directory())) {
+            paths = files.filter(path -> segmentNumber(path) > 0)
+                    .sorted(Comparator.comparingInt(this::segmentNumber))
+                    .collect(Collectors.toList());
+        } catch (NoSuchFileException e) {
+            paths = List.of();
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        nextSegmentNumber = paths.isEmpty() ? 1 : segmentNumber(paths.get(paths.size() - 1)) + 1;
+        List<CompletableFuture<Map.Entry<Segment, List<User>>>> reads = new ArrayList<>();
+        for (Path path : paths) {
+            reads.add(fileStore.read(path).thenApplyAsync(data -> {
+                try {
+                    Segment segment = Segment.open(path, data);
+                    return Map.entry(segment, segment.decodeAll(data, objectMapper));
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }));
+        }
+        return CompletableFuture.allOf(reads.toArray(new CompletableFuture<?>[0])).thenApply(ignored ->
+                reads.stream().map(CompletableFuture::join).collect(Collectors.toList()));
+    }
+
+    private Path directory() {
+        Path parent = hotFile.getFile().toAbsolutePath().getParent();
+        return parent != null ? parent : hotFile.getFile().toAbsolutePath();
+    }
+
+    private Path segmentPath(int number) {
+        return directory().resolve(hotFile.getFile().getFileName() + "." + number + SEGMENT_SUFFIX);
+    }
+
+    // The number in `<file>.<n>.seg`, or 0 if `path` is not a segment of this repository
+    private int segmentNumber(Path path) {
+        String name = path.getFileName().toString();
+        String prefix = hotFile.getFile().getFileName() + ".";
+        if (!name.startsWith(prefix) || !name.endsWith(SEGMENT_SUFFIX)) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(name.substring(prefix.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            System.err.println("Deleting merged segment " + path + " failed: " + e.getMessage());
+        }
+    }
+
+    private static int checksum(byte[] data, int offset, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(data, offset, length);
+        return (int) crc.getValue();
+    }
+
+    private static final class Segment {
+        private final Path path;
+        // First user id of every block, in order, with the blocks' positions and checksums
+        private final String[] firstIds;
+        private final long[] offsets;
+        private final int[] lengths;
+        private final int[] checksums;
+
+        private Segment(Path path, int blocks) {
+            this.path = path;
+            this.firstIds = new String[blocks];
+            this.offsets = new long[blocks];
+            this.lengths = new int[blocks];
+            this.checksums = new int[blocks];
+        }
+
+        // `users` must be sorted by id
+        static byte[] encode(List<User> users, ObjectMapper objectMapper) throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ByteArrayOutputStream index = new ByteArrayOutputStream();
+            DataOutputStream indexOut = new DataOutputStream(index);
+            indexOut.writeInt((users.size() + BLOCK_USERS - 1) / BLOCK_USERS);
+            for (int start = 0; start < users.size(); start += BLOCK_USERS) {
+                ArrayNode block = JsonNodeFactory.instance.arrayNode();
+                for (User user : users.subList(start, Math.min(users.size(), start + BLOCK_USERS))) {
+                    block.add(UserJson.toStoredNode(user));
+                }
+                byte[] compressed = deflate(objectMapper.writeValueAsBytes(block));
+                indexOut.writeUTF(users.get(start).getId());
+                indexOut.writeLong(out.size());
+                indexOut.writeInt(compressed.length);
+                indexOut.writeInt(checksum(compressed, 0, compressed.length));
+                out.writeBytes(compressed);
+            }
+            byte[] indexBytes = index.toByteArray();
+            long indexOffset = out.size();
+            out.writeBytes(indexBytes);
+            DataOutputStream trailer = new DataOutputStream(out);
+            trailer.writeLong(indexOffset);
+            trailer.writeInt(checksum(indexBytes, 0, indexBytes.length));
+            trailer.writeInt(SEGMENT_MAGIC);
+            return out.toByteArray();
+        }
+
+        // Reads the block index of a segment
+        static Segment open(Path path, byte[] data) throws IOException {
+            if (data == null || data.length < TRAILER_LENGTH) {
+                throw new IOException("Truncated segment " + path);
+            }
+            ByteBuffer trailer = ByteBuffer.wrap(data, data.length - TRAILER_LENGTH, TRAILER_LENGTH);
+            long indexOffset = trailer.getLong();
+            int indexChecksum = trailer.getInt();
+            int indexLength = (int) (data.length - TRAILER_LENGTH - indexOffset);
+            if (trailer.getInt() != SEGMENT_MAGIC || indexOffset < 0 || indexLength < Integer.BYTES
+                    || checksum(data, (int) indexOffset, indexLength) != indexChecksum) {
+                throw new IOException("Damaged segment " + path);
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, (int) indexOffset, indexLength));
+            Segment segment = new Segment(path, in.readInt());
+            for (int i = 0; i < segment.firstIds.length; i++) {
+                segment.firstIds[i] = in.readUTF();
+                segment.offsets[i] = in.readLong();
+                segment.lengths[i] = in.readInt();
+                segment.checksums[i] = in.readInt();
+            }
+            return segment;
+        }
+
+        // Inflates the blocks in parallel
+        List<User> decodeAll(byte[] data, ObjectMapper objectMapper) {
+            return IntStream.range(0, firstIds.length).parallel().mapToObj(i -> {
+                try {
+                    return decodeBlock(data, (int) offsets[i], lengths[i], checksums[i], objectMapper);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }).flatMap(List::stream).collect(Collectors.toList());
+        }
+
+        private List<User> decodeBlock(byte[] data, int offset, int length, int expectedChecksum,
+                                       ObjectMapper objectMapper) throws IOException {
+            if (offset < 0 || length < 0 || offset + length > data.length
+                    || checksum(data, offset, length) != expectedChecksum) {
+                throw new IOException("Damaged block in segment " + path);
+            }
+            JsonNode block;
+            try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(data, offset, length))) {
+                block = objectMapper.readTree(in);
+            }
+            List<User> users = new ArrayList<>(block.size());
+            for (JsonNode node : block) {
+                users.add(UserJson.fromStoredNode(node));
+            }
+            return users;
+        }
+
+        private static byte[] deflate(byte[] data) throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4);
+            Deflater deflater = new Deflater();
+            try (DeflaterOutputStream compressing = new DeflaterOutputStream(out, deflater)) {
+                compressing.write(data);
+            } finally {
+                deflater.end();
+            }
+            return out.toByteArray();
+        }
+    }
+}
@@ -11,6 +11,8 @@ public class User {
     private String surname;
     private boolean hasCreditLimit;
     private double creditLimit;
+    // Number of the shard this user is being moved to, or -1; only ever stored, never published
+    private int movingToShard = -1;
 
     public User() {}
 
@@ -26,6 +28,14 @@ public class User {
         this.creditLimit = creditLimit;
     }
 
+    public User(User other) {
+        this(other.id,
+                other.client == null ? null : new Client(other.client.getId(), other.client.getName()),
+                other.dateOfBirth, other.email, other.firstname, other.surname,
+                other.hasCreditLimit, other.creditLimit);
+        this.movingToShard = other.movingToShard;
+    }
+
     public String getId() {
         return id;
     }
@@ -89,4 +99,12 @@ public class User {
     public void setCreditLimit(double creditLimit) {
         this.creditLimit = creditLimit;
     }
-}
\ No newline at end of file
+
+    int getMovingToShard() {
+        return movingToShard;
+    }
+
+    void setMovingToShard(int movingToShard) {
+        this.movingToShard = movingToShard;
+    }
+}
@@ -0,0 +1,35 @@
+package com.speechify;
+
+/**
+ * One entry of the ChangeFeed: a user as stored by an add or an update, with its feed sequence.
+ */
+public class UserChange {
+    public enum Type {
+        ADDED, UPDATED
+    }
+
+    private final long sequence;
+    private final Type type;
+    private final User user;
+
+    public UserChange(long sequence, Type type, User user) {
+        this.sequence = sequence;
+        this.type = type;
+        this.user = user;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Returns a copy of the user as stored by this change.
+     */
+    public User getUser() {
+        return new User(user);
+    }
+}
@@ -0,0 +1,215 @@
+package com.speechify;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read-only columnar projection of a set of users for analytical filters: birth dates as epoch
+ * days, credit limits, the hasCreditLimit flags as a bitset and clients as dictionary ordinals,
+ * each in one primitive array indexed by row.
+ *
+ * A query is a single pass over those arrays that evaluates every predicate with arithmetic
+ * rather than branches into a bitset of matching rows, so the loop reads memory sequentially and
+ * never mispredicts, instead of chasing a User, a LocalDate and a Client per row. Users without a
+ * birth date or a client only match filters that do not constrain them.
+ *
+ * The projection does not follow later writes; UserService.getUserColumns() rebuilds it when
+ * the users changed.
+ */
+public class UserColumns {
+    private static final int NO_CLIENT = -1;
+    private static final int NO_BIRTH_DATE = Integer.MIN_VALUE;
+    private static final int ANY = -1;
+
+    /**
+     * Conjunction of column predicates; all bounds are inclusive. Immutable, each method returns a
+     * narrowed copy.
+     */
+    public static final class Filter {
+        private static final Filter ALL = new Filter(Integer.MIN_VALUE, Integer.MAX_VALUE,
+                Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, ANY, null);
+
+        private final int minBirthDay;
+        private final int maxBirthDay;
+        private final double minCreditLimit;
+        private final double maxCreditLimit;
+        // ANY, 0 or 1
+        private final int hasCreditLimit;
+        private final String clientId;
+
+        private Filter(int minBirthDay, int maxBirthDay, double minCreditLimit, double maxCreditLimit,
+                       int hasCreditLimit, String clientId) {
+            this.minBirthDay = minBirthDay;
+            this.maxBirthDay = maxBirthDay;
+            this.minCreditLimit = minCreditLimit;
+            this.maxCreditLimit = maxCreditLimit;
+            this.hasCreditLimit = hasCreditLimit;
+            this.clientId = clientId;
+        }
+
+        public static Filter all() {
+            return ALL;
+        }
+
+        public Filter bornBetween(LocalDate from, LocalDate to) {
+            return new Filter((int) from.toEpochDay(), (int) to.toEpochDay(),
+                    minCreditLimit, maxCreditLimit, hasCreditLimit, clientId);
+        }
+
+        /**
+         * Users whose age on `today` is between `minAge` and `maxAge` years.
+         */
+        public Filter agedBetween(int minAge, int maxAge, LocalDate today) {
+            return bornBetween(today.minusYears(maxAge + 1L).plusDays(1), today.minusYears(minAge));
+        }
+
+        /**
+         * Compares the stored amount, which users without a credit limit keep too; combine with
+         * `hasCreditLimit(true)` to leave those out.
+         */
+        public Filter creditLimitBetween(double min, double max) {
+            return new Filter(minBirthDay, maxBirthDay, min, max, hasCreditLimit, clientId);
+        }
+
+        public Filter hasCreditLimit(boolean value) {
+            return new Filter(minBirthDay, maxBirthDay, minCreditLimit, maxCreditLimit, value ? 1 : 0, clientId);
+        }
+
+        public Filter client(String id) {
+            return new Filter(minBirthDay, maxBirthDay, minCreditLimit, maxCreditLimit, hasCreditLimit, id);
+        }
+    }
+
+    private final int size;
+    private final String[] userIds;
+    private final int[] birthDays;
+    private final double[] creditLimits;
+    private final long[] hasCreditLimit;
+    private final int[] clientOrdinals;
+    private final Map<String, Integer> clientOrdinalsById;
+
+    private UserColumns(int size) {
+        this.size = size;
+        this.userIds = new String[size];
+        this.birthDays = new int[size];
+        this.creditLimits = new double[size];
+        this.hasCreditLimit = new long[(size + Long.SIZE - 1) / Long.SIZE];
+        this.clientOrdinals = new int[size];
+        this.clientOrdinalsById = new HashMap<>();
+    }
+
+    public static UserColumns of(Collection<User> users) {
+        UserColumns columns = new UserColumns(users.size());
+        int row = 0;
+        for (User user : users) {
+            columns.set(row++, user);
+        }
+        return columns;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long count(Filter filter) {
+        int client = clientOrdinal(filter);
+        if (client == NO_CLIENT) {
+            return 0;
+        }
+        long[] selected = select(filter, client);
+        long count = 0;
+        for (long word : selected) {
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    /**
+     * Sum of the credit limits of the matching users that have one.
+     */
+    public double sumCreditLimit(Filter filter) {
+        int client = clientOrdinal(filter);
+        if (client == NO_CLIENT) {
+            return 0.0;
+        }
+        long[] selected = select(filter, client);
+        double sum = 0.0;
+        for (int word = 0; word < selected.length; word++) {
+            // Visits only the set bits
+            for (long bits = selected[word] & hasCreditLimit[word]; bits != 0; bits &= bits - 1) {
+                sum += creditLimits[(word << 6) + Long.numberOfTrailingZeros(bits)];
+            }
+        }
+        return sum;
+    }
+
+    public List<String> matchingIds(Filter filter) {
+        List<String> ids = new ArrayList<>();
+        int client = clientOrdinal(filter);
+        if (client == NO_CLIENT) {
+            return ids;
+        }
+        long[] selected = select(filter, client);
+        for (int word = 0; word < selected.length; word++) {
+            for (long bits = selected[word]; bits != 0; bits &= bits - 1) {
+                ids.add(userIds[(word << 6) + Long.numberOfTrailingZeros(bits)]);
+            }
+        }
+        return ids;
+    }
+
+    // Integer.MAX_VALUE stands for "any client"; NO_CLIENT for a client no row has
+    private int clientOrdinal(Filter filter) {
+        if (filter.clientId == null) {
+            return Integer.MAX_VALUE;
+        }
+        return clientOrdinalsById.getOrDefault(filter.clientId, NO_CLIENT);
+    }
+
+    // Bitset of the matching rows, built 64 rows at a time with the filter's bounds in locals
+    private long[] select(Filter filter, int client) {
+        int minBirthDay = filter.minBirthDay;
+        int maxBirthDay = filter.maxBirthDay;
+        double minCreditLimit = filter.minCreditLimit;
+        double maxCreditLimit = filter.maxCreditLimit;
+        boolean anyClient = client == Integer.MAX_VALUE;
+        long[] selected = new long[hasCreditLimit.length];
+        for (int word = 0; word < selected.length; word++) {
+            int first = word << 6;
+            int end = Math.min(first + Long.SIZE, size);
+            long bits = 0;
+            for (int row = first; row < end; row++) {
+                long birthDay = birthDays[row];
+                double creditLimit = creditLimits[row];
+                // The sign bit is set if the birth day is out of range; in a long, no bound overflows
+                long match = ((birthDay - minBirthDay | maxBirthDay - birthDay) >>> 63 ^ 1)
+                        & (creditLimit >= minCreditLimit ? 1 : 0) & (creditLimit <= maxCreditLimit ? 1 : 0)
+                        & (anyClient | clientOrdinals[row] == client ? 1 : 0);
+                bits |= match << row;
+            }
+            // The flag is a bitset already, so it is applied a word at a time
+            if (filter.hasCreditLimit != ANY) {
+                bits &= filter.hasCreditLimit == 1 ? hasCreditLimit[word] : ~hasCreditLimit[word];
+            }
+            selected[word] = bits;
+        }
+        return selected;
+    }
+
+    private void set(int row, User user) {
+        userIds[row] = user.getId();
+        birthDays[row] = user.getDateOfBirth() != null ? (int) user.getDateOfBirth().toEpochDay() : NO_BIRTH_DATE;
+        creditLimits[row] = user.getCreditLimit();
+        if (user.hasCreditLimit()) {
+            hasCreditLimit[row >>> 6] |= 1L << row;
+        }
+        Client client = user.getClient();
+        clientOrdinals[row] = client != null && client.getId() != null
+                ? clientOrdinalsById.computeIfAbsent(client.getId(), ignored -> clientOrdinalsById.size())
+                : NO_CLIENT;
+    }
+}
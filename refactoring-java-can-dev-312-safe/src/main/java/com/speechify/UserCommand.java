@@ -0,0 +1,69 @@
+package com.speechify;
+
+import java.time.LocalDate;
+
+/**
+ * A single add or update request, as consumed by UserService.applyCommands and ReactiveUserService.
+ */
+public class UserCommand {
+    public enum Type {
+        ADD,
+        UPDATE
+    }
+
+    private final Type type;
+    private final String firstname;
+    private final String surname;
+    private final String email;
+    private final LocalDate dateOfBirth;
+    private final String clientId;
+    private final User user;
+
+    private UserCommand(Type type, String firstname, String surname, String email,
+                        LocalDate dateOfBirth, String clientId, User user) {
+        this.type = type;
+        this.firstname = firstname;
+        this.surname = surname;
+        this.email = email;
+        this.dateOfBirth = dateOfBirth;
+        this.clientId = clientId;
+        this.user = user;
+    }
+
+    public static UserCommand add(String firstname, String surname, String email,
+                                  LocalDate dateOfBirth, String clientId) {
+        return new UserCommand(Type.ADD, firstname, surname, email, dateOfBirth, clientId, null);
+    }
+
+    public static UserCommand update(User user) {
+        return new UserCommand(Type.UPDATE, null, null, null, null, null, user);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getFirstname() {
+        return firstname;
+    }
+
+    public String getSurname() {
+        return surname;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public LocalDate getDateOfBirth() {
+        return dateOfBirth;
+    }
+
+    public String getClientId() {
+        return clientId;
+    }
+
+    public User getUser() {
+        return user;
+    }
+}
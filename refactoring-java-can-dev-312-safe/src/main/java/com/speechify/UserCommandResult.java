@@ -0,0 +1,23 @@
+package com.speechify;
+
+/**
+ * Outcome of a UserCommand: `success` carries the same meaning as the Boolean returned by
+ * addUser/updateUser.
+ */
+public class UserCommandResult {
+    private final UserCommand command;
+    private final boolean success;
+
+    public UserCommandResult(UserCommand command, boolean success) {
+        this.command = command;
+        this.success = success;
+    }
+
+    public UserCommand getCommand() {
+        return command;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+}
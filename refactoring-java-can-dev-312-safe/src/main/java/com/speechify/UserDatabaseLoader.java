@@ -0,0 +1,110 @@
+package com.speechify;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Loads the `users` array of a database file in parallel.
+ *
+ * The file is tokenized once by a streaming parser. Every `chunkSize` users the raw nodes are handed
+ * to a fork-join task that maps them to User objects, so deserialization of earlier chunks overlaps
+ * with tokenizing the rest of the file.
+ */
+public class UserDatabaseLoader {
+    private static final String USERS_FIELD = "users";
+    private static final int DEFAULT_CHUNK_SIZE = 2048;
+
+    private final ObjectMapper objectMapper;
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+
+    public UserDatabaseLoader() {
+        this(ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE);
+    }
+
+    public UserDatabaseLoader(ForkJoinPool pool, int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize must be positive");
+        }
+        this.objectMapper = new ObjectMapper();
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Deserializes the users of the file contents `data`, in file order. Every top-level field other
+     * than `users` is copied into `otherFields` (when not null) so the file can be rewritten without
+     * losing them.
+     */
+    public List<User> loadUsers(byte[] data, ObjectNode otherFields) throws IOException {
+        try (JsonParser parser = objectMapper.createParser(data)) {
+            return loadUsers(parser, "database", otherFields);
+        }
+    }
+
+    private List<User> loadUsers(JsonParser parser, String source, ObjectNode otherFields) throws IOException {
+        List<ForkJoinTask<List<User>>> chunks = new ArrayList<>();
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new IOException("Expected a JSON object at the root of " + source);
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if (USERS_FIELD.equals(field) && value == JsonToken.START_ARRAY) {
+                submitUserChunks(parser, chunks);
+            } else if (otherFields != null) {
+                otherFields.set(field, parser.readValueAsTree());
+            } else {
+                parser.skipChildren();
+            }
+        }
+
+        List<User> users = new ArrayList<>();
+        for (ForkJoinTask<List<User>> chunk : chunks) {
+            users.addAll(chunk.join());
+        }
+        return users;
+    }
+
+    private void submitUserChunks(JsonParser parser, List<ForkJoinTask<List<User>>> chunks) throws IOException {
+        List<JsonNode> chunk = new ArrayList<>(chunkSize);
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            chunk.add(parser.readValueAsTree());
+            if (chunk.size() == chunkSize) {
+                chunks.add(pool.submit(new ParseChunkTask(chunk)));
+                chunk = new ArrayList<>(chunkSize);
+            }
+        }
+        if (!chunk.isEmpty()) {
+            chunks.add(pool.submit(new ParseChunkTask(chunk)));
+        }
+    }
+
+    private static class ParseChunkTask extends RecursiveTask<List<User>> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<JsonNode> nodes;
+
+        private ParseChunkTask(List<JsonNode> nodes) {
+            this.nodes = nodes;
+        }
+
+        @Override
+        protected List<User> compute() {
+            List<User> users = new ArrayList<>(nodes.size());
+            for (JsonNode node : nodes) {
+                users.add(UserJson.fromStoredNode(node));
+            }
+            return users;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.speechify;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read-through near cache of users by email, built from LRU caches.
+ *
+ * Found users are kept until evicted or overwritten by a write, the most recent ones live and many
+ * more compressed in a TieredLRUCache. Unknown emails are remembered in a
+ * separate, smaller cache for a short TTL, so a burst of lookups for missing emails costs one storage
+ * lookup instead of one per request, without pushing hot users out of the positive cache.
+ *
+ * A value loaded by a reader is only cached if no write happened while it was being loaded;
+ * otherwise a slow reader could put back a value that a concurrent write has just replaced. The
+ * check and the caching happen under the lock that writes take, so a write cannot slip in between.
+ */
+class UserEmailCache {
+    private static final String HIT_METRIC = "UserService.emailCache.hit";
+    private static final String MISS_METRIC = "UserService.emailCache.miss";
+    private static final String NEGATIVE_HIT_METRIC = "UserService.emailCache.negativeHit";
+    // Compressed users kept for every live one
+    private static final int COMPRESSED_USERS_PER_LIVE_USER = 10;
+
+    private final TieredLRUCache<User> users;
+    private final LRUCache<Long> misses;
+    private final long missTtlNanos;
+    // Incremented under this lock, which readers also hold while caching what they loaded
+    private final AtomicLong writeEpoch = new AtomicLong();
+    private final MetricsRecorder metrics;
+
+    interface Loader {
+        User load(String email) throws IOException;
+    }
+
+    UserEmailCache(int maxUsers, int maxMisses, Duration missTtl, MetricsRecorder metrics) {
+        this.users = new TieredLRUCache<>(new CacheLimits(maxUsers),
+                new CacheLimits(maxUsers * COMPRESSED_USERS_PER_LIVE_USER), CacheCodecs.USER);
+        this.misses = LRUCacheProvider.createLRUCache(new CacheLimits(maxMisses));
+        this.missTtlNanos = missTtl.toNanos();
+        this.metrics = metrics;
+        metrics.registerGauge("UserService.emailCache.l2Hits", users::getL2Hits);
+        metrics.registerGauge("UserService.emailCache.deflated", users::getDeflated);
+    }
+
+    User get(String email, Loader loader) throws IOException {
+        User cached = users.get(email);
+        if (cached != null) {
+            metrics.increment(HIT_METRIC);
+            return cached;
+        }
+        Long missExpiresAt = misses.get(email);
+        if (missExpiresAt != null && System.nanoTime() - missExpiresAt < 0) {
+            metrics.increment(NEGATIVE_HIT_METRIC);
+            return null;
+        }
+        metrics.increment(MISS_METRIC);
+
+        long epoch = writeEpoch.get();
+        User loaded = loader.load(email);
+        synchronized (this) {
+            if (writeEpoch.get() == epoch) {
+                if (loaded != null) {
+                    users.set(email, loaded);
+                } else {
+                    misses.set(email, System.nanoTime() + missTtlNanos);
+                }
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Records a user that was just written under its (possibly new) email.
+     */
+    synchronized void written(User user) {
+        writeEpoch.incrementAndGet();
+        users.set(user.getEmail(), user);
+        misses.invalidate(user.getEmail());
+    }
+
+    /**
+     * Records that an email no longer belongs to any user, e.g. after an email change.
+     */
+    synchronized void removed(String email) {
+        writeEpoch.incrementAndGet();
+        users.invalidate(email);
+        misses.set(email, System.nanoTime() + missTtlNanos);
+    }
+
+    /**
+     * Emails of the cached users, most recently used first.
+     */
+    List<String> keys() {
+        return users.keys();
+    }
+
+    /**
+     * Forgets whatever is cached about an email without claiming anything about storage.
+     */
+    synchronized void invalidate(String email) {
+        writeEpoch.incrementAndGet();
+        users.invalidate(email);
+        misses.invalidate(email);
+    }
+
+    synchronized void invalidateAll() {
+        writeEpoch.incrementAndGet();
+        users.invalidateAll(email -> true);
+        misses.invalidateAll(email -> true);
+    }
+}
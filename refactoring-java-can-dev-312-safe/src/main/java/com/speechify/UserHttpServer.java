@@ -0,0 +1,432 @@
+package com.speechify;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Minimal JSON API over UserService and its ClientRepository, on the JDK's built-in HttpServer.
+ *
+ * <pre>
+ * POST /users                    {firstname, surname, email, dateOfBirth, clientId} -> 201, or 422 if rejected
+ * PUT  /users                    a user as returned by GET -> 200, or 422 if rejected
+ * GET  /users?email=...          the user -> 200, or 404
+ * GET  /users?offset=0&amp;limit=100 {users: [...], offset, limit, hasMore}
+ * GET  /users?search=smi&amp;limit=10&amp;fuzzy=false
+ *                                [users] whose first name, surname or email starts with `search`
+ * GET  /clients                  [clients]
+ * GET  /clients/{id}             the client -> 200, or 404
+ * GET  /changes?after=0&amp;limit=100&amp;waitMillis=0
+ *                                {changes: [{sequence, type, user}], complete, lastSequence}, waiting
+ *                                up to waitMillis for a change after `after` if there is none yet
+ * </pre>
+ *
+ * Calls the service's ConcurrencyLimiter turns away are answered 503 with a Retry-After header, and
+ * calls that fail in storage 500 with the cause as `error`.
+ *
+ * Every request runs on its own thread and simply waits for the service's future. On a JDK with
+ * virtual threads (21+) those are virtual threads, so waiting costs no platform thread; older JDKs
+ * fall back to a fixed pool of FALLBACK_THREADS platform threads. Latency per route is recorded
+ * to the service's MetricsRecorder as `UserHttpServer.<route>`.
+ *
+ * Usage: gradle serve --args="[directory port shards]"
+ */
+public class UserHttpServer {
+    private static final int DEFAULT_PORT = 8080;
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int DEFAULT_SEARCH_LIMIT = 10;
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final int MAX_WAIT_MILLIS = 60_000;
+    private static final int FALLBACK_THREADS = 256;
+    private static final int BACKLOG = 1024;
+    private static final String METRIC_PREFIX = "UserHttpServer.";
+    private static final String JSON_CONTENT_TYPE = "application/json";
+    private static final int ISO_DATE_LENGTH = 10;
+    private static final String RETRY_AFTER_SECONDS = "1";
+
+    private static final String NO_DELAY_PROPERTY = "sun.net.httpserver.nodelay";
+
+    private final UserService userService;
+    private final ClientRepository clientRepository;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final boolean virtualThreads;
+
+    /**
+     * Binds to `address` (port 0 picks a free one); requests are served once `start` is called.
+     */
+    public UserHttpServer(UserService userService, InetSocketAddress address) throws IOException {
+        this.userService = userService;
+        this.clientRepository = userService.getClientRepository();
+        ExecutorService virtual = newVirtualThreadPerTaskExecutor();
+        this.virtualThreads = virtual != null;
+        this.executor = virtual != null ? virtual : newPlatformThreadPool();
+        this.server = HttpServer.create(address, BACKLOG);
+        server.setExecutor(executor);
+        server.createContext("/users", this::handleUsers);
+        server.createContext("/clients", this::handleClients);
+        server.createContext("/changes", this::handleChanges);
+    }
+
+    public static void main(String[] args) throws IOException {
+        enableNoDelay();
+        UserServiceOptions options = new UserServiceOptions();
+        options.setDataDirectory(Paths.get(args.length > 0 ? args[0] : ""));
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PORT;
+        options.setShardCount(args.length > 2 ? Integer.parseInt(args[2]) : 1);
+        UserService service = new UserService(options);
+        UserHttpServer server = new UserHttpServer(service, new InetSocketAddress(port));
+        // On Ctrl-C, lets running requests finish, then writes what the service still buffers
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop(1);
+            service.close();
+        }, "user-http-server-shutdown"));
+        server.start();
+        System.out.printf("Listening on port %d (%s threads)%n", server.getPort(),
+                server.isVirtualThreads() ? "virtual" : "platform");
+    }
+
+    /**
+     * Turns on TCP_NODELAY for every HttpServer of this JVM, unless `-Dsun.net.httpserver.nodelay`
+     * says otherwise. Without it the headers and body of a response go out in two segments, and the
+     * second one waits for the client's delayed ACK: about 40 ms per request. The JDK reads the
+     * property once, so this must run before the first HttpServer is created; `main` does, and
+     * embedding code should too (or pass the flag).
+     */
+    public static void enableNoDelay() {
+        if (System.getProperty(NO_DELAY_PROPERTY) == null) {
+            System.setProperty(NO_DELAY_PROPERTY, "true");
+        }
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops accepting requests, waits up to `delaySeconds` for the running ones, then shuts down.
+     */
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.shutdown();
+        try {
+            executor.awaitTermination(delaySeconds, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    private void handleUsers(HttpExchange exchange) throws IOException {
+        long startNanos = System.nanoTime();
+        String route = "users." + exchange.getRequestMethod().toLowerCase();
+        try {
+            switch (exchange.getRequestMethod()) {
+                case "GET":
+                    Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+                    if (query.containsKey("email")) {
+                        route = "users.getByEmail";
+                        User user = userService.getUserByEmail(query.get("email")).join();
+                        if (user == null) {
+                            sendError(exchange, 404, "No user with this email");
+                        } else {
+                            send(exchange, 200, UserJson.toNode(user));
+                        }
+                    } else if (query.containsKey("search")) {
+                        route = "users.search";
+                        send(exchange, 200, searchUsers(query));
+                    } else {
+                        route = "users.list";
+                        send(exchange, 200, listUsers(query));
+                    }
+                    break;
+                case "POST":
+                    JsonNode request = readBody(exchange);
+                    boolean added = userService.addUser(
+                            request.path("firstname").asText(null),
+                            request.path("surname").asText(null),
+                            request.path("email").asText(null),
+                            parseDate(request.path("dateOfBirth").asText(null)),
+                            request.path("clientId").asText(null)).join();
+                    if (added) {
+                        User created = userService.getUserByEmail(request.path("email").asText()).join();
+                        send(exchange, 201, created != null ? UserJson.toNode(created) : JsonNodeFactory.instance.objectNode());
+                    } else {
+                        sendError(exchange, 422, "User was not added");
+                    }
+                    break;
+                case "PUT":
+                    JsonNode body = readBody(exchange);
+                    // Checked here, as UserJson fails on a malformed date with an unchecked parse error
+                    parseDate(body.path("dateOfBirth").asText(null));
+                    User user = UserJson.fromNode(body);
+                    if (userService.updateUser(user).join()) {
+                        User stored = userService.getUserByEmail(user.getEmail()).join();
+                        send(exchange, 200, stored != null ? UserJson.toNode(stored) : JsonNodeFactory.instance.objectNode());
+                    } else {
+                        sendError(exchange, 422, "User was not updated");
+                    }
+                    break;
+                default:
+                    sendError(exchange, 405, "Method not allowed");
+            }
+        } catch (IllegalArgumentException | DateTimeException | IndexOutOfBoundsException e) {
+            sendError(exchange, 400, e.getMessage());
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof OverloadedException) {
+                route = "users.rejected";
+                exchange.getResponseHeaders().set("Retry-After", RETRY_AFTER_SECONDS);
+                sendError(exchange, 503, e.getCause().getMessage());
+            } else {
+                sendError(exchange, 500, e.getCause().getMessage());
+            }
+        } catch (UncheckedIOException e) {
+            sendError(exchange, 500, e.getCause().getMessage());
+        } finally {
+            exchange.close();
+            userService.getMetrics().recordLatency(METRIC_PREFIX + route, System.nanoTime() - startNanos);
+        }
+    }
+
+    private void handleClients(HttpExchange exchange) throws IOException {
+        long startNanos = System.nanoTime();
+        String route = "clients.list";
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                sendError(exchange, 405, "Method not allowed");
+                return;
+            }
+            String path = exchange.getRequestURI().getPath();
+            String id = path.length() > "/clients/".length() ? path.substring("/clients/".length()) : null;
+            if (id == null) {
+                ArrayNode clients = JsonNodeFactory.instance.arrayNode();
+                for (Client client : clientRepository.getAll().join()) {
+                    clients.add(toNode(client));
+                }
+                send(exchange, 200, clients);
+                return;
+            }
+            route = "clients.getById";
+            Client client = clientRepository.getById(id).join();
+            if (client == null) {
+                sendError(exchange, 404, "No client with this id");
+            } else {
+                send(exchange, 200, toNode(client));
+            }
+        } catch (CompletionException e) {
+            sendError(exchange, 500, e.getCause().getMessage());
+        } finally {
+            exchange.close();
+            userService.getMetrics().recordLatency(METRIC_PREFIX + route, System.nanoTime() - startNanos);
+        }
+    }
+
+    private void handleChanges(HttpExchange exchange) throws IOException {
+        long startNanos = System.nanoTime();
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                sendError(exchange, 405, "Method not allowed");
+                return;
+            }
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            long after = parseLong(query.get("after"), 0);
+            int limit = Math.min(parseInt(query.get("limit"), DEFAULT_PAGE_SIZE), MAX_PAGE_SIZE);
+            int waitMillis = Math.min(parseInt(query.get("waitMillis"), 0), MAX_WAIT_MILLIS);
+            if (after < 0 || limit <= 0 || waitMillis < 0) {
+                throw new IllegalArgumentException("after and waitMillis must not be negative and limit must be positive");
+            }
+            ChangeFeed feed = userService.getChangeFeed();
+            ChangeFeed.Page page = waitMillis > 0
+                    ? feed.await(after, limit).completeOnTimeout(null, waitMillis, TimeUnit.MILLISECONDS).join()
+                    : null;
+            send(exchange, 200, toNode(page != null ? page : feed.read(after, limit)));
+        } catch (IllegalArgumentException e) {
+            sendError(exchange, 400, e.getMessage());
+        } finally {
+            exchange.close();
+            userService.getMetrics().recordLatency(METRIC_PREFIX + "changes", System.nanoTime() - startNanos);
+        }
+    }
+
+    // Streams the snapshot instead of copying all users, and reads one user past the page to set `hasMore`
+    private ObjectNode listUsers(Map<String, String> query) {
+        int offset = parseInt(query.get("offset"), 0);
+        int limit = Math.min(parseInt(query.get("limit"), DEFAULT_PAGE_SIZE), MAX_PAGE_SIZE);
+        if (offset < 0 || limit <= 0) {
+            throw new IllegalArgumentException("offset must not be negative and limit must be positive");
+        }
+        List<User> page = userService.streamAllUsers().skip(offset).limit(limit + 1L).collect(Collectors.toList());
+        ObjectNode result = JsonNodeFactory.instance.objectNode();
+        ArrayNode users = result.putArray("users");
+        page.stream().limit(limit).forEach(user -> users.add(UserJson.toNode(user)));
+        result.put("offset", offset);
+        result.put("limit", limit);
+        result.put("hasMore", page.size() > limit);
+        return result;
+    }
+
+    private ArrayNode searchUsers(Map<String, String> query) {
+        int limit = Math.min(parseInt(query.get("limit"), DEFAULT_SEARCH_LIMIT), MAX_PAGE_SIZE);
+        if (limit <= 0) {
+            throw new IllegalArgumentException("limit must be positive");
+        }
+        UserSearchIndex index = userService.getSearchIndex().join();
+        List<User> found = Boolean.parseBoolean(query.get("fuzzy"))
+                ? index.findByFuzzyPrefix(query.get("search"), limit)
+                : index.findByPrefix(query.get("search"), limit);
+        ArrayNode users = JsonNodeFactory.instance.arrayNode();
+        for (User user : found) {
+            users.add(UserJson.toNode(user));
+        }
+        return users;
+    }
+
+    private JsonNode readBody(HttpExchange exchange) throws IOException {
+        try (InputStream body = exchange.getRequestBody()) {
+            JsonNode node = objectMapper.readTree(body);
+            if (node == null || !node.isObject()) {
+                throw new IllegalArgumentException("Expected a JSON object");
+            }
+            return node;
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Malformed JSON: " + e.getOriginalMessage());
+        }
+    }
+
+    private void send(HttpExchange exchange, int status, JsonNode body) throws IOException {
+        byte[] bytes = objectMapper.writeValueAsBytes(body);
+        exchange.getResponseHeaders().set("Content-Type", JSON_CONTENT_TYPE);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        ObjectNode body = JsonNodeFactory.instance.objectNode();
+        body.put("error", message);
+        send(exchange, status, body);
+    }
+
+    private static ObjectNode toNode(Client client) {
+        ObjectNode node = JsonNodeFactory.instance.objectNode();
+        node.put("id", client.getId());
+        node.put("name", client.getName());
+        return node;
+    }
+
+    private static ObjectNode toNode(ChangeFeed.Page page) {
+        ObjectNode node = JsonNodeFactory.instance.objectNode();
+        ArrayNode changes = node.putArray("changes");
+        for (UserChange change : page.getChanges()) {
+            ObjectNode changeNode = changes.addObject();
+            changeNode.put("sequence", change.getSequence());
+            changeNode.put("type", change.getType().name());
+            changeNode.set("user", UserJson.toNode(change.getUser()));
+        }
+        node.put("complete", page.isComplete());
+        node.put("lastSequence", page.getLastSequence());
+        return node;
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> parameters = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return parameters;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int equals = pair.indexOf('=');
+            String name = equals < 0 ? pair : pair.substring(0, equals);
+            String value = equals < 0 ? "" : pair.substring(equals + 1);
+            parameters.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return parameters;
+    }
+
+    private static int parseInt(String text, int defaultValue) {
+        if (text == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number: " + text);
+        }
+    }
+
+    private static long parseLong(String text, long defaultValue) {
+        if (text == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(text);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number: " + text);
+        }
+    }
+
+    // Accepts "1990-01-01" and full ISO timestamps, like the database
+    private static LocalDate parseDate(String text) {
+        if (text == null) {
+            return null;
+        }
+        try {
+            return LocalDate.parse(text.length() > ISO_DATE_LENGTH ? text.substring(0, ISO_DATE_LENGTH) : text);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Not a date: " + text);
+        }
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor() exists from JDK 21; looked up reflectively to build on 17
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static ExecutorService newPlatformThreadPool() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return Executors.newFixedThreadPool(FALLBACK_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "user-http-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
@@ -0,0 +1,85 @@
+package com.speechify;
+
+import java.time.LocalDate;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Maps users to and from their JSON representation in the database file.
+ *
+ * The mapping is done by hand (like clients in ClientRepository) because the stored `dateOfBirth`
+ * is an ISO timestamp and `hasCreditLimit` is not a bean getter, neither of which a plain
+ * ObjectMapper round-trips correctly.
+ *
+ * The move marker of a user (see UserShard) is internal: only the repositories write and read it,
+ * through the `Stored` variants, so a client can neither see nor set it.
+ */
+final class UserJson {
+    private static final int ISO_DATE_LENGTH = 10;
+
+    private UserJson() {
+    }
+
+    static User fromNode(JsonNode node) {
+        User user = new User();
+        user.setId(node.path("id").asText(null));
+        user.setEmail(node.path("email").asText(null));
+        user.setFirstname(node.path("firstname").asText(null));
+        user.setSurname(node.path("surname").asText(null));
+        user.setDateOfBirth(parseDate(node.path("dateOfBirth").asText(null)));
+        user.setHasCreditLimit(node.path("hasCreditLimit").asBoolean(false));
+        user.setCreditLimit(node.path("creditLimit").asDouble(0.0));
+
+        JsonNode clientNode = node.get("client");
+        if (clientNode != null && clientNode.isObject()) {
+            user.setClient(new Client(clientNode.path("id").asText(null), clientNode.path("name").asText(null)));
+        }
+        return user;
+    }
+
+    // As written by `toStoredNode`, with the move marker
+    static User fromStoredNode(JsonNode node) {
+        User user = fromNode(node);
+        user.setMovingToShard(node.path("movingToShard").asInt(-1));
+        return user;
+    }
+
+    static ObjectNode toNode(User user) {
+        ObjectNode node = JsonNodeFactory.instance.objectNode();
+        node.put("id", user.getId());
+        if (user.getClient() != null) {
+            ObjectNode clientNode = node.putObject("client");
+            clientNode.put("id", user.getClient().getId());
+            clientNode.put("name", user.getClient().getName());
+        }
+        if (user.getDateOfBirth() != null) {
+            node.put("dateOfBirth", user.getDateOfBirth().toString());
+        }
+        node.put("email", user.getEmail());
+        node.put("firstname", user.getFirstname());
+        node.put("surname", user.getSurname());
+        node.put("hasCreditLimit", user.hasCreditLimit());
+        if (user.hasCreditLimit()) {
+            node.put("creditLimit", user.getCreditLimit());
+        }
+        return node;
+    }
+
+    // For the repositories' files, which keep the move marker
+    static ObjectNode toStoredNode(User user) {
+        ObjectNode node = toNode(user);
+        if (user.getMovingToShard() >= 0) {
+            node.put("movingToShard", user.getMovingToShard());
+        }
+        return node;
+    }
+
+    // Accepts both "1990-01-01" and "1990-01-01T00:00:00.000Z"
+    private static LocalDate parseDate(String text) {
+        if (text == null || text.length() < ISO_DATE_LENGTH) {
+            return null;
+        }
+        return LocalDate.parse(text.substring(0, ISO_DATE_LENGTH));
+    }
+}
@@ -0,0 +1,27 @@
+package com.speechify;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Storage backend of one user shard. UserService keeps every shard in memory and only talks to its
+ * repository to load it once and to persist each published change, so a backend only has to
+ * implement bulk load and change-set saves.
+ *
+ * Calls for the same repository never overlap: the owning shard issues the load first and then one
+ * save at a time, each after the previous one completed.
+ */
+public interface UserRepository {
+
+    /**
+     * Completes with every stored user, or an empty list if nothing was stored yet.
+     */
+    CompletableFuture<List<User>> loadAll();
+
+    /**
+     * Persists one change set. `upserted` holds users added or replaced (keyed by id, later entries
+     * win), `removedIds` users that left the shard, and `allUsers` the complete resulting contents
+     * for backends that rewrite everything. Completes exceptionally if nothing was persisted.
+     */
+    CompletableFuture<Void> save(List<User> upserted, List<String> removedIds, Iterable<User> allUsers);
+}
@@ -0,0 +1,10 @@
+package com.speechify;
+
+/**
+ * Creates the repository backing each shard of a UserService; see UserServiceOptions.
+ */
+@FunctionalInterface
+public interface UserRepositoryFactory {
+
+    UserRepository create(int shardNumber, int shardCount);
+}
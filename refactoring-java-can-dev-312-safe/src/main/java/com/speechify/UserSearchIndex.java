@@ -0,0 +1,182 @@
+package com.speechify;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.stream.Stream;
+
+/**
+ * Prefix index over the first names, surnames and emails of users, kept up to date by the shards
+ * as they publish snapshots, like ClientAggregates.
+ *
+ * Every (lower-cased term, user) pair is an entry of a sorted concurrent set, ordered by term and
+ * then user id. A prefix query is a range of that set: it costs a logarithmic seek plus one step
+ * per match, and stops after `limit` distinct users, so it takes microseconds on any number of
+ * users. Matches come in term order, which puts an exact match first and shorter terms before
+ * longer ones that extend them. Entries share the users (and, for terms already in lower case,
+ * their strings) with the shard snapshots, so one costs a small object, a skip-list node and its
+ * share of the skip-list index, however many users have the same term.
+ *
+ * Neither readers nor writers lock. A query may see a write in some terms and not yet in others,
+ * or briefly miss a user while it is being replaced.
+ */
+public class UserSearchIndex {
+    private static final char MAX_CHAR = Character.MAX_VALUE;
+    // Characters tried at each position by the fuzzy query
+    private static final char[] ALPHABET = "abcdefghijklmnopqrstuvwxyz0123456789.-_@+'".toCharArray();
+
+    private final ConcurrentSkipListSet<Entry> entries = new ConcurrentSkipListSet<>();
+
+    /**
+     * Returns up to `limit` users with a first name, surname or email starting with `prefix`,
+     * ignoring case.
+     */
+    public List<User> findByPrefix(String prefix, int limit) {
+        Map<String, User> found = new LinkedHashMap<>();
+        if (prefix != null) {
+            collect(normalize(prefix), limit, found);
+        }
+        return copies(found);
+    }
+
+    /**
+     * Like `findByPrefix`, then tolerating one typo in `prefix` (a wrong, missing, extra or swapped
+     * character) to fill the remaining places. Exact matches come first.
+     */
+    public List<User> findByFuzzyPrefix(String prefix, int limit) {
+        if (prefix == null) {
+            return new ArrayList<>();
+        }
+        String normalized = normalize(prefix);
+        Map<String, User> found = new LinkedHashMap<>();
+        collect(normalized, limit, found);
+        char[] chars = normalized.toCharArray();
+        for (int i = 0; i < chars.length && found.size() < limit; i++) {
+            // An extra character typed here, and this one swapped with the next
+            collect(normalized.substring(0, i) + normalized.substring(i + 1), limit, found);
+            if (i + 1 < chars.length) {
+                char[] swapped = chars.clone();
+                swapped[i] = chars[i + 1];
+                swapped[i + 1] = chars[i];
+                collect(new String(swapped), limit, found);
+            }
+        }
+        for (int i = 0; i <= chars.length && found.size() < limit; i++) {
+            for (char c : ALPHABET) {
+                // A wrong character here, and one missing before it
+                if (i < chars.length && c != chars[i]) {
+                    char[] replaced = chars.clone();
+                    replaced[i] = c;
+                    collect(new String(replaced), limit, found);
+                }
+                collect(normalized.substring(0, i) + c + normalized.substring(i), limit, found);
+            }
+        }
+        return copies(found);
+    }
+
+    /**
+     * Count of (term, user) pairs indexed.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Removes `previous` and indexes `current`; either may be null for an insert or a removal.
+     */
+    void replaced(User previous, User current) {
+        if (previous != null) {
+            for (String term : terms(previous)) {
+                entries.remove(new Entry(term, previous));
+            }
+        }
+        if (current != null) {
+            for (String term : terms(current)) {
+                entries.add(new Entry(term, current));
+            }
+        }
+    }
+
+    /**
+     * Indexes a whole shard (or removes it, with `sign` -1), in parallel.
+     */
+    void addAll(Stream<User> users, int sign) {
+        users.parallel().forEach(user -> {
+            if (sign > 0) {
+                replaced(null, user);
+            } else {
+                replaced(user, null);
+            }
+        });
+    }
+
+    // Adds the users of terms starting with `prefix` to `found`, until it holds `limit`
+    private void collect(String prefix, int limit, Map<String, User> found) {
+        if (prefix.isEmpty() || found.size() >= limit) {
+            return;
+        }
+        for (Entry entry : entries.subSet(new Entry(prefix, null), new Entry(prefix + MAX_CHAR, null))) {
+            found.putIfAbsent(entry.user.getId(), entry.user);
+            if (found.size() >= limit) {
+                return;
+            }
+        }
+    }
+
+    private static List<String> terms(User user) {
+        List<String> terms = new ArrayList<>(4);
+        addTerm(terms, user.getFirstname());
+        addTerm(terms, user.getSurname());
+        addTerm(terms, user.getEmail());
+        return terms;
+    }
+
+    private static void addTerm(List<String> terms, String value) {
+        if (value != null && !value.isEmpty()) {
+            String term = normalize(value);
+            if (!terms.contains(term)) {
+                terms.add(term);
+            }
+        }
+    }
+
+    // Returns `value` itself when it is lower case already, so the index shares the user's string
+    private static String normalize(String value) {
+        return value.toLowerCase(Locale.ROOT);
+    }
+
+    private static List<User> copies(Map<String, User> found) {
+        List<User> users = new ArrayList<>(found.size());
+        for (User user : found.values()) {
+            users.add(new User(user));
+        }
+        return users;
+    }
+
+    private static final class Entry implements Comparable<Entry> {
+        private final String term;
+        // Null in the bounds of a range, which then sort before every user of their term
+        private final User user;
+
+        private Entry(String term, User user) {
+            this.term = term;
+            this.user = user;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            int byTerm = term.compareTo(other.term);
+            if (byTerm != 0) {
+                return byTerm;
+            }
+            if (user == null || other.user == null) {
+                return user == other.user ? 0 : user == null ? -1 : 1;
+            }
+            return user.getId().compareTo(other.user.getId());
+        }
+    }
+}
@@ -1,163 +1,720 @@
 package com.speechify;
 
-import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.time.LocalDate;
 import java.time.Period;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.fasterxml.jackson.databind.node.ArrayNode;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
-public class UserService {
+public class UserService implements AutoCloseable {
     private static final String DB_FILE = "db.json";
+    private static final String SHARD_FILE_PATTERN = "users-%d.json";
     private static final int MIN_AGE = 21;
-    private static final double DEFAULT_CREDIT_LIMIT = 10000.0;
-    private static final double IMPORTANT_CLIENT_MULTIPLIER = 2.0;
-    private static final String VERY_IMPORTANT_CLIENT = "VeryImportantClient";
-    private static final String IMPORTANT_CLIENT = "ImportantClient";
+    private static final String METRIC_PREFIX = "UserService.";
+    private static final String EMAIL_CACHE_SNAPSHOT = "email-cache.json";
+    private static final String CLIENT_CACHE_SNAPSHOT = "client-cache.json";
+    private static final String USERS_CHANNEL = "users";
+    private static final String CLIENTS_CHANNEL = "clients";
     
-    private final ObjectMapper objectMapper;
-    private ClientRepository clientRepository;
+    private final List<UserShard> shards;
+    private final UserEmailCache emailCache;
+    private final LongAdder emailFilterMisses = new LongAdder();
+    private final MetricsRecorder metrics;
+    private final ClientRepository clientRepository;
+    private final CreditPolicy creditPolicy;
+    // Null unless write-behind updates are enabled
+    private final WriteBehindBuffer writeBehind;
+    private final FileStore fileStore;
+    // Null unless cache snapshots are enabled
+    private final Path cacheSnapshotDirectory;
+    private final CompletableFuture<Integer> warmUp;
+    // Null unless cross-process invalidation is enabled
+    private final InvalidationJournal journal;
+    private final ChangeFeed changeFeed;
+    // Null unless concurrency limiting is enabled
+    private final ConcurrencyLimiter limiter;
+    private final ClientAggregates clientAggregates = new ClientAggregates();
+    private final UserSearchIndex searchIndex = new UserSearchIndex();
+    // The columnar projection last built, and the shard snapshots it was built from
+    private volatile ProjectedColumns projectedColumns;
 
     public UserService() {
-        this.objectMapper = new ObjectMapper();
+        this(new UserServiceOptions());
     }
 
+    public UserService(UserServiceOptions options) {
+        this.metrics = options.getMetricsRecorder();
+        this.clientRepository = options.getClientRepository() != null
+                ? options.getClientRepository()
+                : new JsonClientRepository(options.getDataDirectory().resolve(DB_FILE), options.getFileStore(), metrics);
+        this.creditPolicy = options.getCreditPolicy();
+        UserRepositoryFactory repositoryFactory = options.getUserRepositoryFactory() != null
+                ? options.getUserRepositoryFactory()
+                : jsonFileRepositories(options.getDataDirectory(), options.getFileStore(), options.getColdAfter(),
+                        options.getInvalidationPollInterval() != null);
+        long expectedUsersPerShard = Math.max(1, options.getExpectedUsers() / options.getShardCount());
+        List<UserShard> shardList = new ArrayList<>();
+        for (int i = 0; i < options.getShardCount(); i++) {
+            shardList.add(new UserShard(i, repositoryFactory.create(i, options.getShardCount()),
+                    expectedUsersPerShard, options.getEmailFilterFalsePositiveRate(), metrics,
+                    clientAggregates, searchIndex, shardList));
+        }
+        this.shards = Collections.unmodifiableList(shardList);
+        this.emailCache = new UserEmailCache(
+                options.getEmailCacheSize(), options.getMissCacheSize(), options.getMissCacheTtl(), metrics);
+        for (String name : getEmailFilterMetrics().keySet()) {
+            metrics.registerGauge(METRIC_PREFIX + "emailFilter." + name, () -> getEmailFilterMetrics().get(name));
+        }
+        if (options.getWriteBehindInterval() != null) {
+            this.writeBehind = new WriteBehindBuffer(
+                    options.getWriteBehindBufferSize(), options.getWriteBehindInterval(), this::writeBuffered);
+            metrics.registerGauge(METRIC_PREFIX + "writeBehind.buffered", writeBehind::size);
+            metrics.registerGauge(METRIC_PREFIX + "writeBehind.coalesced", writeBehind::getCoalesced);
+        } else {
+            this.writeBehind = null;
+        }
+        this.fileStore = options.getFileStore();
+        this.changeFeed = new ChangeFeed(options.getChangeFeedCapacity(), options.getChangeLogFile());
+        this.limiter = options.getConcurrencyLimiter();
+        if (limiter != null) {
+            for (ConcurrencyLimiter.Priority priority : ConcurrencyLimiter.Priority.values()) {
+                String name = priority.name().toLowerCase();
+                metrics.registerGauge(METRIC_PREFIX + "concurrencyLimit." + name, () -> limiter.getLimit(priority));
+                metrics.registerGauge(METRIC_PREFIX + "inFlight." + name, () -> limiter.getInFlight(priority));
+            }
+        }
+        this.cacheSnapshotDirectory = options.getCacheSnapshotDirectory();
+        this.warmUp = cacheSnapshotDirectory != null
+                ? warmUpCaches(options.getWarmUpParallelism())
+                : CompletableFuture.completedFuture(0);
+        this.journal = options.getInvalidationPollInterval() != null
+                ? openJournal(options.getDataDirectory(), options.getInvalidationPollInterval())
+                : null;
+    }
+
+    /**
+     * Returns the recorder this service reports to, as configured in UserServiceOptions.
+     */
+    public MetricsRecorder getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the repository users' clients are looked up in, as configured in UserServiceOptions.
+     */
+    public ClientRepository getClientRepository() {
+        return clientRepository;
+    }
+
+    /**
+     * Returns the feed of users added and updated through this service, in the order they were stored.
+     */
+    public ChangeFeed getChangeFeed() {
+        return changeFeed;
+    }
+
+    /**
+     * Completes with the per-client user counts and credit exposure once every shard is loaded.
+     * Each shard counts its users in parallel when it loads, then keeps the counts up to date as
+     * users are added, updated, moved, re-tiered or reloaded, so reports need no full scan.
+     */
+    public CompletableFuture<ClientAggregates> getClientAggregates() {
+        return allSnapshots().thenApply(loaded -> clientAggregates);
+    }
+
+    /**
+     * Completes with the index for finding users by name or email prefix once every shard is
+     * loaded. Shards index their users when they load and keep the index up to date as users are
+     * added, updated, moved or reloaded.
+     */
+    public CompletableFuture<UserSearchIndex> getSearchIndex() {
+        return allSnapshots().thenApply(loaded -> searchIndex);
+    }
+
+    /**
+     * Completes with a columnar projection of all users for analytical filters. It is built on
+     * first use and reused until a shard publishes a new snapshot; then the next call rebuilds it.
+     */
+    public CompletableFuture<UserColumns> getUserColumns() {
+        return allSnapshots().thenApply(snapshots -> {
+            ProjectedColumns projected = projectedColumns;
+            if (projected == null || !projected.isBuiltFrom(snapshots)) {
+                List<User> users = snapshots.stream().flatMap(UserSnapshot::users).collect(Collectors.toList());
+                projected = new ProjectedColumns(snapshots, UserColumns.of(users));
+                projectedColumns = projected;
+            }
+            return projected.columns;
+        });
+    }
+
+    /**
+     * Validation, the email uniqueness check and the client fetch run concurrently and are joined
+     * with `thenCombine` into the user to insert; `thenCompose` then chains the shard insert, which
+     * re-checks uniqueness in the shard's write queue and saves it. No pool thread blocks waiting
+     * on another future or on file I/O along the way.
+     */
     public CompletableFuture<Boolean> addUser(
             String firstname,
             String surname,
             String email,
             LocalDate dateOfBirth,
             String clientId) {
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                // Validate input
-                if (!isValidUserInput(firstname, surname, email)) {
-                    return false;
-                }
-                
-                if (!isAgeValid(dateOfBirth)) {
-                    return false;
-                }
-                
-                // Read database
-                ObjectNode root = readDatabase();
-                if (root == null) {
-                    return false;
-                }
-                
-                ArrayNode users = (ArrayNode) root.get("users");
-                
-                // Check email uniqueness
-                if (!isEmailUnique(users, email)) {
-                    return false;
-                }
-                
-                // Get client
-                clientRepository = new ClientRepository();
-                Client client = clientRepository.getById(clientId).join();
-                if (client == null) {
-                    System.err.println("Client not found");
-                    return false;
-                }
-                
-                // Create and save user
-                User user = createUser(client, dateOfBirth, email, firstname, surname);
-                users.add(objectMapper.valueToTree(user));
-                
-                return saveDatabase(root);
-                
-            } catch (IOException e) {
-                System.err.println("Database operation failed: " + e.getMessage());
-                return false;
-            }
-        });
+        long startNanos = System.nanoTime();
+        CompletableFuture<Boolean> added = admitted(ConcurrencyLimiter.Priority.WRITE, () ->
+                prepareNewUser(firstname, surname, email, dateOfBirth, clientId)
+                .thenCompose(user -> {
+                    if (user == null) {
+                        return CompletableFuture.completedFuture(false);
+                    }
+                    // The shard re-checks uniqueness in its write queue
+                    return shardFor(email).insert(user).thenApply(inserted -> {
+                        if (inserted) {
+                            recordWritten(UserChange.Type.ADDED, null, user);
+                        }
+                        return inserted;
+                    });
+                }));
+        // Failures are mapped to false outside `admitted`, so that the limiter sees them
+        return timed("addUser", startNanos, added).exceptionally(error -> recovered(error, false));
     }
 
+    /**
+     * Writes the update before completing, unless write-behind is enabled in UserServiceOptions.
+     * Then an update that keeps the user's email is validated and buffered, and completes without
+     * waiting for its own write (only for the flush of an update it pushed out of a full buffer);
+     * an email change is always written directly.
+     */
     public CompletableFuture<Boolean> updateUser(User user) {
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                if (user == null) {
-                    return false;
-                }
+        long startNanos = System.nanoTime();
+        CompletableFuture<Boolean> updated = admitted(ConcurrencyLimiter.Priority.WRITE, () ->
+                writeBehind != null ? bufferUpdate(user) : update(user));
+        return timed("updateUser", startNanos, updated).exceptionally(error -> recovered(error, false));
+    }
 
-                ObjectNode root = readDatabase();
-                if (root == null) {
-                    return false;
+    /**
+     * Writes all updates buffered by write-behind mode; completes once they are stored.
+     */
+    public CompletableFuture<Void> flush() {
+        return writeBehind != null ? writeBehind.flush() : CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Writes the updates buffered by write-behind mode and waits until they are stored, then stops
+     * the write-behind timer and closes the invalidation journal and the change log. Reads and
+     * writes still work afterwards, but updates are no longer written in the background, published
+     * to other processes or logged.
+     */
+    @Override
+    public void close() {
+        try {
+            if (writeBehind != null) {
+                writeBehind.close().join();
+            }
+        } finally {
+            if (journal != null) {
+                try {
+                    journal.close();
+                } catch (IOException e) {
+                    System.err.println("Invalidation journal close failed: " + e.getMessage());
                 }
+            }
+            changeFeed.close();
+        }
+    }
+
+    /**
+     * Writes the keys of the email and client caches to `cacheSnapshotDirectory`, typically on
+     * shutdown, so the next UserService can warm its caches up from them. Does nothing when
+     * cache snapshots are not enabled in UserServiceOptions.
+     */
+    public CompletableFuture<Void> saveCacheSnapshots() {
+        if (cacheSnapshotDirectory == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return CompletableFuture.allOf(
+                CacheSnapshots.saveKeys(emailCache.keys(), cacheSnapshotDirectory.resolve(EMAIL_CACHE_SNAPSHOT), fileStore),
+                clientRepository.saveCacheSnapshot(cacheSnapshotDirectory.resolve(CLIENT_CACHE_SNAPSHOT)));
+    }
 
-                ArrayNode users = (ArrayNode) root.get("users");
+    /**
+     * Completes once the background warm-up started on construction has finished, with the number
+     * of cache entries it loaded. Lookups are served normally while it runs.
+     */
+    public CompletableFuture<Integer> getWarmUp() {
+        return warmUp;
+    }
 
-                // Find and update user
-                for (int i = 0; i < users.size(); i++) {
-                    ObjectNode userNode = (ObjectNode) users.get(i);
-                    if (userNode.get("id").asText().equals(user.getId())) {
-                        users.set(i, objectMapper.valueToTree(user));
-                        return saveDatabase(root);
+    /**
+     * Re-applies the credit policy to every user of a client, e.g. after the client was promoted
+     * to another tier. The client is reloaded and its cached tier dropped first. Users are
+     * recomputed in parallel and written with one save per shard, all shards concurrently.
+     * Buffered write-behind updates are flushed first so they cannot undo the change.
+     * Completes with the number of users whose credit limit or client changed, or fails if a shard
+     * could not be loaded or saved; the users of the other shards are retiered all the same.
+     */
+    public CompletableFuture<Integer> retierClient(String clientId) {
+        long startNanos = System.nanoTime();
+        clientRepository.invalidate(Collections.singletonList(clientId));
+        creditPolicy.invalidate(clientId);
+        publish(CLIENTS_CHANNEL, Collections.singletonList(clientId));
+        CompletableFuture<Integer> retiered = admitted(ConcurrencyLimiter.Priority.WRITE, () -> flush()
+                .thenCompose(ignored -> clientRepository.getById(clientId))
+                .thenCompose(client -> {
+                    if (client == null) {
+                        System.err.println("Client not found");
+                        return CompletableFuture.completedFuture(0);
                     }
-                }
-                return false;
-            } catch (IOException e) {
-                System.err.println("Database operation failed: " + e.getMessage());
-                return false;
+                    List<CompletableFuture<List<User>>> updates = new ArrayList<>(shards.size());
+                    for (UserShard shard : shards) {
+                        updates.add(shard.updateWhere(
+                                user -> user.getClient() != null && clientId.equals(user.getClient().getId()),
+                                user -> retier(user, client)));
+                    }
+                    return CompletableFuture.allOf(updates.toArray(new CompletableFuture<?>[0]))
+                            .handle((done, error) -> {
+                                List<User> retieredUsers = new ArrayList<>();
+                                List<String> emails = new ArrayList<>();
+                                for (CompletableFuture<List<User>> update : updates) {
+                                    if (update.isCompletedExceptionally()) {
+                                        continue;
+                                    }
+                                    for (User user : update.join()) {
+                                        emailCache.written(user);
+                                        retieredUsers.add(user);
+                                        emails.add(user.getEmail());
+                                    }
+                                }
+                                publish(USERS_CHANNEL, emails);
+                                changeFeed.append(UserChange.Type.UPDATED, retieredUsers);
+                                if (error != null) {
+                                    System.err.println("Retiering client " + clientId + " failed: " + error.getMessage());
+                                    throw error instanceof CompletionException
+                                            ? (CompletionException) error : new CompletionException(error);
+                                }
+                                return emails.size();
+                            });
+                }));
+        return timed("retierClient", startNanos, retiered);
+    }
+
+    /**
+     * Applies a batch of add/update commands with one save per affected shard instead of one per
+     * command; the results are in command order. Commands are validated exactly like
+     * addUser/updateUser, all concurrently against the users stored before the batch, so a command
+     * does not see an earlier one: an update of a user added by the same batch fails. The writes
+     * reaching a shard are then applied in command order, each checked against the ones before it,
+     * so of two adds of one email only the first succeeds. An update that moves a user to another
+     * shard is applied on its own as soon as it is validated, possibly before earlier commands.
+     */
+    public CompletableFuture<List<Boolean>> applyCommands(List<UserCommand> commands) {
+        long startNanos = System.nanoTime();
+        Boolean[] results = new Boolean[commands.size()];
+        Arrays.fill(results, Boolean.FALSE);
+        CompletableFuture<List<Boolean>> applied = admitted(ConcurrencyLimiter.Priority.WRITE, () -> {
+            // A failed command does not hold up the others, but fails the batch once they are done
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            List<CompletableFuture<PendingWrite>> prepared = new ArrayList<>(commands.size());
+            for (int i = 0; i < commands.size(); i++) {
+                prepared.add(settled(prepareWrite(i, commands.get(i), results), failure));
             }
+
+            return CompletableFuture.allOf(prepared.toArray(new CompletableFuture<?>[0]))
+                    .thenCompose(ignored -> {
+                        Map<UserShard, List<PendingWrite>> writesByShard = new LinkedHashMap<>();
+                        for (CompletableFuture<PendingWrite> future : prepared) {
+                            PendingWrite pending = future.join();
+                            if (pending != null) {
+                                writesByShard.computeIfAbsent(pending.shard, shard -> new ArrayList<>()).add(pending);
+                            }
+                        }
+                        List<CompletableFuture<Void>> batches = new ArrayList<>(writesByShard.size());
+                        for (Map.Entry<UserShard, List<PendingWrite>> entry : writesByShard.entrySet()) {
+                            batches.add(settled(writeBatch(entry.getKey(), entry.getValue(), results), failure));
+                        }
+                        return CompletableFuture.allOf(batches.toArray(new CompletableFuture<?>[0]));
+                    })
+                    .thenApply(ignored -> {
+                        if (failure.get() != null) {
+                            throw new CompletionException(failure.get());
+                        }
+                        return Arrays.asList(results);
+                    });
         });
+        // The commands that failed are false in `results`
+        return timed("applyCommands", startNanos, applied).exceptionally(error -> recovered(error, Arrays.asList(results)));
     }
 
     public CompletableFuture<List<User>> getAllUsers() {
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                ObjectNode root = readDatabase();
-                if (root == null) {
-                    return new ArrayList<>();
-                }
+        long startNanos = System.nanoTime();
+        CompletableFuture<List<User>> users = admitted(ConcurrencyLimiter.Priority.READ, () -> allSnapshots()
+                .thenApply(snapshots -> snapshots.stream()
+                        .flatMap(UserSnapshot::users)
+                        .map(User::new)
+                        .collect(Collectors.toList())));
+        return timed("getAllUsers", startNanos, users).exceptionally(error -> recovered(error, new ArrayList<>()));
+    }
+
+    /**
+     * Streams a point-in-time view of all users, shard by shard, without first collecting them into
+     * one list. The snapshots of all shards are taken up front, so writes that happen while the
+     * stream is consumed are not observed. Throws UncheckedIOException if a shard fails to load.
+     */
+    public Stream<User> streamAllUsers() {
+        List<UserSnapshot> snapshots;
+        try {
+            snapshots = UserShard.await(allSnapshots());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return snapshots.stream().flatMap(UserSnapshot::users).map(User::new);
+    }
+
+    public CompletableFuture<User> getUserByEmail(String email) {
+        long startNanos = System.nanoTime();
+        if (email == null) {
+            return timed("getUserByEmail", startNanos, CompletableFuture.completedFuture(null));
+        }
+        return timed("getUserByEmail", startNanos, admitted(ConcurrencyLimiter.Priority.READ, () -> findByEmail(email)))
+                .exceptionally(error -> recovered(error, null));
+    }
 
-                ArrayNode users = (ArrayNode) root.get("users");
-                List<User> userList = new ArrayList<>();
+    // Untimed lookup through the near cache, shared with the cache warm-up
+    private CompletableFuture<User> findByEmail(String email) {
+        UserShard shard = shardFor(email);
+        return shard.snapshotAsync()
+                .thenApply(loaded -> {
+                    if (!shard.mightContainEmail(email)) {
+                        emailFilterMisses.increment();
+                        return null;
+                    }
+                    try {
+                        // Looks up the latest snapshot, not `loaded`, so a concurrent write is never cached stale
+                        User user = emailCache.get(email, shard::getByEmail);
+                        return user == null ? null : new User(user);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+    }
 
-                for (int i = 0; i < users.size(); i++) {
-                    User user = objectMapper.treeToValue(users.get(i), User.class);
-                    userList.add(user);
+    // Reloads the cache snapshots written by `saveCacheSnapshots`, both caches concurrently
+    private CompletableFuture<Integer> warmUpCaches(int parallelism) {
+        CompletableFuture<Integer> emails = CacheSnapshots
+                .loadKeys(cacheSnapshotDirectory.resolve(EMAIL_CACHE_SNAPSHOT), fileStore)
+                .thenCompose(keys -> CacheSnapshots.warmUp(keys,
+                        email -> findByEmail(email).exceptionally(error -> recovered(error, null)), parallelism));
+        CompletableFuture<Integer> clients = clientRepository
+                .warmUp(cacheSnapshotDirectory.resolve(CLIENT_CACHE_SNAPSHOT), parallelism);
+        return emails.thenCombine(clients, Integer::sum).exceptionally(error -> {
+            System.err.println("Cache warm-up failed: " + error.getMessage());
+            return 0;
+        });
+    }
+    
+    /**
+     * Email Bloom filter figures summed over the loaded shards, except the false positive rate which
+     * is the worst shard's current estimate. `definiteMisses` counts lookups answered by the filter alone.
+     */
+    public Map<String, Number> getEmailFilterMetrics() {
+        long bits = 0;
+        long memoryBytes = 0;
+        long insertions = 0;
+        double falsePositiveRate = 0.0;
+        for (UserShard shard : shards) {
+            BloomFilter filter = shard.getEmailFilter();
+            if (filter != null) {
+                bits += filter.getBitCount();
+                memoryBytes += filter.getMemoryBytes();
+                insertions += filter.getInsertions();
+                falsePositiveRate = Math.max(falsePositiveRate, filter.getExpectedFalsePositiveRate());
+            }
+        }
+        Map<String, Number> metrics = new LinkedHashMap<>();
+        metrics.put("bits", bits);
+        metrics.put("memoryBytes", memoryBytes);
+        metrics.put("insertions", insertions);
+        metrics.put("expectedFalsePositiveRate", falsePositiveRate);
+        metrics.put("definiteMisses", emailFilterMisses.sum());
+        return metrics;
+    }
+    
+    // Extracted helper methods
+    // Completes with the user to insert, or with null if any check failed
+    private CompletableFuture<User> prepareNewUser(String firstname, String surname, String email,
+                                                   LocalDate dateOfBirth, String clientId) {
+        // Validate input
+        CompletableFuture<Boolean> validInput = CompletableFuture.supplyAsync(() ->
+                isValidUserInput(firstname, surname, email) && dateOfBirth != null && isAgeValid(dateOfBirth));
+        
+        // Check email uniqueness
+        CompletableFuture<Boolean> emailUnique = email == null
+                ? CompletableFuture.completedFuture(false)
+                : isEmailUnique(shardFor(email), email).exceptionally(error -> {
+                    System.err.println("Database operation failed: " + error.getMessage());
+                    return false;
+                });
+        
+        // Get client
+        long clientFetchStart = System.nanoTime();
+        CompletableFuture<Client> client = clientRepository.getById(clientId).whenComplete((result, error) ->
+                metrics.recordLatency(METRIC_PREFIX + "clientFetch", System.nanoTime() - clientFetchStart));
+        
+        return validInput
+                .thenCombine(emailUnique, (valid, unique) -> valid && unique)
+                .thenCombine(client, (checksPassed, foundClient) -> {
+                    if (!checksPassed) {
+                        return null;
+                    }
+                    if (foundClient == null) {
+                        System.err.println("Client not found");
+                        return null;
+                    }
+                    return createUser(foundClient, dateOfBirth, email, firstname, surname);
+                });
+    }
+    
+    private CompletableFuture<Boolean> update(User user) {
+        if (user == null || user.getId() == null || user.getEmail() == null) {
+            return CompletableFuture.completedFuture(false);
+        }
+        if (writeBehind != null) {
+            // This version supersedes any buffered one
+            writeBehind.discard(user.getId());
+        }
+
+        UserShard target = shardFor(user.getEmail());
+        return shardContainingId(user.getId(), target).thenCompose(source -> source == null
+                ? CompletableFuture.completedFuture(false)
+                : updateIn(source, target, user));
+    }
+
+    private CompletableFuture<Boolean> updateIn(UserShard source, UserShard target, User user) {
+        return source.snapshotAsync().thenCompose(snapshot -> {
+            User previous = snapshot.getById(user.getId());
+            User stored = inputCopy(user);
+            CompletableFuture<Boolean> updated = source == target
+                    ? target.replace(stored)
+                    // The email changed and now routes to a different shard
+                    : UserShard.move(source, target, stored);
+            return updated.thenApply(done -> {
+                if (done) {
+                    recordWritten(UserChange.Type.UPDATED, previous == null ? null : previous.getEmail(), stored);
                 }
-                
-                return userList;
-            } catch (IOException e) {
-                System.err.println("Database operation failed: " + e.getMessage());
-                return new ArrayList<>();
+                return done;
+            });
+        });
+    }
+    
+    // Buffered users always keep the email they are stored under, so a flush never re-routes one
+    private CompletableFuture<Boolean> bufferUpdate(User user) {
+        if (user == null || user.getId() == null || user.getEmail() == null) {
+            return CompletableFuture.completedFuture(false);
+        }
+        UserShard target = shardFor(user.getEmail());
+        return target.snapshotAsync().thenCompose(snapshot -> {
+            User previous = snapshot.getById(user.getId());
+            if (previous == null || !previous.getEmail().equals(user.getEmail())) {
+                return update(user);
             }
+            User stored = inputCopy(user);
+            emailCache.written(stored);
+            return writeBehind.add(stored).thenApply(ignored -> true);
         });
     }
 
-    public CompletableFuture<User> getUserByEmail(String email) {
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                ObjectNode root = readDatabase();
-                if (root == null) {
-                    return null;
+    private CompletableFuture<Void> writeBuffered(List<User> users) {
+        Boolean[] results = new Boolean[users.size()];
+        Arrays.fill(results, Boolean.FALSE);
+        Map<UserShard, List<PendingWrite>> writesByShard = new LinkedHashMap<>();
+        for (int i = 0; i < users.size(); i++) {
+            User user = users.get(i);
+            UserShard shard = shardFor(user.getEmail());
+            writesByShard.computeIfAbsent(shard, ignored -> new ArrayList<>())
+                    .add(new PendingWrite(i, shard, UserShard.Write.replace(user), user.getEmail()));
+        }
+        List<CompletableFuture<Void>> batches = new ArrayList<>(writesByShard.size());
+        for (Map.Entry<UserShard, List<PendingWrite>> entry : writesByShard.entrySet()) {
+            batches.add(writeBatch(entry.getKey(), entry.getValue(), results)
+                    .exceptionally(error -> recovered(error, null)));
+        }
+        return CompletableFuture.allOf(batches.toArray(new CompletableFuture<?>[0])).thenRun(() -> {
+            for (int i = 0; i < results.length; i++) {
+                if (!results[i]) {
+                    // The near cache must not keep serving an update that never made it to storage
+                    System.err.println("Write-behind update failed for user " + users.get(i).getId());
+                    emailCache.invalidate(users.get(i).getEmail());
                 }
+            }
+        });
+    }
+    
+    // Completes with the shard write for a command, or with null if it failed validation or was applied directly;
+    // fails if a lookup or the direct write failed
+    private CompletableFuture<PendingWrite> prepareWrite(int position, UserCommand command, Boolean[] results) {
+        if (command.getType() == UserCommand.Type.ADD) {
+            return prepareNewUser(command.getFirstname(), command.getSurname(), command.getEmail(),
+                    command.getDateOfBirth(), command.getClientId())
+                    .thenApply(user -> user == null
+                            ? null
+                            : new PendingWrite(position, shardFor(user.getEmail()), UserShard.Write.insert(user), null));
+        }
 
-                ArrayNode users = (ArrayNode) root.get("users");
-
-                for (int i = 0; i < users.size(); i++) {
-                    ObjectNode userNode = (ObjectNode) users.get(i);
-                    if (userNode.get("email").asText().equals(email)) {
-                        User user = objectMapper.treeToValue(userNode, User.class);
-                        return user;
+        User user = command.getUser();
+        if (user == null || user.getId() == null || user.getEmail() == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (writeBehind != null) {
+            writeBehind.discard(user.getId());
+        }
+        UserShard target = shardFor(user.getEmail());
+        return shardContainingId(user.getId(), target)
+                .thenCompose(source -> {
+                    if (source == null) {
+                        return CompletableFuture.completedFuture(null);
                     }
+                    if (source != target) {
+                        return update(user).thenApply(updated -> {
+                            results[position] = updated;
+                            return null;
+                        });
+                    }
+                    return source.snapshotAsync().thenApply(snapshot -> {
+                        User previous = snapshot.getById(user.getId());
+                        return new PendingWrite(position, target, UserShard.Write.replace(inputCopy(user)),
+                                previous == null ? null : previous.getEmail());
+                    });
+                });
+    }
+    
+    private CompletableFuture<Void> writeBatch(UserShard shard, List<PendingWrite> pendingWrites, Boolean[] results) {
+        List<UserShard.Write> writes = new ArrayList<>(pendingWrites.size());
+        for (PendingWrite pending : pendingWrites) {
+            writes.add(pending.write);
+        }
+        return shard.applyBatch(writes)
+                .thenAccept(applied -> {
+                    for (int i = 0; i < applied.length; i++) {
+                        PendingWrite pending = pendingWrites.get(i);
+                        results[pending.position] = applied[i];
+                        if (applied[i]) {
+                            recordWritten(pending.write.isInsert() ? UserChange.Type.ADDED : UserChange.Type.UPDATED,
+                                    pending.previousEmail, pending.write.getUser());
+                        }
+                    }
+                });
+    }
+
+    // Completes with null instead of failing, after recording the first failure in `failure`
+    private static <T> CompletableFuture<T> settled(CompletableFuture<T> future, AtomicReference<Throwable> failure) {
+        return future.exceptionally(error -> {
+            failure.compareAndSet(null, error);
+            return null;
+        });
+    }
+
+    // Maps a failed call to `fallback`, applied outside `admitted` so that the limiter saw the failure.
+    // A call the limiter turned away still fails, so that the caller can tell it from a refusal.
+    private static <T> T recovered(Throwable error, T fallback) {
+        if (error instanceof OverloadedException) {
+            throw (OverloadedException) error;
+        }
+        System.err.println("User operation failed: " + error.getMessage());
+        return fallback;
+    }
+    
+    private void recordWritten(UserChange.Type type, String previousEmail, User written) {
+        if (previousEmail != null && !previousEmail.equals(written.getEmail())) {
+            emailCache.removed(previousEmail);
+            publish(USERS_CHANNEL, Arrays.asList(previousEmail, written.getEmail()));
+        } else {
+            publish(USERS_CHANNEL, Collections.singletonList(written.getEmail()));
+        }
+        emailCache.written(written);
+        changeFeed.append(type, Collections.singletonList(written));
+    }
+
+    // Tells the other processes sharing the data directory which keys changed, if enabled
+    private void publish(String channel, Collection<String> keys) {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.publish(channel, keys);
+        } catch (IOException e) {
+            System.err.println("Invalidation publish failed: " + e.getMessage());
+        }
+    }
+
+    // Changes made by other processes: clients are dropped from the caches, users reloaded with their shard
+    private InvalidationJournal openJournal(Path directory, Duration pollInterval) {
+        InvalidationJournal opened;
+        try {
+            opened = new InvalidationJournal(directory.resolve(InvalidationJournal.FILE_NAME), pollInterval);
+        } catch (IOException e) {
+            System.err.println("Cross-process invalidation disabled: " + e.getMessage());
+            return null;
+        }
+        opened.subscribe(CLIENTS_CHANNEL, new InvalidationJournal.Subscriber() {
+            @Override
+            public void invalidate(Collection<String> clientIds) {
+                clientRepository.invalidate(clientIds);
+                clientIds.forEach(creditPolicy::invalidate);
+            }
+
+            @Override
+            public void invalidateAll() {
+                clientRepository.invalidateAll();
+                creditPolicy.invalidateAll();
+            }
+        });
+        opened.subscribe(USERS_CHANNEL, new InvalidationJournal.Subscriber() {
+            @Override
+            public void invalidate(Collection<String> emails) {
+                Set<UserShard> changed = new LinkedHashSet<>();
+                for (String email : emails) {
+                    changed.add(shardFor(email));
                 }
-                return null;
-            } catch (IOException e) {
-                System.err.println("Database operation failed: " + e.getMessage());
-                return null;
+                // Cached users are dropped only once the shard holds their new version
+                reload(changed).thenRun(() -> emails.forEach(emailCache::invalidate));
+            }
+
+            @Override
+            public void invalidateAll() {
+                reload(shards).thenRun(emailCache::invalidateAll);
             }
         });
+        return opened;
+    }
+
+    private CompletableFuture<Void> reload(Collection<UserShard> changed) {
+        List<CompletableFuture<Void>> reloads = new ArrayList<>(changed.size());
+        for (UserShard shard : changed) {
+            reloads.add(shard.reload());
+        }
+        return CompletableFuture.allOf(reloads.toArray(new CompletableFuture<?>[0])).exceptionally(error -> {
+            System.err.println("Database reload failed: " + error.getMessage());
+            return null;
+        });
     }
     
-    // Extracted helper methods
     private boolean isValidUserInput(String firstname, String surname, String email) {
         return firstname != null && surname != null && email != null;
     }
@@ -167,33 +724,102 @@ public class UserService {
         return age >= MIN_AGE;
     }
     
-    private boolean isEmailUnique(ArrayNode users, String email) {
-        for (int i = 0; i < users.size(); i++) {
-            ObjectNode userNode = (ObjectNode) users.get(i);
-            if (userNode.get("email").asText().equals(email)) {
-                return false;
+    private CompletableFuture<Boolean> isEmailUnique(UserShard shard, String email) {
+        long startNanos = System.nanoTime();
+        return timed("isEmailUnique", startNanos, shard.snapshotAsync().thenApply(snapshot -> {
+            if (!shard.mightContainEmail(email)) {
+                emailFilterMisses.increment();
+                return true;
+            }
+            return snapshot.getByEmail(email) == null;
+        }));
+    }
+    
+    // Records end-to-end latency, including time spent queued before the task started
+    // Rejected calls are counted by `admitted` instead, so they do not drag the latencies down
+    private <T> CompletableFuture<T> timed(String method, long startNanos, CompletableFuture<T> future) {
+        future.whenComplete((result, error) -> {
+            if (!(error instanceof OverloadedException)) {
+                metrics.recordLatency(METRIC_PREFIX + method, System.nanoTime() - startNanos);
             }
+        });
+        return future;
+    }
+
+    // Starts `call` if the concurrency limiter (when enabled) admits it, or fails with OverloadedException
+    private <T> CompletableFuture<T> admitted(ConcurrencyLimiter.Priority priority, Supplier<CompletableFuture<T>> call) {
+        if (limiter == null) {
+            return call.get();
+        }
+        if (!limiter.tryAcquire(priority)) {
+            metrics.increment(METRIC_PREFIX + "rejected." + priority.name().toLowerCase());
+            return CompletableFuture.failedFuture(new OverloadedException(
+                    "Too many calls in flight (limit " + limiter.getLimit(priority) + ")"));
         }
-        return true;
+        long startNanos = System.nanoTime();
+        CompletableFuture<T> future;
+        try {
+            future = call.get();
+        } catch (RuntimeException e) {
+            limiter.release(priority, System.nanoTime() - startNanos, false);
+            throw e;
+        }
+        future.whenComplete((result, error) -> limiter.release(priority, System.nanoTime() - startNanos, error == null));
+        return future;
     }
     
-    private ObjectNode readDatabase() throws IOException {
-        File dbFile = new File(DB_FILE);
-        if (!dbFile.exists()) {
-            return null;
+    // A caller's user as the shards may store it: a copy, never marked as moving between shards
+    private static User inputCopy(User user) {
+        User copy = new User(user);
+        copy.setMovingToShard(-1);
+        return copy;
+    }
+
+    private UserShard shardFor(String email) {
+        return shards.get(Math.floorMod(email.hashCode(), shards.size()));
+    }
+    
+    // Completes with every shard's current snapshot, loading the shards that are not loaded yet
+    private CompletableFuture<List<UserSnapshot>> allSnapshots() {
+        List<CompletableFuture<UserSnapshot>> loads = new ArrayList<>(shards.size());
+        for (UserShard shard : shards) {
+            loads.add(shard.snapshotAsync());
         }
-        return (ObjectNode) objectMapper.readTree(dbFile);
+        return CompletableFuture.allOf(loads.toArray(new CompletableFuture<?>[0]))
+                .thenApply(ignored -> loads.stream().map(CompletableFuture::join).collect(Collectors.toList()));
     }
     
-    private boolean saveDatabase(ObjectNode root) {
-        try {
-            File dbFile = new File(DB_FILE);
-            objectMapper.writeValue(dbFile, root);
-            return true;
-        } catch (IOException e) {
-            System.err.println("Database save failed: " + e.getMessage());
-            return false;
+    // Looks in the shard the user's current email routes to first, then in all others
+    private CompletableFuture<UserShard> shardContainingId(String id, UserShard likelyShard) {
+        return likelyShard.snapshotAsync().thenCompose(likely -> {
+            if (likely.getById(id) != null) {
+                return CompletableFuture.completedFuture(likelyShard);
+            }
+            return allSnapshots().thenApply(snapshots -> {
+                for (int i = 0; i < shards.size(); i++) {
+                    if (shards.get(i) != likelyShard && snapshots.get(i).getById(id) != null) {
+                        return shards.get(i);
+                    }
+                }
+                return null;
+            });
+        });
+    }
+    
+    // With a single shard, users live in `db.json` next to the clients
+    private static UserRepositoryFactory jsonFileRepositories(Path directory, FileStore fileStore, Duration coldAfter,
+                                                              boolean shared) {
+        if (coldAfter != null && shared) {
+            throw new IllegalArgumentException("coldAfter needs a single writing process and cannot be combined "
+                    + "with invalidationPollInterval");
         }
+        UserDatabaseLoader loader = new UserDatabaseLoader();
+        return (shardNumber, shardCount) -> {
+            JsonFileUserRepository repository = new JsonFileUserRepository(
+                    directory.resolve(shardCount == 1 ? DB_FILE : String.format(SHARD_FILE_PATTERN, shardNumber)),
+                    fileStore, loader, shared);
+            return coldAfter != null ? new TieredUserRepository(repository, fileStore, coldAfter) : repository;
+        };
     }
     
     private User createUser(Client client, LocalDate dateOfBirth, String email, 
@@ -206,20 +832,51 @@ public class UserService {
         user.setFirstname(firstname);
         user.setSurname(surname);
         
-        setCreditLimitBasedOnClient(user, client);
+        creditPolicy.apply(user);
         return user;
     }
     
-    private void setCreditLimitBasedOnClient(User user, Client client) {
-        String clientName = client.getName();
-        if (VERY_IMPORTANT_CLIENT.equals(clientName)) {
-            user.setHasCreditLimit(false);
-        } else if (IMPORTANT_CLIENT.equals(clientName)) {
-            user.setHasCreditLimit(true);
-            user.setCreditLimit(DEFAULT_CREDIT_LIMIT * IMPORTANT_CLIENT_MULTIPLIER);
-        } else {
-            user.setHasCreditLimit(true);
-            user.setCreditLimit(DEFAULT_CREDIT_LIMIT);
+    // Completes `user` (a copy) with the reloaded client and its credit terms; null if nothing changed
+    private User retier(User user, Client client) {
+        boolean clientChanged = !client.getName().equals(user.getClient().getName());
+        user.setClient(client);
+        boolean limitChanged = creditPolicy.apply(user);
+        return clientChanged || limitChanged ? user : null;
+    }
+    
+    // A columnar projection and the snapshots it was built from
+    private static final class ProjectedColumns {
+        private final List<UserSnapshot> snapshots;
+        private final UserColumns columns;
+
+        private ProjectedColumns(List<UserSnapshot> snapshots, UserColumns columns) {
+            this.snapshots = snapshots;
+            this.columns = columns;
+        }
+
+        // Snapshots are immutable, so the same instances mean the same users
+        private boolean isBuiltFrom(List<UserSnapshot> current) {
+            for (int i = 0; i < snapshots.size(); i++) {
+                if (snapshots.get(i) != current.get(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    // A validated command waiting for its shard's batch write
+    private static final class PendingWrite {
+        private final int position;
+        private final UserShard shard;
+        private final UserShard.Write write;
+        private final String previousEmail;
+
+        private PendingWrite(int position, UserShard shard, UserShard.Write write, String previousEmail) {
+            this.position = position;
+            this.shard = shard;
+            this.write = write;
+            this.previousEmail = previousEmail;
         }
     }
-} 
\ No newline at end of file
+}
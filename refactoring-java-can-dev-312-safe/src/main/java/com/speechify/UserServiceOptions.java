@@ -0,0 +1,348 @@
+package com.speechify;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.nio.file.Paths;
+
+/**
+ * Tuning knobs for UserService. The defaults reproduce the original single `db.json` layout
+ * in the working directory.
+ */
+public class UserServiceOptions {
+    private static final int DEFAULT_SHARD_COUNT = 1;
+    private static final int DEFAULT_EMAIL_CACHE_SIZE = 1000;
+    private static final int DEFAULT_MISS_CACHE_SIZE = 1000;
+    private static final Duration DEFAULT_MISS_CACHE_TTL = Duration.ofSeconds(5);
+    private static final long DEFAULT_EXPECTED_USERS = 100_000;
+    private static final double DEFAULT_EMAIL_FILTER_FALSE_POSITIVE_RATE = 0.01;
+    private static final int DEFAULT_WRITE_BEHIND_BUFFER_SIZE = 1000;
+    private static final int DEFAULT_WARM_UP_PARALLELISM = 4;
+    private static final int DEFAULT_CHANGE_FEED_CAPACITY = 10_000;
+
+    /**
+     * @property shardCount
+     * Number of storage shards users are partitioned into by a hash of their email.
+     * With a single shard, users live in `db.json` next to the clients.
+     */
+    private int shardCount = DEFAULT_SHARD_COUNT;
+
+    /**
+     * @property dataDirectory
+     * Directory holding `db.json` and the shard files of the default JSON file storage.
+     */
+    private Path dataDirectory = Paths.get("");
+
+    /**
+     * @property emailCacheSize
+     * Maximum count of users kept in the `getUserByEmail` near cache.
+     */
+    private int emailCacheSize = DEFAULT_EMAIL_CACHE_SIZE;
+
+    /**
+     * @property missCacheSize
+     * Maximum count of unknown emails remembered by the near cache.
+     */
+    private int missCacheSize = DEFAULT_MISS_CACHE_SIZE;
+
+    /**
+     * @property missCacheTtl
+     * How long an unknown email is answered from the near cache before storage is asked again.
+     */
+    private Duration missCacheTtl = DEFAULT_MISS_CACHE_TTL;
+
+    /**
+     * @property expectedUsers
+     * Planned number of users, used to size the email Bloom filters (split evenly across shards).
+     * A shard that outgrows its share rebuilds its filter at twice its size.
+     */
+    private long expectedUsers = DEFAULT_EXPECTED_USERS;
+
+    /**
+     * @property emailFilterFalsePositiveRate
+     * Target probability that the email Bloom filter reports an unknown email as possibly present.
+     * Lower rates cost more memory: about 9.6 bits per user at 1%, 14.4 bits at 0.1%.
+     */
+    private double emailFilterFalsePositiveRate = DEFAULT_EMAIL_FILTER_FALSE_POSITIVE_RATE;
+
+    /**
+     * @property metricsRecorder
+     * Receives per-method and per-phase latencies, cache hit/miss counts and gauges.
+     * Use MetricsRecorder.NOOP to switch instrumentation off.
+     */
+    private MetricsRecorder metricsRecorder = new HistogramMetricsRecorder();
+
+    /**
+     * @property fileStore
+     * Reads and writes the database files. The default AsyncFileStore completes on I/O completion;
+     * BlockingFileStore parks a pool thread per operation instead.
+     */
+    private FileStore fileStore = new AsyncFileStore();
+
+    /**
+     * @property userRepositoryFactory
+     * Creates the storage backend of each shard. When null, every shard is a JsonFileUserRepository
+     * in `dataDirectory` using `fileStore`.
+     */
+    private UserRepositoryFactory userRepositoryFactory;
+
+    /**
+     * @property clientRepository
+     * Source of the clients users are assigned to. When null, clients are read from `db.json` in
+     * `dataDirectory` by a JsonClientRepository.
+     */
+    private ClientRepository clientRepository;
+
+    /**
+     * @property creditPolicy
+     * Sets the credit limit of new users, and of existing ones on `UserService.retierClient`.
+     */
+    private CreditPolicy creditPolicy = new CreditPolicy();
+
+    /**
+     * @property writeBehindInterval
+     * When set, `updateUser` calls that keep the user's email only buffer the update and complete
+     * without waiting for its write; buffered updates are written in batches at this interval, when evicted from the
+     * buffer, or on `UserService.flush()`. Updates are lost if the process dies before their flush.
+     * When null (the default), every update is written before its future completes.
+     */
+    private Duration writeBehindInterval;
+
+    /**
+     * @property writeBehindBufferSize
+     * Maximum count of users with buffered updates; the least recently updated one is flushed
+     * early to make room.
+     */
+    private int writeBehindBufferSize = DEFAULT_WRITE_BEHIND_BUFFER_SIZE;
+
+    /**
+     * @property invalidationPollInterval
+     * When set, services in several processes may share `dataDirectory`. Saves of the default JSON
+     * files lock them and merge in what other processes wrote since (see JsonFileUserRepository),
+     * and each process publishes the emails and clients it changes to `invalidations.journal`
+     * there, polling it at this interval to reload what the others changed. Until then a process
+     * may read stale users, and an add that another process has just taken the email of fails at
+     * its save. Custom repositories from `userRepositoryFactory` must coordinate writers
+     * themselves. When null (the default), `dataDirectory` must have a single writing process.
+     */
+    private Duration invalidationPollInterval;
+
+    /**
+     * @property cacheSnapshotDirectory
+     * When set, `UserService.saveCacheSnapshots()` writes the keys of the email and client caches
+     * here, and a new UserService reloads them in the background on construction.
+     * When null (the default), caches start empty.
+     */
+    private Path cacheSnapshotDirectory;
+
+    /**
+     * @property warmUpParallelism
+     * Maximum count of cache entries loaded concurrently while warming up from a snapshot.
+     */
+    private int warmUpParallelism = DEFAULT_WARM_UP_PARALLELISM;
+
+    /**
+     * @property changeFeedCapacity
+     * Count of latest changes `UserService.getChangeFeed()` retains; consumers further behind must
+     * resynchronize from a full read.
+     */
+    private int changeFeedCapacity = DEFAULT_CHANGE_FEED_CAPACITY;
+
+    /**
+     * @property changeLogFile
+     * When set, the change feed is also appended to this file and reloaded from it on construction,
+     * so consumers can resume from their last sequence across restarts. When null (the default),
+     * the feed is kept in memory and starts again at sequence 1.
+     */
+    private Path changeLogFile;
+
+    /**
+     * @property concurrencyLimiter
+     * When set, UserService admits add, update, batch and read calls through it, and fails the
+     * ones it turns away with OverloadedException instead of queueing them. Reads are favoured
+     * over writes. When null (the default), every call is accepted.
+     */
+    private ConcurrencyLimiter concurrencyLimiter;
+
+    /**
+     * @property coldAfter
+     * When set, the default JSON file storage keeps users not written for this long in compressed,
+     * immutable segment files next to each shard file (see TieredUserRepository), so saves only
+     * rewrite the recently written ones; every user is still loaded into memory. When null (the
+     * default), each shard file holds every user. Ignored when `userRepositoryFactory` is set; cannot be combined with `invalidationPollInterval`.
+     */
+    private Duration coldAfter;
+
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    public void setShardCount(int shardCount) {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("shardCount must be positive");
+        }
+        this.shardCount = shardCount;
+    }
+
+    public Path getDataDirectory() {
+        return dataDirectory;
+    }
+
+    public void setDataDirectory(Path dataDirectory) {
+        this.dataDirectory = dataDirectory;
+    }
+
+    public int getEmailCacheSize() {
+        return emailCacheSize;
+    }
+
+    public void setEmailCacheSize(int emailCacheSize) {
+        this.emailCacheSize = emailCacheSize;
+    }
+
+    public int getMissCacheSize() {
+        return missCacheSize;
+    }
+
+    public void setMissCacheSize(int missCacheSize) {
+        this.missCacheSize = missCacheSize;
+    }
+
+    public Duration getMissCacheTtl() {
+        return missCacheTtl;
+    }
+
+    public void setMissCacheTtl(Duration missCacheTtl) {
+        this.missCacheTtl = missCacheTtl;
+    }
+
+    public long getExpectedUsers() {
+        return expectedUsers;
+    }
+
+    public void setExpectedUsers(long expectedUsers) {
+        this.expectedUsers = expectedUsers;
+    }
+
+    public double getEmailFilterFalsePositiveRate() {
+        return emailFilterFalsePositiveRate;
+    }
+
+    public void setEmailFilterFalsePositiveRate(double emailFilterFalsePositiveRate) {
+        this.emailFilterFalsePositiveRate = emailFilterFalsePositiveRate;
+    }
+
+    public MetricsRecorder getMetricsRecorder() {
+        return metricsRecorder;
+    }
+
+    public void setMetricsRecorder(MetricsRecorder metricsRecorder) {
+        this.metricsRecorder = metricsRecorder;
+    }
+
+    public FileStore getFileStore() {
+        return fileStore;
+    }
+
+    public void setFileStore(FileStore fileStore) {
+        this.fileStore = fileStore;
+    }
+
+    public UserRepositoryFactory getUserRepositoryFactory() {
+        return userRepositoryFactory;
+    }
+
+    public void setUserRepositoryFactory(UserRepositoryFactory userRepositoryFactory) {
+        this.userRepositoryFactory = userRepositoryFactory;
+    }
+
+    public ClientRepository getClientRepository() {
+        return clientRepository;
+    }
+
+    public void setClientRepository(ClientRepository clientRepository) {
+        this.clientRepository = clientRepository;
+    }
+
+    public CreditPolicy getCreditPolicy() {
+        return creditPolicy;
+    }
+
+    public void setCreditPolicy(CreditPolicy creditPolicy) {
+        this.creditPolicy = creditPolicy;
+    }
+
+    public Duration getWriteBehindInterval() {
+        return writeBehindInterval;
+    }
+
+    public void setWriteBehindInterval(Duration writeBehindInterval) {
+        this.writeBehindInterval = writeBehindInterval;
+    }
+
+    public int getWriteBehindBufferSize() {
+        return writeBehindBufferSize;
+    }
+
+    public void setWriteBehindBufferSize(int writeBehindBufferSize) {
+        this.writeBehindBufferSize = writeBehindBufferSize;
+    }
+
+    public Duration getInvalidationPollInterval() {
+        return invalidationPollInterval;
+    }
+
+    public void setInvalidationPollInterval(Duration invalidationPollInterval) {
+        this.invalidationPollInterval = invalidationPollInterval;
+    }
+
+    public Path getCacheSnapshotDirectory() {
+        return cacheSnapshotDirectory;
+    }
+
+    public void setCacheSnapshotDirectory(Path cacheSnapshotDirectory) {
+        this.cacheSnapshotDirectory = cacheSnapshotDirectory;
+    }
+
+    public int getWarmUpParallelism() {
+        return warmUpParallelism;
+    }
+
+    public void setWarmUpParallelism(int warmUpParallelism) {
+        this.warmUpParallelism = warmUpParallelism;
+    }
+
+    public int getChangeFeedCapacity() {
+        return changeFeedCapacity;
+    }
+
+    public void setChangeFeedCapacity(int changeFeedCapacity) {
+        if (changeFeedCapacity <= 0) {
+            throw new IllegalArgumentException("changeFeedCapacity must be positive");
+        }
+        this.changeFeedCapacity = changeFeedCapacity;
+    }
+
+    public Path getChangeLogFile() {
+        return changeLogFile;
+    }
+
+    public void setChangeLogFile(Path changeLogFile) {
+        this.changeLogFile = changeLogFile;
+    }
+
+    public ConcurrencyLimiter getConcurrencyLimiter() {
+        return concurrencyLimiter;
+    }
+
+    public void setConcurrencyLimiter(ConcurrencyLimiter concurrencyLimiter) {
+        this.concurrencyLimiter = concurrencyLimiter;
+    }
+
+    public Duration getColdAfter() {
+        return coldAfter;
+    }
+
+    public void setColdAfter(Duration coldAfter) {
+        this.coldAfter = coldAfter;
+    }
+}
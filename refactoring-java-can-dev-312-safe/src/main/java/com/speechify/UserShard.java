@@ -0,0 +1,502 @@
+package com.speechify;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+
+/**
+ * One partition of the user store, with its own repository, in-memory snapshot and write queue.
+ *
+ * The repository is loaded lazily on first access and kept in memory afterwards. The current contents are
+ * published as an immutable UserSnapshot through an atomic reference: readers never lock, while a
+ * writer (one at a time per shard) builds the next snapshot, saves it and only then swaps it in.
+ * Writes to different shards never contend, and a save only touches the repository of this shard.
+ *
+ * Repository access is asynchronous end to end: writes are chained on a per-shard queue rather
+ * than a lock, so no thread is parked while a save is in flight.
+ *
+ * A Bloom filter over the emails of the shard lets callers prove absence without a lookup. It is
+ * rebuilt on load (and when more users than planned were added) and updated before each new
+ * snapshot is published, so a reader that can see a user always finds its email in the filter.
+ * ClientAggregates and the UserSearchIndex are updated the same way, with the difference between
+ * the two snapshots.
+ *
+ * A move between shards takes three saves: the source first marks the user as leaving, then the
+ * target stores it, which commits the move, then the source drops it. A load that finds a user still
+ * marked (after a crash or a failed save) completes the move if the target holds the user and
+ * unmarks it otherwise, so a user is never loaded from two shards.
+ */
+class UserShard {
+    private static final String READ_DATABASE_METRIC = "UserService.readDatabase";
+    private static final String SAVE_DATABASE_METRIC = "UserService.saveDatabase";
+
+    private final int number;
+    private final UserRepository repository;
+    private final AtomicReference<UserSnapshot> current = new AtomicReference<>();
+    private final long expectedUsers;
+    private final double emailFilterFalsePositiveRate;
+    private final MetricsRecorder metrics;
+    private final ClientAggregates aggregates;
+    private final UserSearchIndex searchIndex;
+    // Every shard of the service, by number, to check the targets of interrupted moves in
+    private final List<UserShard> shards;
+    private volatile BloomFilter emailFilter;
+    // Guarded by this
+    private CompletableFuture<UserSnapshot> loading;
+    // Guarded by this; the repository contents until the first snapshot is published
+    private CompletableFuture<UserSnapshot> stored;
+    // Only touched by queued writes; users moved away whose removal from the repository failed
+    private final Set<String> unsavedRemovals = new HashSet<>();
+    // Guarded by this; completes when the last queued write has finished
+    private CompletableFuture<?> lastWrite = CompletableFuture.completedFuture(null);
+
+    UserShard(int number, UserRepository repository,
+              long expectedUsers, double emailFilterFalsePositiveRate, MetricsRecorder metrics,
+              ClientAggregates aggregates, UserSearchIndex searchIndex, List<UserShard> shards) {
+        this.number = number;
+        this.repository = repository;
+        this.expectedUsers = expectedUsers;
+        this.emailFilterFalsePositiveRate = emailFilterFalsePositiveRate;
+        this.metrics = metrics;
+        this.aggregates = aggregates;
+        this.searchIndex = searchIndex;
+        this.shards = shards;
+    }
+
+    int getNumber() {
+        return number;
+    }
+
+    /**
+     * Completes with the latest published version of this shard, loading it on first use.
+     * A failed load is retried by the next call.
+     */
+    CompletableFuture<UserSnapshot> snapshotAsync() {
+        UserSnapshot snapshot = current.get();
+        if (snapshot != null) {
+            return CompletableFuture.completedFuture(snapshot);
+        }
+        synchronized (this) {
+            if (loading == null) {
+                CompletableFuture<UserSnapshot> load = storedAsync()
+                        // Off this lock, as finishing moves takes the locks of other shards
+                        .thenComposeAsync(this::finishMoves)
+                        .thenApply(this::publishLoaded);
+                load.whenComplete((loaded, error) -> {
+                    if (error != null) {
+                        synchronized (this) {
+                            loading = null;
+                        }
+                    }
+                });
+                loading = load;
+            }
+            return loading;
+        }
+    }
+
+    /**
+     * Re-reads the repository, e.g. after another process wrote to it, and publishes what it holds
+     * as the next snapshot. Queued like a write; a no-op while the shard is not loaded.
+     */
+    CompletableFuture<Void> reload() {
+        if (current.get() == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return enqueueWrite(() -> readDatabase().thenCompose(this::finishMoves).thenAccept(loaded -> {
+            emailFilter = buildEmailFilter(loaded);
+            indexAll(current.get(), -1);
+            indexAll(loaded, 1);
+            current.set(loaded);
+        }));
+    }
+
+    private UserSnapshot publishLoaded(UserSnapshot loaded) {
+        emailFilter = buildEmailFilter(loaded);
+        indexAll(loaded, 1);
+        synchronized (this) {
+            current.set(loaded);
+            stored = null;
+        }
+        return loaded;
+    }
+
+    // What the repository held when first loaded, read once for the load and for other shards'
+    // interrupted moves; the published snapshot once there is one
+    private synchronized CompletableFuture<UserSnapshot> storedAsync() {
+        if (current.get() != null) {
+            return CompletableFuture.completedFuture(current.get());
+        }
+        if (stored != null) {
+            return stored;
+        }
+        CompletableFuture<UserSnapshot> read = readDatabase();
+        stored = read;
+        // May run right away, for a repository that fails synchronously
+        read.whenComplete((loaded, error) -> {
+            if (error != null) {
+                synchronized (this) {
+                    if (stored == read) {
+                        stored = null;
+                    }
+                }
+            }
+        });
+        return read;
+    }
+
+    // Completes or undoes the moves away from this shard that `loaded` still has users marked for
+    private CompletableFuture<UserSnapshot> finishMoves(UserSnapshot loaded) {
+        List<User> leaving = loaded.users().filter(user -> user.getMovingToShard() >= 0).collect(Collectors.toList());
+        if (leaving.isEmpty()) {
+            return CompletableFuture.completedFuture(loaded);
+        }
+        List<CompletableFuture<Boolean>> committed = new ArrayList<>(leaving.size());
+        for (User user : leaving) {
+            int targetNumber = user.getMovingToShard();
+            committed.add(targetNumber >= shards.size() || targetNumber == number
+                    ? CompletableFuture.completedFuture(false)
+                    : shards.get(targetNumber).storedAsync().thenApply(target -> target.getById(user.getId()) != null));
+        }
+        return CompletableFuture.allOf(committed.toArray(new CompletableFuture<?>[0])).thenCompose(ignored -> {
+            UserSnapshot next = loaded;
+            List<User> unmarked = new ArrayList<>();
+            List<String> dropped = new ArrayList<>();
+            for (int i = 0; i < leaving.size(); i++) {
+                User user = leaving.get(i);
+                if (committed.get(i).join()) {
+                    next = next.without(user.getId());
+                    dropped.add(user.getId());
+                } else {
+                    User kept = new User(user);
+                    kept.setMovingToShard(-1);
+                    next = next.with(kept);
+                    unmarked.add(kept);
+                }
+            }
+            UserSnapshot finished = next;
+            return saveDatabase(finished, unmarked, dropped).thenApply(saved -> {
+                if (!saved) {
+                    throw new CompletionException(new IOException("Finishing interrupted moves failed for shard " + number));
+                }
+                return finished;
+            });
+        });
+    }
+
+    /**
+     * Blocking variant of `snapshotAsync`; only waits when the shard is not loaded yet.
+     */
+    UserSnapshot snapshot() throws IOException {
+        return await(snapshotAsync());
+    }
+
+    User getByEmail(String email) throws IOException {
+        return snapshot().getByEmail(email);
+    }
+
+    User getById(String id) throws IOException {
+        return snapshot().getById(id);
+    }
+
+    /**
+     * Returns false only if no user of this shard has the given email. The shard must be loaded.
+     */
+    boolean mightContainEmail(String email) {
+        return emailFilter.mightContain(email);
+    }
+
+    /**
+     * Returns the email filter, or null while the shard is not loaded yet.
+     */
+    BloomFilter getEmailFilter() {
+        return emailFilter;
+    }
+
+    /**
+     * Adds a user whose email and id are not yet present in this shard and saves the shard.
+     * Fails with an IOException if the save fails.
+     */
+    CompletableFuture<Boolean> insert(User user) {
+        return applyBatch(Collections.singletonList(Write.insert(user))).thenApply(applied -> applied[0]);
+    }
+
+    /**
+     * Replaces a user already stored in this shard, keyed by id, and saves the shard.
+     * Completes with false if the (possibly changed) email belongs to another user, and fails with
+     * an IOException if the save fails.
+     */
+    CompletableFuture<Boolean> replace(User user) {
+        return applyBatch(Collections.singletonList(Write.replace(user))).thenApply(applied -> applied[0]);
+    }
+
+    /**
+     * Applies several writes as one new snapshot and a single save. Each write is checked against the
+     * snapshot built so far, so the batch behaves like the same writes applied one after another.
+     * Completes with, per write, whether it was applied; fails with an IOException if the save fails.
+     */
+    CompletableFuture<boolean[]> applyBatch(List<Write> writes) {
+        return snapshotAsync().thenCompose(loaded -> enqueueWrite(() -> {
+            boolean[] applied = new boolean[writes.size()];
+            UserSnapshot next = current.get();
+            List<User> written = new ArrayList<>(writes.size());
+            for (int i = 0; i < writes.size(); i++) {
+                Write write = writes.get(i);
+                User user = write.user;
+                applied[i] = write.insert
+                        ? next.getByEmail(user.getEmail()) == null && next.getById(user.getId()) == null
+                        : next.getById(user.getId()) != null && canTakeEmail(next, user);
+                if (applied[i]) {
+                    next = next.with(user);
+                    written.add(user);
+                }
+            }
+            if (written.isEmpty()) {
+                return CompletableFuture.completedFuture(applied);
+            }
+            return publish(next, written, Collections.emptyList()).thenApply(saved -> {
+                if (!saved) {
+                    throw new CompletionException(new IOException("Database save failed for shard " + number));
+                }
+                return applied;
+            });
+        }));
+    }
+
+    /**
+     * Rewrites every user matching `filter` with `change`, as one new snapshot and a single save.
+     * Runs in the write queue against the latest snapshot, so no concurrent write is lost; matching
+     * users are changed in parallel. `change` gets a copy, returns null to leave a user as it is,
+     * and must keep the email. Completes with the changed users; fails with an IOException if the
+     * save fails.
+     */
+    CompletableFuture<List<User>> updateWhere(Predicate<User> filter, UnaryOperator<User> change) {
+        return snapshotAsync().thenCompose(loaded -> enqueueWrite(() -> {
+            UserSnapshot previous = current.get();
+            List<User> changed = previous.users()
+                    .parallel()
+                    .filter(filter)
+                    .map(user -> change.apply(new User(user)))
+                    .filter(user -> user != null)
+                    .collect(Collectors.toList());
+            if (changed.isEmpty()) {
+                return CompletableFuture.completedFuture(changed);
+            }
+            UserSnapshot next = previous;
+            for (User user : changed) {
+                next = next.with(user);
+            }
+            return publish(next, changed, Collections.emptyList()).thenApply(saved -> {
+                if (!saved) {
+                    throw new CompletionException(new IOException("Database save failed for shard " + number));
+                }
+                return changed;
+            });
+        }));
+    }
+
+    /**
+     * Moves a user from `source` to `target` after an email change re-routed it.
+     * The write queues of both shards are entered in shard order, so concurrent moves cannot deadlock.
+     * Readers may briefly observe the user in neither or both shards between the two swaps, but
+     * never a half-written one. Completes with true once the target save committed the move, and
+     * fails with an IOException if a save failed before that.
+     */
+    static CompletableFuture<Boolean> move(UserShard source, UserShard target, User user) {
+        UserShard first = source.number < target.number ? source : target;
+        UserShard second = first == source ? target : source;
+        return CompletableFuture.allOf(source.snapshotAsync(), target.snapshotAsync())
+                .thenCompose(ignored -> first.enqueueWrite(() -> second.enqueueWrite(() -> {
+                    UserSnapshot sourceSnapshot = source.current.get();
+                    UserSnapshot targetSnapshot = target.current.get();
+                    if (sourceSnapshot.getById(user.getId()) == null || !canTakeEmail(targetSnapshot, user)) {
+                        return CompletableFuture.completedFuture(false);
+                    }
+                    User previous = sourceSnapshot.getById(user.getId());
+                    User leaving = new User(previous);
+                    leaving.setMovingToShard(target.number);
+                    UserSnapshot nextTarget = targetSnapshot.with(user);
+                    UserSnapshot nextSource = sourceSnapshot.without(user.getId());
+                    List<String> movedId = Collections.singletonList(user.getId());
+                    List<String> none = Collections.emptyList();
+                    IOException saveFailed = new IOException("Moving user " + user.getId() + " from shard "
+                            + source.number + " to shard " + target.number + " failed");
+                    return source.saveDatabase(sourceSnapshot.with(leaving), Collections.singletonList(leaving), none)
+                            .thenCompose(marked -> !marked
+                                    ? CompletableFuture.<Boolean>failedFuture(saveFailed)
+                                    : target.saveDatabase(nextTarget, Collections.singletonList(user), none))
+                            .thenCompose(targetSaved -> {
+                                if (!targetSaved) {
+                                    // If unmarking fails too, the next load finds the move uncommitted
+                                    return source.saveDatabase(sourceSnapshot, Collections.singletonList(previous), none)
+                                            .thenCompose(restored -> CompletableFuture.<Boolean>failedFuture(saveFailed));
+                                }
+                                return source.saveDatabase(nextSource, Collections.emptyList(), movedId).thenApply(sourceSaved -> {
+                                    if (!sourceSaved) {
+                                        // Retried by the next save; until then a load completes the move
+                                        source.unsavedRemovals.add(user.getId());
+                                    }
+                                    target.recordEmail(nextTarget, user.getEmail());
+                                    // Unindexed first, as the new version may share terms with the old one
+                                    source.indexReplaced(previous, null);
+                                    target.indexReplaced(null, user);
+                                    target.current.set(nextTarget);
+                                    source.current.set(nextSource);
+                                    return true;
+                                });
+                            });
+                })));
+    }
+
+    // Runs write operations of this shard one after another: each starts once the previous one's future completed
+    private synchronized <T> CompletableFuture<T> enqueueWrite(Supplier<CompletableFuture<T>> operation) {
+        CompletableFuture<T> result = lastWrite.thenCompose(ignored -> operation.get());
+        lastWrite = result.handle((value, error) -> null);
+        return result;
+    }
+
+    private CompletableFuture<UserSnapshot> readDatabase() {
+        long startNanos = System.nanoTime();
+        return repository.loadAll().thenApply(users -> {
+            UserSnapshot snapshot = UserSnapshot.EMPTY;
+            for (User user : users) {
+                snapshot = snapshot.with(user);
+            }
+            metrics.recordLatency(READ_DATABASE_METRIC, System.nanoTime() - startNanos);
+            return snapshot;
+        });
+    }
+
+    private BloomFilter buildEmailFilter(UserSnapshot snapshot) {
+        BloomFilter filter = new BloomFilter(
+                Math.max(expectedUsers, 2L * snapshot.size()), emailFilterFalsePositiveRate);
+        snapshot.users().forEach(user -> filter.put(user.getEmail()));
+        return filter;
+    }
+
+    // Must be called from a queued write, before `next` is published
+    private void recordEmail(UserSnapshot next, String email) {
+        BloomFilter filter = emailFilter;
+        if (filter.getInsertions() >= filter.getExpectedInsertions()) {
+            emailFilter = buildEmailFilter(next);
+        } else {
+            filter.put(email);
+        }
+    }
+
+    private void indexReplaced(User previous, User next) {
+        aggregates.replaced(previous, next);
+        searchIndex.replaced(previous, next);
+    }
+
+    // Counts a whole snapshot in (or out, with `sign` -1)
+    private void indexAll(UserSnapshot snapshot, int sign) {
+        aggregates.addAll(snapshot.users(), sign);
+        searchIndex.addAll(snapshot.users(), sign);
+    }
+
+    // Must be called from a queued write
+    private CompletableFuture<Boolean> publish(UserSnapshot next, List<User> written, List<String> removedIds) {
+        return saveDatabase(next, written, removedIds).thenApply(saved -> {
+            if (saved) {
+                UserSnapshot previous = current.get();
+                Set<String> changedIds = new HashSet<>(removedIds);
+                for (User user : written) {
+                    recordEmail(next, user.getEmail());
+                    changedIds.add(user.getId());
+                }
+                // By id, as a batch may write the same user more than once
+                for (String id : changedIds) {
+                    indexReplaced(previous.getById(id), next.getById(id));
+                }
+                current.set(next);
+            }
+            return saved;
+        });
+    }
+
+    // Must be called from a queued write; completes with false if the save failed
+    private CompletableFuture<Boolean> saveDatabase(UserSnapshot snapshot, List<User> upserted, List<String> removedIds) {
+        long startNanos = System.nanoTime();
+        List<String> removed = removedIds;
+        if (!unsavedRemovals.isEmpty()) {
+            removed = new ArrayList<>(removedIds);
+            for (String id : unsavedRemovals) {
+                if (snapshot.getById(id) == null && !removed.contains(id)) {
+                    removed.add(id);
+                }
+            }
+        }
+        CompletableFuture<Void> saved;
+        try {
+            saved = repository.save(upserted, removed, () -> snapshot.users().iterator());
+        } catch (RuntimeException e) {
+            saved = CompletableFuture.failedFuture(e);
+        }
+        return saved.handle((ignored, error) -> {
+            metrics.recordLatency(SAVE_DATABASE_METRIC, System.nanoTime() - startNanos);
+            if (error != null) {
+                System.err.println("Database save failed for shard " + number + ": " + error.getMessage());
+                return false;
+            }
+            unsavedRemovals.clear();
+            return true;
+        });
+    }
+
+    // Unwraps the IOException a failed shard future carries
+    static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static boolean canTakeEmail(UserSnapshot snapshot, User user) {
+        User owner = snapshot.getByEmail(user.getEmail());
+        return owner == null || owner.getId().equals(user.getId());
+    }
+
+    /**
+     * An insert of a new user or a replacement of an existing one, as passed to `applyBatch`.
+     */
+    static final class Write {
+        private final User user;
+        private final boolean insert;
+
+        private Write(User user, boolean insert) {
+            this.user = user;
+            this.insert = insert;
+        }
+
+        static Write insert(User user) {
+            return new Write(user, true);
+        }
+
+        static Write replace(User user) {
+            return new Write(user, false);
+        }
+
+        User getUser() {
+            return user;
+        }
+
+        boolean isInsert() {
+            return insert;
+        }
+    }
+}
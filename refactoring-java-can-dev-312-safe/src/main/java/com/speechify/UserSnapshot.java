@@ -0,0 +1,57 @@
+package com.speechify;
+
+import java.util.stream.Stream;
+
+/**
+ * Immutable, point-in-time view of the users of one shard, indexed by id and by email.
+ *
+ * Writers derive the next version with `with`/`without`; both return a new snapshot that shares
+ * all untouched structure with this one, so readers holding an older snapshot are never affected.
+ */
+final class UserSnapshot {
+    static final UserSnapshot EMPTY = new UserSnapshot(PersistentMap.empty(), PersistentMap.empty());
+
+    private final PersistentMap<User> usersById;
+    private final PersistentMap<User> usersByEmail;
+
+    private UserSnapshot(PersistentMap<User> usersById, PersistentMap<User> usersByEmail) {
+        this.usersById = usersById;
+        this.usersByEmail = usersByEmail;
+    }
+
+    User getById(String id) {
+        return id == null ? null : usersById.get(id);
+    }
+
+    User getByEmail(String email) {
+        return email == null ? null : usersByEmail.get(email);
+    }
+
+    int size() {
+        return usersById.size();
+    }
+
+    Stream<User> users() {
+        return usersById.values();
+    }
+
+    /**
+     * Returns a snapshot in which `user` replaces any user with the same id.
+     */
+    UserSnapshot with(User user) {
+        PersistentMap<User> byEmail = usersByEmail;
+        User previous = usersById.get(user.getId());
+        if (previous != null) {
+            byEmail = byEmail.minus(previous.getEmail());
+        }
+        return new UserSnapshot(usersById.plus(user.getId(), user), byEmail.plus(user.getEmail(), user));
+    }
+
+    UserSnapshot without(String id) {
+        User previous = usersById.get(id);
+        if (previous == null) {
+            return this;
+        }
+        return new UserSnapshot(usersById.minus(id), usersByEmail.minus(previous.getEmail()));
+    }
+}
@@ -0,0 +1,228 @@
+package com.speechify;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.zip.CRC32C;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * UserRepository backed by an append-only write-ahead log. A save appends one record per changed
+ * user and fsyncs, so its cost depends on the size of the change rather than of the shard.
+ *
+ * Each record is a line `<crc32c> <json>` holding either `{"put":{user}}` or `{"remove":"id"}`;
+ * loading replays the log. A torn or damaged tail (from a crash mid-append) fails its checksum, is
+ * ignored and truncated away. Once the log holds more than twice as many records as there were
+ * users at the last load or compaction (and at least `minRecordsToCompact`), the next save
+ * rewrites it atomically as one put per user.
+ */
+public class WalUserRepository implements UserRepository {
+    private static final int DEFAULT_MIN_RECORDS_TO_COMPACT = 1024;
+    private static final int CHECKSUM_DIGITS = 8;
+
+    private final Path file;
+    private final FileStore fileStore;
+    private final int minRecordsToCompact;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    // The fields below are only touched by loadAll and save, which never overlap
+    private AsynchronousFileChannel channel;
+    private long appendPosition;
+    private long records;
+    private long liveUsers;
+
+    public WalUserRepository(Path file) {
+        this(file, new AsyncFileStore(), DEFAULT_MIN_RECORDS_TO_COMPACT);
+    }
+
+    public WalUserRepository(Path file, FileStore fileStore, int minRecordsToCompact) {
+        this.file = file;
+        this.fileStore = fileStore;
+        this.minRecordsToCompact = minRecordsToCompact;
+    }
+
+    @Override
+    public CompletableFuture<List<User>> loadAll() {
+        return fileStore.read(file).thenApplyAsync(data -> {
+            Map<String, User> usersById = new LinkedHashMap<>();
+            appendPosition = data == null ? 0 : replay(data, usersById);
+            liveUsers = usersById.size();
+            if (data != null && appendPosition < data.length) {
+                System.err.println("Ignoring " + (data.length - appendPosition) + " damaged trailing bytes of " + file);
+                truncate(appendPosition);
+            }
+            return new ArrayList<>(usersById.values());
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> save(List<User> upserted, List<String> removedIds, Iterable<User> allUsers) {
+        long pendingRecords = records + upserted.size() + removedIds.size();
+        if (pendingRecords >= minRecordsToCompact && pendingRecords > 2 * liveUsers) {
+            return compact(allUsers);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (User user : upserted) {
+            writeRecord(out, JsonNodeFactory.instance.objectNode().set("put", UserJson.toStoredNode(user)));
+        }
+        for (String id : removedIds) {
+            writeRecord(out, JsonNodeFactory.instance.objectNode().put("remove", id));
+        }
+        return append(ByteBuffer.wrap(out.toByteArray())).thenRun(() -> records = pendingRecords);
+    }
+
+    private CompletableFuture<Void> compact(Iterable<User> allUsers) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long userCount = 0;
+        for (User user : allUsers) {
+            writeRecord(out, JsonNodeFactory.instance.objectNode().set("put", UserJson.toStoredNode(user)));
+            userCount++;
+        }
+        long compactedRecords = userCount;
+        byte[] data = out.toByteArray();
+        // The rename replaces the file under the open channel, which must be reopened
+        closeChannel();
+        return fileStore.write(file, data).thenRun(() -> {
+            appendPosition = data.length;
+            records = compactedRecords;
+            liveUsers = compactedRecords;
+        });
+    }
+
+    // Returns the length of the valid prefix of the log
+    private long replay(byte[] data, Map<String, User> usersById) {
+        int lineStart = 0;
+        records = 0;
+        while (lineStart < data.length) {
+            int lineEnd = indexOf(data, (byte) '\n', lineStart);
+            if (lineEnd < 0 || lineEnd - lineStart <= CHECKSUM_DIGITS + 1) {
+                return lineStart;
+            }
+            try {
+                long expected = Long.parseLong(new String(data, lineStart, CHECKSUM_DIGITS, StandardCharsets.US_ASCII), 16);
+                int jsonStart = lineStart + CHECKSUM_DIGITS + 1;
+                if (checksum(data, jsonStart, lineEnd - jsonStart) != expected) {
+                    return lineStart;
+                }
+                JsonNode record = objectMapper.readTree(data, jsonStart, lineEnd - jsonStart);
+                if (record.has("put")) {
+                    User user = UserJson.fromStoredNode(record.get("put"));
+                    usersById.put(user.getId(), user);
+                } else {
+                    usersById.remove(record.path("remove").asText());
+                }
+            } catch (IOException | NumberFormatException e) {
+                return lineStart;
+            }
+            records++;
+            lineStart = lineEnd + 1;
+        }
+        return lineStart;
+    }
+
+    private void writeRecord(ByteArrayOutputStream out, ObjectNode record) {
+        byte[] json;
+        try {
+            json = objectMapper.writeValueAsBytes(record);
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+        out.writeBytes(String.format("%08x ", checksum(json, 0, json.length)).getBytes(StandardCharsets.US_ASCII));
+        out.writeBytes(json);
+        out.write('\n');
+    }
+
+    private CompletableFuture<Void> append(ByteBuffer buffer) {
+        CompletableFuture<Void> appended = new CompletableFuture<>();
+        try {
+            if (channel == null) {
+                channel = AsynchronousFileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+            }
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        long start = appendPosition;
+        writeFully(buffer, appended);
+        // A failed append is overwritten by the next one rather than left as a torn record in the middle
+        return appended.whenComplete((ignored, error) -> {
+            if (error != null) {
+                appendPosition = start;
+            }
+        });
+    }
+
+    private void writeFully(ByteBuffer buffer, CompletableFuture<Void> appended) {
+        channel.write(buffer, appendPosition, null, new CompletionHandler<Integer, Void>() {
+            @Override
+            public void completed(Integer bytesWritten, Void attachment) {
+                appendPosition += bytesWritten;
+                if (buffer.hasRemaining()) {
+                    writeFully(buffer, appended);
+                    return;
+                }
+                try {
+                    // Flushes the data and the file length needed to read it back
+                    channel.force(false);
+                    appended.complete(null);
+                } catch (IOException e) {
+                    appended.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public void failed(Throwable error, Void attachment) {
+                appended.completeExceptionally(error);
+            }
+        });
+    }
+
+    private void truncate(long length) {
+        try (FileChannel truncated = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            truncated.truncate(length);
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private void closeChannel() {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Closing write-ahead log failed: " + e.getMessage());
+        }
+        channel = null;
+    }
+
+    private static int indexOf(byte[] data, byte value, int from) {
+        for (int i = from; i < data.length; i++) {
+            if (data[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static long checksum(byte[] data, int offset, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(data, offset, length);
+        return crc.getValue();
+    }
+}
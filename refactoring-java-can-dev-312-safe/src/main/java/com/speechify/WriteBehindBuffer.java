@@ -0,0 +1,126 @@
+package com.speechify;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Buffer of dirty users for write-behind updates, built on an LRUCache keyed by user id.
+ *
+ * Repeated updates of the same user overwrite its buffered version, so a burst of updates costs a
+ * single write. Buffered users are handed to the flusher in batches: the least recently updated one
+ * as soon as it is evicted to make room, and all of them every `flushInterval` or on `flush()`.
+ * `close()` stops the timer and hands over what is left.
+ */
+class WriteBehindBuffer {
+    private static final String THREAD_NAME = "user-write-behind";
+
+    private final LRUCache<User> dirty;
+    private final Function<List<User>, CompletableFuture<Void>> flusher;
+    private final ScheduledExecutorService timer;
+    // Flushes handed to the flusher that have not completed yet
+    private final Set<CompletableFuture<Void>> flushing = ConcurrentHashMap.newKeySet();
+    // The fields below are guarded by this
+    private final Set<String> dirtyIds = new LinkedHashSet<>();
+    private final List<User> evicted = new ArrayList<>();
+    private long coalesced;
+
+    WriteBehindBuffer(int capacity, Duration flushInterval, Function<List<User>, CompletableFuture<Void>> flusher) {
+        this.flusher = flusher;
+        this.dirty = LRUCacheProvider.createLRUCache(new CacheLimits(capacity), (id, user, cause) -> {
+            // Called from `dirty.set`, so with this buffer locked
+            if (cause == RemovalCause.EVICTED) {
+                evicted.add(user);
+                dirtyIds.remove(id);
+            }
+        });
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, THREAD_NAME);
+            thread.setDaemon(true);
+            return thread;
+        });
+        long intervalNanos = flushInterval.toNanos();
+        timer.scheduleWithFixedDelay(this::flush, intervalNanos, intervalNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Buffers the latest version of a user. Completes once whatever this evicted was flushed, which
+     * slows callers down to the speed of storage when the buffer is full.
+     */
+    CompletableFuture<Void> add(User user) {
+        List<User> toFlush;
+        synchronized (this) {
+            if (!dirtyIds.add(user.getId())) {
+                coalesced++;
+            }
+            dirty.set(user.getId(), user);
+            toFlush = new ArrayList<>(evicted);
+            evicted.clear();
+        }
+        return toFlush.isEmpty() ? CompletableFuture.completedFuture(null) : handOver(toFlush);
+    }
+
+    /**
+     * Drops the buffered version of a user, e.g. because a newer one is written directly.
+     */
+    synchronized void discard(String id) {
+        if (dirtyIds.remove(id)) {
+            dirty.invalidate(id);
+        }
+    }
+
+    /**
+     * Hands all buffered users to the flusher; completes when they were written.
+     */
+    CompletableFuture<Void> flush() {
+        List<User> drained;
+        synchronized (this) {
+            // Every entry left in `dirty` is a buffered update
+            drained = new ArrayList<>(dirty.getAll(dirtyIds).values());
+            dirty.invalidateAll(id -> true);
+            dirtyIds.clear();
+        }
+        return drained.isEmpty() ? CompletableFuture.completedFuture(null) : handOver(drained);
+    }
+
+    /**
+     * Stops the flush timer and flushes the buffered users; completes when they and every flush
+     * still running were written. Users added afterwards are only written on `flush()`.
+     */
+    CompletableFuture<Void> close() {
+        timer.shutdown();
+        try {
+            timer.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        return CompletableFuture.allOf(flushing.toArray(new CompletableFuture<?>[0]));
+    }
+
+    synchronized int size() {
+        return dirtyIds.size();
+    }
+
+    /**
+     * Number of updates that replaced a still buffered version of the same user.
+     */
+    synchronized long getCoalesced() {
+        return coalesced;
+    }
+
+    private CompletableFuture<Void> handOver(List<User> users) {
+        CompletableFuture<Void> flushed = flusher.apply(users);
+        flushing.add(flushed);
+        flushed.whenComplete((ignored, error) -> flushing.remove(flushed));
+        return flushed;
+    }
+}
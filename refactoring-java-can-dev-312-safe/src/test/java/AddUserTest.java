@@ -0,0 +1,130 @@
+import com.speechify.Client;
+import com.speechify.ClientRepository;
+import com.speechify.InMemoryClientRepository;
+import com.speechify.InMemoryUserRepository;
+import com.speechify.User;
+import com.speechify.UserCommand;
+import com.speechify.UserRepository;
+import com.speechify.UserRepositoryFactory;
+import com.speechify.UserService;
+import com.speechify.UserServiceOptions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AddUserTest {
+    private static final Client CLIENT = new Client("c1", "Client");
+    private static final LocalDate ADULT = LocalDate.of(1980, 1, 1);
+
+    @Test
+    public void invalidInputAndUnknownClientsShouldBeRejected() {
+        UserService service = newService(new InMemoryClientRepository(List.of(CLIENT)),
+                (shard, count) -> new InMemoryUserRepository());
+        assertFalse(service.addUser(null, "Last", "a@example.com", ADULT, CLIENT.getId()).join());
+        assertFalse(service.addUser("First", "Last", null, ADULT, CLIENT.getId()).join());
+        assertFalse(service.addUser("First", "Last", "a@example.com", null, CLIENT.getId()).join());
+        assertFalse(service.addUser("First", "Last", "a@example.com", LocalDate.now().minusYears(5), CLIENT.getId()).join());
+        assertFalse(service.addUser("First", "Last", "a@example.com", ADULT, "unknown").join());
+        assertTrue(service.getAllUsers().join().isEmpty());
+
+        assertTrue(service.addUser("First", "Last", "a@example.com", ADULT, CLIENT.getId()).join());
+        assertFalse(service.addUser("Other", "Last", "a@example.com", ADULT, CLIENT.getId()).join());
+    }
+
+    @Test
+    public void concurrentAddsOfTheSameEmailShouldStoreOneUser() {
+        UserService service = newService(new InMemoryClientRepository(List.of(CLIENT)),
+                (shard, count) -> new InMemoryUserRepository());
+        List<CompletableFuture<Boolean>> adds = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            adds.add(service.addUser("First" + i, "Last", "same@example.com", ADULT, CLIENT.getId()));
+        }
+        assertEquals(1, adds.stream().filter(CompletableFuture::join).count());
+        assertEquals(1, service.getAllUsers().join().size());
+    }
+
+    @Test
+    public void commandsOfABatchShouldBeValidatedAgainstTheUsersStoredBeforeIt() {
+        UserService service = newService(new InMemoryClientRepository(List.of(CLIENT)),
+                (shard, count) -> new InMemoryUserRepository());
+        User sameEmail = new User("new", CLIENT, ADULT, "a@example.com", "Changed", "Last", false, 0.0);
+        List<Boolean> results = service.applyCommands(List.of(
+                UserCommand.add("First", "Last", "a@example.com", ADULT, CLIENT.getId()),
+                UserCommand.update(sameEmail),
+                UserCommand.add("Second", "Last", "a@example.com", ADULT, CLIENT.getId()))).join();
+
+        // The update does not see the add before it; the second add is checked against the first
+        assertEquals(List.of(true, false, false), results);
+        assertEquals("First", service.getUserByEmail("a@example.com").join().getFirstname());
+    }
+
+    @Test
+    public void addShouldWaitForTheClientWithoutBlockingAndStoreTheUser() {
+        CompletableFuture<Client> client = new CompletableFuture<>();
+        UserService service = newService(new FixedClientRepository(client),
+                (shard, count) -> new InMemoryUserRepository());
+
+        CompletableFuture<Boolean> added = service.addUser("First", "Last", "a@example.com", ADULT, CLIENT.getId());
+        // Validation and the uniqueness check are done; only the client is missing
+        assertFalse(added.isDone());
+        client.complete(CLIENT);
+        assertTrue(added.join());
+        User user = service.getUserByEmail("a@example.com").join();
+        assertEquals(CLIENT.getId(), user.getClient().getId());
+    }
+
+    @Test
+    public void failingLookupsShouldCompleteWithFalse() {
+        UserService noClient = newService(new FixedClientRepository(
+                CompletableFuture.failedFuture(new IOException("Client store down"))),
+                (shard, count) -> new InMemoryUserRepository());
+        assertFalse(noClient.addUser("First", "Last", "a@example.com", ADULT, CLIENT.getId()).join());
+
+        UserService noUsers = newService(new InMemoryClientRepository(List.of(CLIENT)), (shard, count) -> new UserRepository() {
+            @Override
+            public CompletableFuture<List<User>> loadAll() {
+                return CompletableFuture.failedFuture(new IOException("User store down"));
+            }
+
+            @Override
+            public CompletableFuture<Void> save(List<User> upserted, List<String> removedIds, Iterable<User> allUsers) {
+                return CompletableFuture.completedFuture(null);
+            }
+        });
+        assertFalse(noUsers.addUser("First", "Last", "a@example.com", ADULT, CLIENT.getId()).join());
+    }
+
+    private static UserService newService(ClientRepository clients, UserRepositoryFactory users) {
+        UserServiceOptions options = new UserServiceOptions();
+        options.setClientRepository(clients);
+        options.setUserRepositoryFactory(users);
+        return new UserService(options);
+    }
+
+    // Answers every lookup with the same future
+    private static final class FixedClientRepository implements ClientRepository {
+        private final CompletableFuture<Client> client;
+
+        private FixedClientRepository(CompletableFuture<Client> client) {
+            this.client = client;
+        }
+
+        @Override
+        public CompletableFuture<Client> getById(String id) {
+            return client;
+        }
+
+        @Override
+        public CompletableFuture<List<Client>> getAll() {
+            return client.thenApply(List::of);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+import com.speechify.BlockingFileStore;
+import com.speechify.CacheLimits;
+import com.speechify.CacheSnapshots;
+import com.speechify.Client;
+import com.speechify.FileStore;
+import com.speechify.InMemoryClientRepository;
+import com.speechify.LRUCache;
+import com.speechify.LRUCacheProvider;
+import com.speechify.UserService;
+import com.speechify.UserServiceOptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CacheSnapshotsTest {
+    private static final Client CLIENT = new Client("c1", "Client");
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void snapshotShouldKeepKeysInRecencyOrder() {
+        FileStore fileStore = new BlockingFileStore();
+        LRUCache<String> cache = LRUCacheProvider.createLRUCache(new CacheLimits(3));
+        cache.set("a", "1");
+        cache.set("b", "2");
+        cache.set("c", "3");
+        cache.get("a");
+        cache.set("d", "4");
+
+        Path file = tempDir.resolve("cache.json");
+        CacheSnapshots.save(cache, null, file, fileStore).join();
+        assertEquals(List.of("d", "a", "c"), CacheSnapshots.loadKeys(file, fileStore).join());
+        assertEquals(List.of(), CacheSnapshots.loadKeys(tempDir.resolve("missing.json"), fileStore).join());
+    }
+
+    @Test
+    public void warmUpShouldBoundLoadsInFlight() {
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            keys.add("key-" + i);
+        }
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        int loaded = CacheSnapshots.warmUp(keys, key -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            return CompletableFuture.supplyAsync(() -> {
+                inFlight.decrementAndGet();
+                return key.endsWith("7") ? null : key;
+            });
+        }, 3).join();
+
+        assertEquals(18, loaded);
+        assertTrue(maxInFlight.get() <= 3);
+    }
+
+    @Test
+    public void restartedServiceShouldWarmUpFromSnapshot() {
+        UserService service = newService();
+        for (int i = 0; i < 5; i++) {
+            assertTrue(service.addUser("First" + i, "Last", "user" + i + "@example.com",
+                    LocalDate.of(1980, 1, 1), CLIENT.getId()).join());
+            service.getUserByEmail("user" + i + "@example.com").join();
+        }
+        service.saveCacheSnapshots().join();
+
+        assertEquals(5, newService().getWarmUp().join());
+    }
+
+    private UserService newService() {
+        UserServiceOptions options = new UserServiceOptions();
+        options.setDataDirectory(tempDir);
+        options.setClientRepository(new InMemoryClientRepository(List.of(CLIENT)));
+        options.setCacheSnapshotDirectory(tempDir);
+        options.setWarmUpParallelism(2);
+        return new UserService(options);
+    }
+}
@@ -0,0 +1,118 @@
+import com.speechify.ChangeFeed;
+import com.speechify.Client;
+import com.speechify.InMemoryClientRepository;
+import com.speechify.User;
+import com.speechify.UserChange;
+import com.speechify.UserService;
+import com.speechify.UserServiceOptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ChangeFeedTest {
+    private static final Client CLIENT = new Client("c1", "Client");
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void consumerShouldFollowAddsAndUpdatesInOrder() throws Exception {
+        UserService service = newService(10);
+        ChangeFeed feed = service.getChangeFeed();
+        CompletableFuture<ChangeFeed.Page> next = feed.await(0, 10);
+        assertFalse(next.isDone());
+
+        assertTrue(service.addUser("First", "Last", "first@example.com", LocalDate.of(1980, 1, 1), CLIENT.getId()).join());
+        assertEquals(List.of("first@example.com"), emails(next.get(5, TimeUnit.SECONDS)));
+
+        assertTrue(service.addUser("Second", "Last", "second@example.com", LocalDate.of(1980, 1, 1), CLIENT.getId()).join());
+        User user = service.getUserByEmail("first@example.com").join();
+        user.setSurname("Changed");
+        assertTrue(service.updateUser(user).join());
+
+        ChangeFeed.Page page = feed.read(1, 10);
+        assertTrue(page.isComplete());
+        assertEquals(3, page.getLastSequence());
+        assertEquals(List.of(UserChange.Type.ADDED, UserChange.Type.UPDATED),
+                page.getChanges().stream().map(UserChange::getType).collect(Collectors.toList()));
+        assertEquals("Changed", page.getChanges().get(1).getUser().getSurname());
+        assertTrue(feed.read(3, 10).getChanges().isEmpty());
+    }
+
+    @Test
+    public void consumerThatFellBehindShouldBeToldToResynchronize() {
+        UserService service = newService(2);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(service.addUser("First", "Last", "user" + i + "@example.com",
+                    LocalDate.of(1980, 1, 1), CLIENT.getId()).join());
+        }
+        ChangeFeed feed = service.getChangeFeed();
+
+        assertFalse(feed.read(0, 10).isComplete());
+        assertTrue(feed.read(1, 10).isComplete());
+        assertEquals(List.of("user2@example.com"), emails(feed.read(2, 10)));
+    }
+
+    @Test
+    public void timedOutAndCancelledWaitsShouldBeDropped() {
+        ChangeFeed feed = newService(10).getChangeFeed();
+        CompletableFuture<ChangeFeed.Page> timedOut = feed.await(0, 10);
+        CompletableFuture<ChangeFeed.Page> cancelled = feed.await(0, 10);
+        CompletableFuture<ChangeFeed.Page> waiting = feed.await(0, 10);
+        assertEquals(3, feed.getWaitingCount());
+
+        // As orTimeout would, from this thread so the waiter is dropped before the count is read
+        timedOut.completeExceptionally(new TimeoutException());
+        cancelled.cancel(false);
+        assertEquals(1, feed.getWaitingCount());
+        assertFalse(waiting.isDone());
+    }
+
+    @Test
+    public void sequencesShouldContinueAcrossRestartsWithLogFile() {
+        Path log = tempDir.resolve("changes.log");
+        UserServiceOptions options = options(2);
+        options.setChangeLogFile(log);
+        UserService first = new UserService(options);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(first.addUser("First", "Last", "user" + i + "@example.com",
+                    LocalDate.of(1980, 1, 1), CLIENT.getId()).join());
+        }
+        first.close();
+        // Still retained by the closed service's feed, but no longer logged
+        assertTrue(first.addUser("First", "Last", "late@example.com", LocalDate.of(1980, 1, 1), CLIENT.getId()).join());
+        assertEquals(6, first.getChangeFeed().getLatestSequence());
+
+        ChangeFeed reopened = new ChangeFeed(2, log);
+        assertEquals(5, reopened.getLatestSequence());
+        assertEquals(List.of("user4@example.com"), emails(reopened.read(4, 10)));
+        assertFalse(reopened.read(2, 10).isComplete());
+    }
+
+    private UserService newService(int feedCapacity) {
+        return new UserService(options(feedCapacity));
+    }
+
+    private UserServiceOptions options(int feedCapacity) {
+        UserServiceOptions options = new UserServiceOptions();
+        options.setDataDirectory(tempDir);
+        options.setClientRepository(new InMemoryClientRepository(List.of(CLIENT)));
+        options.setChangeFeedCapacity(feedCapacity);
+        return options;
+    }
+
+    private static List<String> emails(ChangeFeed.Page page) {
+        return page.getChanges().stream().map(change -> change.getUser().getEmail()).collect(Collectors.toList());
+    }
+}
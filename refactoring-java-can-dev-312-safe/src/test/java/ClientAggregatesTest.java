@@ -0,0 +1,64 @@
+import com.speechify.Client;
+import com.speechify.ClientAggregates;
+import com.speechify.InMemoryClientRepository;
+import com.speechify.User;
+import com.speechify.UserService;
+import com.speechify.UserServiceOptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ClientAggregatesTest {
+    private static final Client CLIENT = new Client("c1", "Client");
+    private static final Client IMPORTANT_CLIENT = new Client("c2", "ImportantClient");
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void aggregatesShouldFollowWritesAndMatchRebuild() {
+        UserServiceOptions options = new UserServiceOptions();
+        options.setDataDirectory(tempDir);
+        options.setShardCount(4);
+        options.setClientRepository(new InMemoryClientRepository(List.of(CLIENT, IMPORTANT_CLIENT)));
+        UserService service = new UserService(options);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(service.addUser("First" + i, "Last", "user" + i + "@example.com",
+                    LocalDate.of(1980, 1, 1), i < 6 ? CLIENT.getId() : IMPORTANT_CLIENT.getId()).join());
+        }
+        ClientAggregates aggregates = service.getClientAggregates().join();
+        assertEquals(6, aggregates.getUserCount("c1"));
+        assertEquals(60000.0, aggregates.getTotalCreditLimit("c1"));
+        assertEquals(80000.0, aggregates.getTotalCreditLimit("c2"));
+
+        // Moves the user to another client, email and shard
+        User user = service.getUserByEmail("user0@example.com").join();
+        user.setClient(IMPORTANT_CLIENT);
+        user.setEmail("moved@example.com");
+        user.setCreditLimit(12345.67);
+        assertTrue(service.updateUser(user).join());
+        User unlimited = service.getUserByEmail("user1@example.com").join();
+        unlimited.setHasCreditLimit(false);
+        assertTrue(service.updateUser(unlimited).join());
+
+        ClientAggregates.Totals c1 = aggregates.getTotals("c1");
+        assertEquals(5, c1.getUserCount());
+        assertEquals(1, c1.getUnlimitedUserCount());
+        assertEquals(40000.0, c1.getTotalCreditLimit());
+        assertEquals(5, aggregates.getUserCount("c2"));
+        assertEquals(92345.67, aggregates.getTotalCreditLimit("c2"), 1e-9);
+
+        ClientAggregates rebuilt = new UserService(options).getClientAggregates().join();
+        assertEquals(aggregates.getAllTotals().keySet(), rebuilt.getAllTotals().keySet());
+        for (String clientId : List.of("c1", "c2")) {
+            assertEquals(aggregates.getUserCount(clientId), rebuilt.getUserCount(clientId));
+            assertEquals(aggregates.getTotalCreditLimit(clientId), rebuilt.getTotalCreditLimit(clientId));
+        }
+    }
+}
@@ -0,0 +1,141 @@
+import com.speechify.Client;
+import com.speechify.ConcurrencyLimiter;
+import com.speechify.InMemoryClientRepository;
+import com.speechify.InMemoryUserRepository;
+import com.speechify.OverloadedException;
+import com.speechify.User;
+import com.speechify.UserCommand;
+import com.speechify.UserService;
+import com.speechify.UserServiceOptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ConcurrencyLimiterTest {
+    private static final long FAST_NANOS = 1_000_000;
+    private static final long SLOW_NANOS = 50_000_000;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void limitShouldShrinkWhenCallsQueueAndReadsShouldHoldBackWrites() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(20, 2, 100);
+        runAtCapacity(limiter, ConcurrencyLimiter.Priority.WRITE, FAST_NANOS, 600);
+        int grown = limiter.getLimit(ConcurrencyLimiter.Priority.WRITE);
+        assertTrue(grown > 20);
+
+        runAtCapacity(limiter, ConcurrencyLimiter.Priority.WRITE, SLOW_NANOS, 20);
+        assertTrue(limiter.getLimit(ConcurrencyLimiter.Priority.WRITE) < grown / 2);
+
+        // Queueing reads pull the write limit down with theirs
+        runAtCapacity(limiter, ConcurrencyLimiter.Priority.READ, FAST_NANOS, 600);
+        runAtCapacity(limiter, ConcurrencyLimiter.Priority.WRITE, FAST_NANOS, 600);
+        int writeLimit = limiter.getLimit(ConcurrencyLimiter.Priority.WRITE);
+        runAtCapacity(limiter, ConcurrencyLimiter.Priority.READ, SLOW_NANOS, 20);
+        assertTrue(limiter.getLimit(ConcurrencyLimiter.Priority.WRITE) < writeLimit);
+    }
+
+    @Test
+    public void serviceShouldRejectCallsBeyondTheLimit() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 2, 2);
+        UserServiceOptions options = new UserServiceOptions();
+        options.setDataDirectory(tempDir);
+        options.setClientRepository(new InMemoryClientRepository(List.of(new Client("c1", "Client"))));
+        options.setConcurrencyLimiter(limiter);
+        UserService service = new UserService(options);
+
+        assertTrue(limiter.tryAcquire(ConcurrencyLimiter.Priority.WRITE));
+        assertTrue(limiter.tryAcquire(ConcurrencyLimiter.Priority.WRITE));
+        CompletionException rejected = assertThrows(CompletionException.class, () -> service.addUser(
+                "First", "Last", "user@example.com", LocalDate.of(1980, 1, 1), "c1").join());
+        assertInstanceOf(OverloadedException.class, rejected.getCause());
+        // Reads have room of their own
+        assertNull(service.getUserByEmail("user@example.com").join());
+
+        limiter.release(ConcurrencyLimiter.Priority.WRITE, FAST_NANOS, true);
+        assertTrue(service.addUser("First", "Last", "user@example.com", LocalDate.of(1980, 1, 1), "c1").join());
+    }
+
+    @Test
+    public void storageFailuresShouldShrinkTheLimitButRefusalsShouldNot() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(20, 2, 100);
+        UserServiceOptions options = new UserServiceOptions();
+        options.setClientRepository(new InMemoryClientRepository(List.of(new Client("c1", "Client"))));
+        options.setUserRepositoryFactory((shard, count) -> new InMemoryUserRepository() {
+            @Override
+            public CompletableFuture<Void> save(List<User> upserted, List<String> removedIds, Iterable<User> allUsers) {
+                return CompletableFuture.failedFuture(new IOException("Disk full"));
+            }
+        });
+        options.setConcurrencyLimiter(limiter);
+        UserService service = new UserService(options);
+
+        assertFalse(service.addUser(null, "Last", "user@example.com", LocalDate.of(1980, 1, 1), "c1").join());
+        assertEquals(20, limiter.getLimit(ConcurrencyLimiter.Priority.WRITE));
+        assertFalse(service.addUser("First", "Last", "user@example.com", LocalDate.of(1980, 1, 1), "c1").join());
+        assertTrue(limiter.getLimit(ConcurrencyLimiter.Priority.WRITE) < 20);
+        assertEquals(0, limiter.getInFlight(ConcurrencyLimiter.Priority.WRITE));
+
+        int writeLimit = limiter.getLimit(ConcurrencyLimiter.Priority.WRITE);
+        assertEquals(List.of(false), service.applyCommands(List.of(
+                UserCommand.add("First", "Last", "user@example.com", LocalDate.of(1980, 1, 1), "c1"))).join());
+        assertTrue(limiter.getLimit(ConcurrencyLimiter.Priority.WRITE) < writeLimit);
+
+        // A retier is a write like any other
+        while (limiter.tryAcquire(ConcurrencyLimiter.Priority.WRITE)) {
+            // Fills the limit
+        }
+        CompletionException rejected = assertThrows(CompletionException.class, () -> service.retierClient("c1").join());
+        assertInstanceOf(OverloadedException.class, rejected.getCause());
+    }
+
+    @Test
+    public void failedReadsShouldShrinkTheReadLimit() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(20, 2, 100);
+        UserServiceOptions options = new UserServiceOptions();
+        options.setClientRepository(new InMemoryClientRepository(List.of(new Client("c1", "Client"))));
+        options.setUserRepositoryFactory((shard, count) -> new InMemoryUserRepository() {
+            @Override
+            public CompletableFuture<List<User>> loadAll() {
+                return CompletableFuture.failedFuture(new IOException("Disk gone"));
+            }
+        });
+        options.setConcurrencyLimiter(limiter);
+        UserService service = new UserService(options);
+
+        assertTrue(service.getAllUsers().join().isEmpty());
+        assertTrue(limiter.getLimit(ConcurrencyLimiter.Priority.READ) < 20);
+        int readLimit = limiter.getLimit(ConcurrencyLimiter.Priority.READ);
+        assertNull(service.getUserByEmail("user@example.com").join());
+        assertTrue(limiter.getLimit(ConcurrencyLimiter.Priority.READ) < readLimit);
+        assertEquals(0, limiter.getInFlight(ConcurrencyLimiter.Priority.READ));
+    }
+
+    // Keeps the limit of `priority` fully used while reporting `samples` calls of the given latency
+    private static void runAtCapacity(ConcurrencyLimiter limiter, ConcurrencyLimiter.Priority priority,
+                                      long latencyNanos, int samples) {
+        for (int i = 0; i < samples; i++) {
+            while (limiter.tryAcquire(priority)) {
+                // Fills the limit
+            }
+            limiter.release(priority, latencyNanos, true);
+        }
+        while (limiter.getInFlight(priority) > 0) {
+            limiter.release(priority, latencyNanos, true);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+import com.speechify.Client;
+import com.speechify.ClientRepository;
+import com.speechify.CreditPolicy;
+import com.speechify.InMemoryClientRepository;
+import com.speechify.InMemoryUserRepository;
+import com.speechify.User;
+import com.speechify.UserService;
+import com.speechify.UserServiceOptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CreditPolicyTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void tierShouldBeCachedUntilInvalidated() {
+        CreditPolicy policy = new CreditPolicy();
+        assertEquals(CreditPolicy.Tier.IMPORTANT, policy.tierOf(new Client("c1", "ImportantClient")));
+        assertEquals(CreditPolicy.Tier.IMPORTANT, policy.tierOf(new Client("c1", "VeryImportantClient")));
+
+        policy.invalidate("c1");
+        assertEquals(CreditPolicy.Tier.VERY_IMPORTANT, policy.tierOf(new Client("c1", "VeryImportantClient")));
+    }
+
+    @Test
+    public void retierClientShouldRecomputeOnlyItsUsers() {
+        // Hands out a fresh Client per lookup, like a repository reading storage
+        Map<String, String> names = new ConcurrentHashMap<>(Map.of("c1", "Client", "c2", "Other"));
+        ClientRepository clients = new ClientRepository() {
+            @Override
+            public CompletableFuture<Client> getById(String id) {
+                String name = names.get(id);
+                return CompletableFuture.completedFuture(name == null ? null : new Client(id, name));
+            }
+
+            @Override
+            public CompletableFuture<List<Client>> getAll() {
+                return CompletableFuture.completedFuture(List.of());
+            }
+        };
+        UserServiceOptions options = new UserServiceOptions();
+        options.setDataDirectory(tempDir);
+        options.setShardCount(4);
+        options.setClientRepository(clients);
+        UserService service = new UserService(options);
+        for (int i = 0; i < 20; i++) {
+            assertTrue(service.addUser("First" + i, "Last", "user" + i + "@example.com",
+                    LocalDate.of(1980, 1, 1), i % 2 == 0 ? "c1" : "c2").join());
+        }
+
+        names.put("c1", "VeryImportantClient");
+        assertEquals(10, service.retierClient("c1").join());
+        assertEquals(0, service.retierClient("c1").join());
+
+        User promoted = service.getUserByEmail("user0@example.com").join();
+        assertFalse(promoted.hasCreditLimit());
+        assertEquals("VeryImportantClient", promoted.getClient().getName());
+        assertTrue(service.getUserByEmail("user1@example.com").join().hasCreditLimit());
+        long unlimited = new UserService(options).getAllUsers().join().stream()
+                .filter(user -> !user.hasCreditLimit())
+                .count();
+        assertEquals(10, unlimited);
+    }
+
+    @Test
+    public void failedRetierShouldFailRatherThanReportNoChange() {
+        AtomicBoolean failing = new AtomicBoolean();
+        UserServiceOptions options = new UserServiceOptions();
+        options.setClientRepository(new InMemoryClientRepository(List.of(new Client("c1", "VeryImportantClient"))));
+        options.setUserRepositoryFactory((shard, count) -> new InMemoryUserRepository() {
+            @Override
+            public CompletableFuture<Void> save(List<User> upserted, List<String> removedIds, Iterable<User> allUsers) {
+                return failing.get()
+                        ? CompletableFuture.failedFuture(new IOException("Disk full"))
+                        : super.save(upserted, removedIds, allUsers);
+            }
+        });
+        UserService service = new UserService(options);
+        assertTrue(service.addUser("First", "Last", "user@example.com", LocalDate.of(1980, 1, 1), "c1").join());
+        User user = service.getUserByEmail("user@example.com").join();
+        user.setHasCreditLimit(true);
+        user.setCreditLimit(1.0);
+        assertTrue(service.updateUser(user).join());
+
+        failing.set(true);
+        assertThrows(CompletionException.class, () -> service.retierClient("c1").join());
+        assertTrue(service.getUserByEmail("user@example.com").join().hasCreditLimit());
+        failing.set(false);
+        assertEquals(1, service.retierClient("c1").join());
+    }
+}
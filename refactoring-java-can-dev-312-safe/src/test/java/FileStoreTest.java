@@ -0,0 +1,95 @@
+import com.speechify.AsyncFileStore;
+import com.speechify.BlockingFileStore;
+import com.speechify.FileStore;
+import com.speechify.User;
+import com.speechify.UserService;
+import com.speechify.UserServiceOptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class FileStoreTest {
+    private static final String USERS_JSON = "{\"clients\":[],\"users\":["
+            + "{\"id\":\"u1\",\"email\":\"one@example.com\",\"firstname\":\"One\",\"surname\":\"Last\"},"
+            + "{\"id\":\"u2\",\"email\":\"two@example.com\",\"firstname\":\"Two\",\"surname\":\"Last\"}]}";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void storesShouldRoundTripAndReplaceFilesWithoutLeavingTempFiles() throws Exception {
+        byte[] large = new byte[300_000];
+        for (int i = 0; i < large.length; i++) {
+            large[i] = (byte) i;
+        }
+        for (FileStore store : new FileStore[] {new AsyncFileStore(), new BlockingFileStore()}) {
+            Path file = tempDir.resolve(store.getClass().getSimpleName());
+            assertNull(store.read(file).join());
+
+            store.write(file, "previous".getBytes(StandardCharsets.UTF_8)).join();
+            store.write(file, large).join();
+            assertArrayEquals(large, store.read(file).join());
+        }
+        try (Stream<Path> files = Files.list(tempDir)) {
+            List<String> names = files.map(path -> path.getFileName().toString()).sorted().collect(Collectors.toList());
+            assertEquals(List.of("AsyncFileStore", "BlockingFileStore"), names);
+        }
+    }
+
+    @Test
+    public void storesShouldReadEmptyFilesAndFailOnMissingDirectories() throws Exception {
+        for (FileStore store : new FileStore[] {new AsyncFileStore(), new BlockingFileStore()}) {
+            Path empty = tempDir.resolve(store.getClass().getSimpleName() + ".empty");
+            store.write(empty, new byte[0]).join();
+            assertArrayEquals(new byte[0], store.read(empty).join());
+
+            // A missing file reads as null, but a missing directory is an error for writes
+            Path missing = tempDir.resolve("missing").resolve("file");
+            assertNull(store.read(missing).join());
+            assertThrows(CompletionException.class, () -> store.write(missing, new byte[] {1}).join());
+            assertFalse(Files.exists(missing.getParent()));
+
+            assertThrows(CompletionException.class, () -> store.read(tempDir).join());
+        }
+    }
+
+    @Test
+    public void savesShouldEndWithAChecksumThatIsVerifiedOnLoad() throws Exception {
+        Path dbFile = tempDir.resolve("db.json");
+        Files.writeString(dbFile, USERS_JSON);
+
+        // A file without checksum is still accepted
+        User user = newService().getUserByEmail("one@example.com").join();
+        assertEquals("u1", user.getId());
+
+        user.setSurname("Changed");
+        assertTrue(newService().updateUser(user).join());
+        String saved = Files.readString(dbFile);
+        assertTrue(saved.matches("(?s).*\\}\\n#CRC32C:[0-9a-f]{8}\\n"), saved);
+        assertEquals(2, newService().getAllUsers().join().size());
+
+        Files.writeString(dbFile, saved.replace("Changed", "Chanced"));
+        assertEquals(0, newService().getAllUsers().join().size());
+    }
+
+    private UserService newService() {
+        UserServiceOptions options = new UserServiceOptions();
+        options.setDataDirectory(tempDir);
+        return new UserService(options);
+    }
+}
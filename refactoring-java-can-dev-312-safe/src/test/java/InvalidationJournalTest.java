@@ -0,0 +1,155 @@
+import com.speechify.Client;
+import com.speechify.InMemoryClientRepository;
+import com.speechify.InvalidationJournal;
+import com.speechify.User;
+import com.speechify.UserService;
+import com.speechify.UserServiceOptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class InvalidationJournalTest {
+    private static final Client CLIENT = new Client("c1", "Client");
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void recordsShouldReachOtherJournalsOnly() throws Exception {
+        Path file = tempDir.resolve(InvalidationJournal.FILE_NAME);
+        try (InvalidationJournal writer = new InvalidationJournal(file, null);
+             InvalidationJournal reader = new InvalidationJournal(file, null)) {
+            List<String> written = record(writer, "users");
+            List<String> read = record(reader, "users");
+            List<String> otherChannel = record(reader, "clients");
+
+            writer.publish("users", List.of("a@example.com", "b@example.com"));
+            writer.publish("clients", List.of("c1"));
+            assertEquals(3, reader.poll());
+            assertEquals(0, writer.poll());
+
+            assertEquals(List.of("a@example.com", "b@example.com"), read);
+            assertEquals(List.of("c1"), otherChannel);
+            assertEquals(List.of(), written);
+        }
+    }
+
+    @Test
+    public void readerThatFellBehindShouldInvalidateEverything() throws Exception {
+        Path file = tempDir.resolve(InvalidationJournal.FILE_NAME);
+        try (InvalidationJournal writer = new InvalidationJournal(file, null);
+             InvalidationJournal reader = new InvalidationJournal(file, null)) {
+            List<String> read = record(reader, "users");
+            List<String> keys = new ArrayList<>();
+            for (int i = 0; i < 5000; i++) {
+                keys.add("user" + i);
+            }
+            writer.publish("users", keys);
+            reader.poll();
+
+            assertEquals(List.of("*"), read);
+            assertEquals(1, reader.getOverruns());
+        }
+    }
+
+    @Test
+    public void updateInOneServiceShouldReachAnotherServiceCache() throws Exception {
+        try (UserService first = newService(); UserService second = newService()) {
+            assertTrue(first.addUser("First", "Last", "user@example.com", LocalDate.of(1980, 1, 1), CLIENT.getId()).join());
+            waitFor(() -> second.getUserByEmail("user@example.com").join() != null);
+
+            User user = first.getUserByEmail("user@example.com").join();
+            user.setSurname("Changed");
+            assertTrue(first.updateUser(user).join());
+            waitFor(() -> "Changed".equals(second.getUserByEmail("user@example.com").join().getSurname()));
+        }
+    }
+
+    @Test
+    public void servicesWritingTheSameFileShouldKeepEachOthersUsers() throws Exception {
+        // Slow polling, so that neither service has seen the other's add when it writes
+        try (UserService first = newService(Duration.ofSeconds(1)); UserService second = newService(Duration.ofSeconds(1))) {
+            assertTrue(first.getAllUsers().join().isEmpty());
+            assertTrue(second.getAllUsers().join().isEmpty());
+
+            assertTrue(first.addUser("A", "Last", "a@example.com", LocalDate.of(1980, 1, 1), CLIENT.getId()).join());
+            assertTrue(second.addUser("B", "Last", "b@example.com", LocalDate.of(1980, 1, 1), CLIENT.getId()).join());
+            // The email is free in the second service's stale view, but not in the file
+            assertFalse(second.addUser("A2", "Last", "a@example.com", LocalDate.of(1980, 1, 1), CLIENT.getId()).join());
+            assertTrue(first.addUser("C", "Last", "c@example.com", LocalDate.of(1980, 1, 1), CLIENT.getId()).join());
+
+            try (UserService third = newService()) {
+                assertEquals(3, third.getAllUsers().join().size());
+            }
+            waitFor(() -> first.getAllUsers().join().size() == 3 && second.getAllUsers().join().size() == 3);
+        }
+    }
+
+    @Test
+    public void closedServiceShouldStopPollingAndPublishing() throws Exception {
+        try (UserService open = newService()) {
+            UserService closed = newService();
+            assertTrue(closed.addUser("First", "Last", "user@example.com", LocalDate.of(1980, 1, 1), CLIENT.getId()).join());
+            waitFor(() -> open.getUserByEmail("user@example.com").join() != null);
+            closed.close();
+
+            Path file = tempDir.resolve(InvalidationJournal.FILE_NAME);
+            try (InvalidationJournal reader = new InvalidationJournal(file, null)) {
+                List<String> read = record(reader, "users");
+                User user = closed.getUserByEmail("user@example.com").join();
+                user.setSurname("Changed");
+                assertTrue(closed.updateUser(user).join());
+                assertEquals(0, reader.poll());
+                assertEquals(List.of(), read);
+            }
+        }
+    }
+
+    private UserService newService() {
+        return newService(Duration.ofMillis(10));
+    }
+
+    private UserService newService(Duration pollInterval) {
+        UserServiceOptions options = new UserServiceOptions();
+        options.setDataDirectory(tempDir);
+        options.setClientRepository(new InMemoryClientRepository(List.of(CLIENT)));
+        options.setInvalidationPollInterval(pollInterval);
+        return new UserService(options);
+    }
+
+    // Collects delivered keys, with "*" standing for invalidateAll
+    private static List<String> record(InvalidationJournal journal, String channel) {
+        List<String> keys = new ArrayList<>();
+        journal.subscribe(channel, new InvalidationJournal.Subscriber() {
+            @Override
+            public void invalidate(Collection<String> invalidated) {
+                keys.addAll(invalidated);
+            }
+
+            @Override
+            public void invalidateAll() {
+                keys.add("*");
+            }
+        });
+        return keys;
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "Condition not met in time");
+            Thread.sleep(10);
+        }
+    }
+}
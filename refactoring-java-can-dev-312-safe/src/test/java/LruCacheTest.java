@@ -2,6 +2,11 @@ import com.speechify.CacheLimits;
 import com.speechify.LRUCache;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 import static com.speechify.LRUCacheProvider.createLRUCache;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNull;
@@ -98,4 +103,49 @@ public class LruCacheTest {
 
         assertEquals("1value", lruCache.get("1key"));
     }
+
+    @Test
+    public void removalListenerShouldBeToldAboutEvictionsAndReplacements() {
+        List<String> removals = new ArrayList<>();
+        LRUCache<String> lruCache = createLRUCache(new CacheLimits(2),
+                (key, value, cause) -> removals.add(cause + ":" + key + "=" + value));
+        lruCache.set("foo", "1");
+        lruCache.set("bar", "2");
+        lruCache.set("foo", "3");
+        lruCache.set("baz", "4");
+
+        assertEquals(List.of("REPLACED:foo=1", "EVICTED:bar=2"), removals);
+    }
+
+    @Test
+    public void bulkOperationsShouldBehaveLikeSingleKeyOnes() {
+        LRUCache<String> lruCache = createLRUCache(new CacheLimits(3));
+        Map<String, String> entries = new LinkedHashMap<>();
+        entries.put("a", "1");
+        entries.put("b", "2");
+        entries.put("c", "3");
+        entries.put("d", "4");
+        lruCache.putAll(entries);
+
+        assertEquals(Map.of("b", "2", "d", "4"), lruCache.getAll(List.of("a", "b", "d", "x")));
+        assertEquals(List.of("b", "d"), new ArrayList<>(lruCache.getAll(List.of("b", "d")).keySet()));
+
+        lruCache.invalidate("b");
+        assertNull(lruCache.get("b"));
+        lruCache.invalidateAll(key -> key.compareTo("c") >= 0);
+        assertEquals(List.of(), lruCache.keys());
+    }
+
+    @Test
+    public void removalListenerShouldBeToldAboutInvalidations() {
+        List<String> removals = new ArrayList<>();
+        LRUCache<String> lruCache = createLRUCache(new CacheLimits(3),
+                (key, value, cause) -> removals.add(cause + ":" + key + "=" + value));
+        lruCache.putAll(Map.of("foo", "1", "bar", "2"));
+        lruCache.invalidate("foo");
+        lruCache.invalidate("missing");
+        lruCache.invalidateAll(key -> true);
+
+        assertEquals(List.of("EXPLICIT:foo=1", "EXPLICIT:bar=2"), removals);
+    }
 }
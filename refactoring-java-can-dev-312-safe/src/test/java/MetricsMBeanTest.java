@@ -0,0 +1,51 @@
+import com.speechify.HistogramMetricsRecorder;
+import com.speechify.MetricsMBean;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import javax.management.AttributeNotFoundException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MetricsMBeanTest {
+
+    @Test
+    public void registeredMetricsShouldBeReadableThroughThePlatformMBeanServer() throws Exception {
+        HistogramMetricsRecorder recorder = new HistogramMetricsRecorder();
+        ObjectName name = MetricsMBean.register(recorder, "MetricsMBeanTest");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            // Recorded after registration, so attributes are discovered when read
+            for (long micros = 1; micros <= 1000; micros++) {
+                recorder.recordLatency("UserService.getUserByEmail", micros * 1000);
+            }
+            recorder.increment("UserService.emailCache.hit");
+            recorder.registerGauge("UserService.writeBehind.buffered", () -> 3);
+
+            assertEquals(1000.0, server.getAttribute(name, "UserService.getUserByEmail.count"));
+            double p99 = (Double) server.getAttribute(name, "UserService.getUserByEmail.p99Micros");
+            assertTrue(Math.abs(p99 - 990) <= 990 * 0.04, "p99 was " + p99);
+            assertEquals(1000.0, server.getAttribute(name, "UserService.getUserByEmail.maxMicros"));
+            assertEquals(1L, server.getAttribute(name, "UserService.emailCache.hit"));
+            assertEquals(3.0, server.getAttribute(name, "UserService.writeBehind.buffered"));
+            assertThrows(AttributeNotFoundException.class,
+                    () -> server.getAttribute(name, "UserService.getUserByEmail.p42Micros"));
+
+            List<String> attributes = Arrays.stream(server.getMBeanInfo(name).getAttributes())
+                    .map(MBeanAttributeInfo::getName)
+                    .collect(Collectors.toList());
+            assertTrue(attributes.contains("UserService.getUserByEmail.p999Micros"));
+            assertTrue(attributes.contains("UserService.emailCache.hit"));
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+import com.speechify.PersistentMap;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PersistentMapTest {
+
+    @Test
+    public void plusShouldLeavePreviousVersionUnchanged() {
+        PersistentMap<String> first = PersistentMap.<String>empty().plus("foo", "bar");
+        PersistentMap<String> second = first.plus("foo", "baz").plus("qux", "quux");
+
+        assertEquals("bar", first.get("foo"));
+        assertNull(first.get("qux"));
+        assertEquals(1, first.size());
+        assertEquals("baz", second.get("foo"));
+        assertEquals("quux", second.get("qux"));
+        assertEquals(2, second.size());
+    }
+
+    @Test
+    public void minusShouldRemoveOnlyTheGivenKey() {
+        PersistentMap<String> map = PersistentMap.<String>empty().plus("foo", "1").plus("bar", "2");
+        PersistentMap<String> removed = map.minus("foo");
+
+        assertNull(removed.get("foo"));
+        assertEquals("2", removed.get("bar"));
+        assertEquals(1, removed.size());
+        assertEquals("1", map.get("foo"));
+        assertSame(removed, removed.minus("missing"));
+    }
+
+    @Test
+    public void keysWithEqualHashCodesShouldBeKeptApart() {
+        // "Aa" and "BB" share the same String.hashCode()
+        PersistentMap<String> map = PersistentMap.<String>empty().plus("Aa", "first").plus("BB", "second");
+
+        assertEquals("first", map.get("Aa"));
+        assertEquals("second", map.get("BB"));
+        assertEquals("second", map.minus("Aa").get("BB"));
+        assertNull(map.minus("BB").get("BB"));
+    }
+
+    @Test
+    public void shouldMatchHashMapForRandomOperations() {
+        Random random = new Random(42);
+        Map<String, Integer> expected = new HashMap<>();
+        PersistentMap<Integer> map = PersistentMap.empty();
+        for (int i = 0; i < 20_000; i++) {
+            String key = "key" + random.nextInt(5_000);
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                map = map.minus(key);
+            } else {
+                expected.put(key, i);
+                map = map.plus(key, i);
+            }
+        }
+
+        assertEquals(expected.size(), map.size());
+        for (Map.Entry<String, Integer> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), map.get(entry.getKey()));
+        }
+        assertTrue(map.values().collect(Collectors.toSet()).containsAll(expected.values()));
+        assertEquals(expected.size(), map.values().count());
+    }
+}
@@ -0,0 +1,199 @@
+import com.speechify.HistogramMetricsRecorder;
+import com.speechify.ReactiveUserService;
+import com.speechify.User;
+import com.speechify.UserCommand;
+import com.speechify.UserCommandResult;
+import com.speechify.UserService;
+import com.speechify.UserServiceOptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ReactiveUserServiceTest {
+    private static final int USER_COUNT = 200;
+    private static final int COMMAND_COUNT = 5_000;
+    private static final int MAX_BATCH_SIZE = 32;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void overloadShouldKeepCommandsInFlightBoundedAndBatchWrites() throws Exception {
+        seedUsers(tempDir.resolve("db.json"));
+        HistogramMetricsRecorder metrics = new HistogramMetricsRecorder();
+        UserServiceOptions options = new UserServiceOptions();
+        options.setDataDirectory(tempDir);
+        options.setMetricsRecorder(metrics);
+        ReactiveUserService reactive = new ReactiveUserService(new UserService(options), MAX_BATCH_SIZE);
+
+        // The producer could emit all commands at once; it only emits what the pipeline requests
+        AtomicLong emitted = new AtomicLong();
+        Flow.Publisher<UserCommand> producer = subscriber -> subscriber.onSubscribe(new Flow.Subscription() {
+            private final AtomicBoolean cancelled = new AtomicBoolean();
+
+            @Override
+            public synchronized void request(long n) {
+                for (long i = 0; i < n && emitted.get() < COMMAND_COUNT && !cancelled.get(); i++) {
+                    int index = (int) emitted.getAndIncrement();
+                    subscriber.onNext(UserCommand.update(user(index % USER_COUNT, "Updated" + index)));
+                }
+                if (emitted.get() == COMMAND_COUNT) {
+                    subscriber.onComplete();
+                }
+            }
+
+            @Override
+            public void cancel() {
+                cancelled.set(true);
+            }
+        });
+
+        // A consumer that is slower than the producer and requests one result at a time
+        AtomicInteger received = new AtomicInteger();
+        AtomicInteger succeeded = new AtomicInteger();
+        AtomicLong maxInFlight = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(1);
+        reactive.process(producer).subscribe(new Flow.Subscriber<UserCommandResult>() {
+            private Flow.Subscription subscription;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(UserCommandResult result) {
+                maxInFlight.accumulateAndGet(emitted.get() - received.incrementAndGet(), Math::max);
+                if (result.isSuccess()) {
+                    succeeded.incrementAndGet();
+                }
+                if (received.get() % 500 == 0) {
+                    sleep();
+                }
+                subscription.request(1);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                done.countDown();
+            }
+
+            @Override
+            public void onComplete() {
+                done.countDown();
+            }
+        });
+
+        assertTrue(done.await(60, TimeUnit.SECONDS));
+        assertEquals(COMMAND_COUNT, received.get());
+        assertEquals(COMMAND_COUNT, succeeded.get());
+        assertTrue(maxInFlight.get() <= 2 * MAX_BATCH_SIZE, "max in flight: " + maxInFlight.get());
+        long saves = metrics.getHistogram("UserService.saveDatabase").getCount();
+        assertTrue(saves <= COMMAND_COUNT / 4, "saves: " + saves);
+    }
+
+    @Test
+    public void batchThatThrowsShouldFailItsCommandsAndLetTheRestThrough() throws Exception {
+        seedUsers(tempDir.resolve("db.json"));
+        UserServiceOptions options = new UserServiceOptions();
+        options.setDataDirectory(tempDir);
+        AtomicBoolean thrown = new AtomicBoolean();
+        UserService failingOnce = new UserService(options) {
+            @Override
+            public CompletableFuture<List<Boolean>> applyCommands(List<UserCommand> commands) {
+                if (thrown.compareAndSet(false, true)) {
+                    throw new IllegalStateException("Rejected synchronously");
+                }
+                return super.applyCommands(commands);
+            }
+        };
+        ReactiveUserService reactive = new ReactiveUserService(failingOnce, 1);
+        Flow.Publisher<UserCommand> producer = subscriber -> subscriber.onSubscribe(new Flow.Subscription() {
+            private int emitted;
+
+            @Override
+            public synchronized void request(long n) {
+                for (long i = 0; i < n && emitted < 3; i++) {
+                    subscriber.onNext(UserCommand.update(user(emitted, "Updated")));
+                    emitted++;
+                }
+                if (emitted == 3) {
+                    emitted++;
+                    subscriber.onComplete();
+                }
+            }
+
+            @Override
+            public void cancel() {
+            }
+        });
+
+        List<Boolean> results = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(1);
+        reactive.process(producer).subscribe(new Flow.Subscriber<UserCommandResult>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(UserCommandResult result) {
+                results.add(result.isSuccess());
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                done.countDown();
+            }
+
+            @Override
+            public void onComplete() {
+                done.countDown();
+            }
+        });
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(List.of(false, true, true), results);
+    }
+
+    private static User user(int index, String surname) {
+        return new User("u" + index, null, LocalDate.of(1990, 1, 1), "user" + index + "@example.com",
+                "First" + index, surname, true, 100.0);
+    }
+
+    private static void seedUsers(Path dbFile) throws IOException {
+        StringBuilder json = new StringBuilder("{\"clients\":[],\"users\":[");
+        for (int i = 0; i < USER_COUNT; i++) {
+            json.append(i == 0 ? "" : ",")
+                    .append("{\"id\":\"u").append(i).append("\",\"email\":\"user").append(i)
+                    .append("@example.com\",\"firstname\":\"First").append(i).append("\",\"surname\":\"Last\"}");
+        }
+        Files.writeString(dbFile, json.append("]}").toString());
+    }
+
+    private static void sleep() {
+        try {
+            Thread.sleep(20);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+import com.speechify.CacheCodec;
+import com.speechify.CacheLimits;
+import com.speechify.Client;
+import com.speechify.JsonClientRepository;
+import com.speechify.TieredLRUCache;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TieredLruCacheTest {
+    private static final CacheCodec<String> STRINGS = new CacheCodec<>() {
+        @Override
+        public byte[] encode(String value) {
+            return value.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String decode(byte[] bytes) {
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public byte[] dictionary() {
+            return "value-".getBytes(StandardCharsets.UTF_8);
+        }
+    };
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void entriesEvictedFromL1ShouldBeServedFromL2() {
+        TieredLRUCache<String> cache = new TieredLRUCache<>(new CacheLimits(2), new CacheLimits(10), STRINGS);
+        for (int i = 0; i < 5; i++) {
+            cache.set("key" + i, "value-" + i);
+        }
+        for (int i = 4; i >= 0; i--) {
+            assertEquals("value-" + i, cache.get("key" + i));
+        }
+        assertEquals(2, cache.getL1Hits());
+        assertEquals(3, cache.getL2Hits());
+        // Promoting key2, key1 and key0 demoted key4 and key3 again
+        assertEquals("value-4", cache.get("key4"));
+        assertEquals(4, cache.getL2Hits());
+    }
+
+    @Test
+    public void entriesEvictedFromBothTiersShouldBeGone() {
+        TieredLRUCache<String> cache = new TieredLRUCache<>(new CacheLimits(1), new CacheLimits(2), STRINGS);
+        for (int i = 0; i < 4; i++) {
+            cache.set("key" + i, "value-" + i);
+        }
+        assertNull(cache.get("key0"));
+        assertEquals("value-1", cache.get("key1"));
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void setShouldReplaceADemotedValue() {
+        TieredLRUCache<String> cache = new TieredLRUCache<>(new CacheLimits(1), new CacheLimits(10), STRINGS);
+        cache.set("foo", "value-old");
+        cache.set("bar", "value-bar");
+        cache.set("foo", "value-new");
+        cache.set("baz", "value-baz");
+        assertEquals("value-new", cache.get("foo"));
+    }
+
+    @Test
+    public void bulkOperationsShouldSpanBothTiers() {
+        TieredLRUCache<String> cache = new TieredLRUCache<>(new CacheLimits(2), new CacheLimits(10), STRINGS);
+        for (int i = 0; i < 5; i++) {
+            cache.set("key" + i, "value-" + i);
+        }
+        assertEquals(Map.of("key0", "value-0", "key4", "value-4"), cache.getAll(List.of("key0", "key4", "key9")));
+        assertEquals(1, cache.getL1Hits());
+        assertEquals(1, cache.getL2Hits());
+        assertEquals(1, cache.getMisses());
+
+        cache.invalidateAll(key -> !key.equals("key2"));
+        assertEquals(List.of("key2"), cache.keys());
+        cache.invalidate("key2");
+        assertNull(cache.get("key2"));
+    }
+
+    @Test
+    public void onlyEntriesLongEnoughToShrinkShouldBeDeflated() {
+        TieredLRUCache<String> cache = new TieredLRUCache<>(new CacheLimits(1), new CacheLimits(10), STRINGS);
+        cache.set("short", "value-short");
+        cache.set("long", "value-" + "long ".repeat(40));
+        cache.set("last", "value-last");
+        assertEquals(2, cache.getDemoted());
+        assertEquals(1, cache.getDeflated());
+        assertEquals("value-" + "long ".repeat(40), cache.get("long"));
+        assertEquals("value-short", cache.get("short"));
+    }
+
+    @Test
+    public void aClientWithoutANameShouldKeepItThroughTheCompressedTier() throws Exception {
+        StringBuilder clients = new StringBuilder("{\"clients\":[{\"id\":\"nameless\",\"name\":null}");
+        // More clients than the repository keeps live, so the first one is demoted
+        for (int i = 0; i < 100; i++) {
+            clients.append(",{\"id\":\"c").append(i).append("\",\"name\":\"Client ").append(i).append("\"}");
+        }
+        Path file = tempDir.resolve("db.json");
+        Files.writeString(file, clients.append("],\"users\":[]}"));
+        JsonClientRepository repository = new JsonClientRepository(file);
+
+        assertEquals(101, repository.getAll().join().size());
+        Files.delete(file);
+        Client nameless = repository.getById("nameless").join();
+        assertEquals("nameless", nameless.getId());
+        assertNull(nameless.getName());
+        assertTrue(repository.getById("c0").join() != null);
+    }
+}
@@ -0,0 +1,88 @@
+import com.speechify.Client;
+import com.speechify.InMemoryClientRepository;
+import com.speechify.User;
+import com.speechify.UserColumns;
+import com.speechify.UserService;
+import com.speechify.UserServiceOptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class UserColumnsTest {
+    private static final LocalDate TODAY = LocalDate.of(2024, 6, 15);
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void filtersShouldMatchScanningUsers() {
+        Random random = new Random(7);
+        List<Client> clients = List.of(new Client("c1", "One"), new Client("c2", "Two"), new Client("c3", "Three"));
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            LocalDate dateOfBirth = i % 50 == 0 ? null : TODAY.minusDays(random.nextInt(70 * 365));
+            Client client = i % 70 == 0 ? null : clients.get(random.nextInt(clients.size()));
+            users.add(new User("id" + i, client, dateOfBirth, "user" + i + "@example.com", "First", "Last",
+                    random.nextBoolean(), 1000.0 * random.nextInt(30)));
+        }
+        UserColumns columns = UserColumns.of(users);
+
+        LocalDate bornFrom = TODAY.minusYears(40).plusDays(1);
+        LocalDate bornTo = TODAY.minusYears(30);
+        Predicate<User> aged = user -> user.getDateOfBirth() != null
+                && !user.getDateOfBirth().isBefore(bornFrom) && !user.getDateOfBirth().isAfter(bornTo);
+        UserColumns.Filter agedFilter = UserColumns.Filter.all().agedBetween(30, 39, TODAY);
+        assertMatches(users, aged, columns, agedFilter);
+
+        Predicate<User> limited = aged.and(user -> user.hasCreditLimit() && user.getCreditLimit() >= 15000.0
+                && user.getClient() != null && user.getClient().getId().equals("c2"));
+        UserColumns.Filter limitedFilter = agedFilter.hasCreditLimit(true)
+                .creditLimitBetween(15000.0, Double.POSITIVE_INFINITY)
+                .client("c2");
+        assertMatches(users, limited, columns, limitedFilter);
+
+        assertEquals(users.size(), columns.count(UserColumns.Filter.all()));
+        assertEquals(0, columns.count(UserColumns.Filter.all().client("unknown")));
+    }
+
+    @Test
+    public void serviceShouldReuseColumnsUntilUsersChange() {
+        Client client = new Client("c1", "Client");
+        UserServiceOptions options = new UserServiceOptions();
+        options.setDataDirectory(tempDir);
+        options.setShardCount(2);
+        options.setClientRepository(new InMemoryClientRepository(List.of(client)));
+        UserService service = new UserService(options);
+        assertTrue(service.addUser("First", "Last", "first@example.com", LocalDate.of(1980, 1, 1), "c1").join());
+
+        UserColumns columns = service.getUserColumns().join();
+        assertSame(columns, service.getUserColumns().join());
+        assertTrue(service.addUser("Second", "Last", "second@example.com", LocalDate.of(1990, 1, 1), "c1").join());
+
+        UserColumns rebuilt = service.getUserColumns().join();
+        assertNotSame(columns, rebuilt);
+        assertEquals(2, rebuilt.count(UserColumns.Filter.all().client("c1")));
+    }
+
+    private static void assertMatches(List<User> users, Predicate<User> predicate,
+                                      UserColumns columns, UserColumns.Filter filter) {
+        List<User> expected = users.stream().filter(predicate).collect(Collectors.toList());
+        assertTrue(expected.size() > 0);
+        assertEquals(expected.size(), columns.count(filter));
+        assertEquals(expected.stream().map(User::getId).collect(Collectors.toList()), columns.matchingIds(filter));
+        double expectedSum = expected.stream().filter(User::hasCreditLimit).mapToDouble(User::getCreditLimit).sum();
+        assertEquals(expectedSum, columns.sumCreditLimit(filter), 1e-6);
+    }
+}
@@ -0,0 +1,51 @@
+import com.speechify.User;
+import com.speechify.UserDatabaseLoader;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class UserDatabaseLoaderTest {
+
+    @Test
+    public void loadShouldReadAllUsersAcrossChunks() throws IOException {
+        StringBuilder json = new StringBuilder("{\"clients\":[{\"id\":\"c1\",\"name\":\"Client\"}],\"users\":[");
+        for (int i = 0; i < 25; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"id\":\"u").append(i).append("\",\"email\":\"user").append(i)
+                    .append("@example.com\",\"dateOfBirth\":\"1990-01-01T00:00:00.000Z\",\"hasCreditLimit\":true,\"creditLimit\":100}");
+        }
+        json.append("]}");
+        ObjectNode otherFields = JsonNodeFactory.instance.objectNode();
+
+        List<User> users = new UserDatabaseLoader(ForkJoinPool.commonPool(), 4)
+                .loadUsers(json.toString().getBytes(StandardCharsets.UTF_8), otherFields);
+
+        assertEquals(25, users.size());
+        assertEquals("u0", users.get(0).getId());
+        assertEquals("u24", users.get(24).getId());
+        User user = users.get(7);
+        assertEquals("user7@example.com", user.getEmail());
+        assertEquals(LocalDate.of(1990, 1, 1), user.getDateOfBirth());
+        assertTrue(user.hasCreditLimit());
+        assertEquals(100.0, user.getCreditLimit());
+        assertEquals("Client", otherFields.path("clients").path(0).path("name").asText());
+    }
+
+    @Test
+    public void loadShouldReturnNoUsersWhenUsersAreMissing() throws IOException {
+        List<User> users = new UserDatabaseLoader().loadUsers("{\"clients\":[]}".getBytes(StandardCharsets.UTF_8), null);
+
+        assertTrue(users.isEmpty());
+    }
+}
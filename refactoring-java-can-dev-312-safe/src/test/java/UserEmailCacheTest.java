@@ -0,0 +1,91 @@
+import com.speechify.Client;
+import com.speechify.HistogramMetricsRecorder;
+import com.speechify.InMemoryClientRepository;
+import com.speechify.InMemoryUserRepository;
+import com.speechify.User;
+import com.speechify.UserService;
+import com.speechify.UserServiceOptions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class UserEmailCacheTest {
+    private static final Client CLIENT = new Client("c1", "Client");
+    private static final String HIT = "UserService.emailCache.hit";
+    private static final String MISS = "UserService.emailCache.miss";
+    private static final String NEGATIVE_HIT = "UserService.emailCache.negativeHit";
+
+    private final HistogramMetricsRecorder metrics = new HistogramMetricsRecorder();
+
+    @Test
+    public void repeatedLookupsShouldHitTheCacheAndSeeUpdates() {
+        UserService service = newService(Duration.ofSeconds(5));
+        assertTrue(service.addUser("First", "Last", "user@example.com", LocalDate.of(1980, 1, 1), CLIENT.getId()).join());
+
+        assertEquals("First", service.getUserByEmail("user@example.com").join().getFirstname());
+        assertEquals("First", service.getUserByEmail("user@example.com").join().getFirstname());
+        assertEquals(0, metrics.getCount(MISS));
+        assertEquals(2, metrics.getCount(HIT));
+
+        // A cached copy handed out is never the cached entry itself
+        User user = service.getUserByEmail("user@example.com").join();
+        user.setFirstname("Changed");
+        assertEquals("First", service.getUserByEmail("user@example.com").join().getFirstname());
+        assertTrue(service.updateUser(user).join());
+        assertEquals("Changed", service.getUserByEmail("user@example.com").join().getFirstname());
+    }
+
+    @Test
+    public void anEmailGivenUpShouldBeRememberedAsMissingForTheTtl() throws Exception {
+        UserService service = newService(Duration.ofMillis(200));
+        assertTrue(service.addUser("First", "Last", "old@example.com", LocalDate.of(1980, 1, 1), CLIENT.getId()).join());
+        User user = service.getUserByEmail("old@example.com").join();
+        user.setEmail("new@example.com");
+        assertTrue(service.updateUser(user).join());
+
+        assertNull(service.getUserByEmail("old@example.com").join());
+        assertEquals(1, metrics.getCount(NEGATIVE_HIT));
+        assertEquals(user.getId(), service.getUserByEmail("new@example.com").join().getId());
+
+        Thread.sleep(300);
+        assertNull(service.getUserByEmail("old@example.com").join());
+        assertEquals(1, metrics.getCount(NEGATIVE_HIT));
+        assertEquals(1, metrics.getCount(MISS));
+    }
+
+    @Test
+    public void usersBeyondTheLiveOnesShouldBeServedCompressed() {
+        UserService service = newService(Duration.ofSeconds(5), 2);
+        for (int i = 0; i < 6; i++) {
+            assertTrue(service.addUser("First" + i, "Last", "user" + i + "@example.com",
+                    LocalDate.of(1980, 1, 1), CLIENT.getId()).join());
+        }
+        for (int i = 0; i < 6; i++) {
+            assertEquals("First" + i, service.getUserByEmail("user" + i + "@example.com").join().getFirstname());
+        }
+        assertEquals(0, metrics.getCount(MISS));
+        assertEquals(6, metrics.getCount(HIT));
+        assertTrue(metrics.getGauges().get("UserService.emailCache.l2Hits").get().longValue() >= 4);
+        assertTrue(metrics.getGauges().get("UserService.emailCache.deflated").get().longValue() >= 4);
+    }
+
+    private UserService newService(Duration missCacheTtl) {
+        return newService(missCacheTtl, 1000);
+    }
+
+    private UserService newService(Duration missCacheTtl, int emailCacheSize) {
+        UserServiceOptions options = new UserServiceOptions();
+        options.setMetricsRecorder(metrics);
+        options.setMissCacheTtl(missCacheTtl);
+        options.setEmailCacheSize(emailCacheSize);
+        options.setUserRepositoryFactory((shard, count) -> new InMemoryUserRepository());
+        options.setClientRepository(new InMemoryClientRepository(List.of(CLIENT)));
+        return new UserService(options);
+    }
+}
@@ -0,0 +1,139 @@
+import com.speechify.Client;
+import com.speechify.InMemoryClientRepository;
+import com.speechify.InMemoryUserRepository;
+import com.speechify.User;
+import com.speechify.UserHttpServer;
+import com.speechify.UserService;
+import com.speechify.UserServiceOptions;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class UserHttpServerTest {
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    @TempDir
+    Path tempDir;
+
+    private UserHttpServer server;
+    private UserServiceOptions options;
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    @BeforeEach
+    public void startServer() throws Exception {
+        options = new UserServiceOptions();
+        options.setDataDirectory(tempDir);
+        options.setShardCount(2);
+        options.setClientRepository(new InMemoryClientRepository(List.of(new Client("c1", "ImportantClient"))));
+        server = new UserHttpServer(new UserService(options), new InetSocketAddress("localhost", 0));
+        server.start();
+    }
+
+    @AfterEach
+    public void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void usersShouldBeAddedUpdatedAndRead() throws Exception {
+        String request = "{\"firstname\":\"Ada\",\"surname\":\"Lovelace\",\"email\":\"ada@example.com\","
+                + "\"dateOfBirth\":\"1980-12-10\",\"clientId\":\"c1\"}";
+        HttpResponse<String> added = send("POST", "/users", request);
+        assertEquals(201, added.statusCode());
+        assertEquals(20000.0, OBJECT_MAPPER.readTree(added.body()).get("creditLimit").asDouble());
+        assertEquals(422, send("POST", "/users", request).statusCode());
+
+        String updated = added.body().replace("Lovelace", "Byron");
+        HttpResponse<String> put = send("PUT", "/users", updated);
+        assertEquals(200, put.statusCode());
+        HttpResponse<String> read = send("GET", "/users?email=ada%40example.com", null);
+        assertEquals("Byron", OBJECT_MAPPER.readTree(read.body()).get("surname").asText());
+        assertEquals(OBJECT_MAPPER.readTree(read.body()), OBJECT_MAPPER.readTree(put.body()));
+        assertEquals(400, send("PUT", "/users", updated.replace("1980-12-10", "1980-13-45")).statusCode());
+        assertEquals(400, send("PUT", "/users", updated.replace("1980-12-10", "1980")).statusCode());
+        assertEquals(404, send("GET", "/users?email=nobody%40example.com", null).statusCode());
+        assertEquals(400, send("POST", "/users", "not json").statusCode());
+    }
+
+    @Test
+    public void moveMarkerSentByAClientShouldNotBeStored() throws Exception {
+        HttpResponse<String> added = send("POST", "/users", "{\"firstname\":\"Ada\",\"surname\":\"Lovelace\","
+                + "\"email\":\"ada@example.com\",\"dateOfBirth\":\"1980-12-10\",\"clientId\":\"c1\"}");
+        assertEquals(201, added.statusCode());
+        for (int shard = 0; shard < 2; shard++) {
+            String marked = added.body().replaceFirst("\\{", "{\"movingToShard\":" + shard + ",")
+                    .replace("Lovelace", "Byron" + shard);
+            assertEquals(200, send("PUT", "/users", marked).statusCode());
+        }
+        try (var files = Files.list(tempDir)) {
+            for (Path file : files.filter(path -> path.toString().endsWith(".json")).collect(Collectors.toList())) {
+                assertFalse(Files.readString(file).contains("movingToShard"), file.toString());
+            }
+        }
+
+        User reloaded = new UserService(options).getUserByEmail("ada@example.com").join();
+        assertEquals("Byron1", reloaded.getSurname());
+    }
+
+    @Test
+    public void storageFailuresShouldBeAnswered500() throws Exception {
+        server.stop(0);
+        options.setUserRepositoryFactory((shard, count) -> new InMemoryUserRepository() {
+            @Override
+            public CompletableFuture<List<User>> loadAll() {
+                return CompletableFuture.failedFuture(new IOException("Disk gone"));
+            }
+        });
+        server = new UserHttpServer(new UserService(options), new InetSocketAddress("localhost", 0));
+        server.start();
+
+        HttpResponse<String> listed = send("GET", "/users", null);
+        assertEquals(500, listed.statusCode());
+        assertTrue(OBJECT_MAPPER.readTree(listed.body()).get("error").asText().contains("Disk gone"));
+        assertEquals(500, send("GET", "/users?search=ada", null).statusCode());
+    }
+
+    @Test
+    public void usersShouldBeListedInPages() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            assertEquals(201, send("POST", "/users", "{\"firstname\":\"F\",\"surname\":\"S\",\"email\":\"u" + i
+                    + "@example.com\",\"dateOfBirth\":\"1980-01-01\",\"clientId\":\"c1\"}").statusCode());
+        }
+        JsonNode first = OBJECT_MAPPER.readTree(send("GET", "/users?offset=0&limit=3", null).body());
+        JsonNode second = OBJECT_MAPPER.readTree(send("GET", "/users?offset=3&limit=3", null).body());
+        assertEquals(3, first.get("users").size());
+        assertTrue(first.get("hasMore").asBoolean());
+        assertEquals(2, second.get("users").size());
+        assertFalse(second.get("hasMore").asBoolean());
+
+        assertEquals("ImportantClient",
+                OBJECT_MAPPER.readTree(send("GET", "/clients/c1", null).body()).get("name").asText());
+        assertEquals(404, send("GET", "/clients/c2", null).statusCode());
+    }
+
+    private HttpResponse<String> send(String method, String path, String body) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + server.getPort() + path))
+                .method(method, body == null ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofString(body))
+                .build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
@@ -0,0 +1,212 @@
+import com.speechify.AsyncFileStore;
+import com.speechify.Client;
+import com.speechify.FilePerUserRepository;
+import com.speechify.FileStore;
+import com.speechify.InMemoryClientRepository;
+import com.speechify.InMemoryUserRepository;
+import com.speechify.JsonFileUserRepository;
+import com.speechify.TieredUserRepository;
+import com.speechify.User;
+import com.speechify.UserDatabaseLoader;
+import com.speechify.UserRepository;
+import com.speechify.UserRepositoryFactory;
+import com.speechify.UserService;
+import com.speechify.UserServiceOptions;
+import com.speechify.WalUserRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class UserRepositoryTest {
+    private static final int SHARD_COUNT = 2;
+    private static final int USER_COUNT = 30;
+    private static final Client CLIENT = new Client("c1", "ImportantClient");
+
+    @TempDir
+    Path tempDir;
+
+    @ParameterizedTest
+    @ValueSource(strings = {"json", "wal", "file-per-user", "tiered", "in-memory"})
+    public void everyBackendShouldPersistAddsUpdatesAndMoves(String backend) {
+        UserRepositoryFactory factory = factory(backend);
+        UserService service = newService(factory);
+        for (int i = 0; i < USER_COUNT; i++) {
+            assertTrue(service.addUser("First" + i, "Last", "user" + i + "@example.com",
+                    LocalDate.of(1980, 1, 1), CLIENT.getId()).join());
+        }
+        assertFalse(service.addUser("Again", "Last", "user0@example.com", LocalDate.of(1980, 1, 1), CLIENT.getId()).join());
+
+        // Renaming every user moves about half of them to the other shard
+        for (int i = 0; i < USER_COUNT; i++) {
+            User user = service.getUserByEmail("user" + i + "@example.com").join();
+            user.setEmail("renamed" + i + "@example.com");
+            assertTrue(service.updateUser(user).join());
+        }
+
+        UserService reloaded = newService(factory);
+        assertEquals(USER_COUNT, reloaded.getAllUsers().join().size());
+        User user = reloaded.getUserByEmail("renamed7@example.com").join();
+        assertEquals("First7", user.getFirstname());
+        assertEquals(20000.0, user.getCreditLimit());
+        assertNull(reloaded.getUserByEmail("user7@example.com").join());
+    }
+
+    @Test
+    public void walShouldDropATornTailAndCompact() throws Exception {
+        Path log = tempDir.resolve("users.wal");
+        WalUserRepository wal = new WalUserRepository(log, new AsyncFileStore(), 8);
+        wal.loadAll().join();
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            users.add(new User("u" + i, CLIENT, LocalDate.of(1980, 1, 1), "u" + i + "@example.com", "F", "L", false, 0.0));
+            wal.save(List.of(users.get(i)), List.of(), users).join();
+        }
+        Files.write(log, "0badc0de {\"put\":".getBytes(StandardCharsets.US_ASCII), StandardOpenOption.APPEND);
+
+        WalUserRepository recovered = new WalUserRepository(log, new AsyncFileStore(), 8);
+        assertEquals(5, recovered.loadAll().join().size());
+        users.remove(0);
+        // The log is compacted once it holds more than twice the five users it was loaded with
+        recovered.save(List.of(), List.of("u0"), users).join();
+        for (int i = 0; i < 5; i++) {
+            recovered.save(List.of(users.get(i % users.size())), List.of(), users).join();
+        }
+        assertEquals(4, Files.readAllLines(log).size());
+        assertEquals(4, new WalUserRepository(log).loadAll().join().size());
+    }
+
+    @Test
+    public void tieredShouldDemoteIdleUsersToSegmentsAndMergeThem() throws Exception {
+        Path hotFile = tempDir.resolve("users.json");
+        TieredUserRepository repository = tiered(hotFile);
+        repository.loadAll().join();
+        List<User> users = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            users.add(new User("u" + i, CLIENT, LocalDate.of(1980, 1, 1), "u" + i + "@example.com", "F" + i, "L", false, 0.0));
+            repository.save(List.of(users.get(i)), List.of(), users).join();
+        }
+        // Every user is idle at once, and leaves the hot file four at a time
+        assertEquals(2, repository.getSegmentCount());
+        assertEquals(2, repository.getHotUserCount());
+        assertEquals(ids(users), ids(tiered(hotFile).loadAll().join()));
+
+        users.remove(2);
+        repository.save(List.of(), List.of("u2"), users).join();
+        TieredUserRepository reloaded = tiered(hotFile);
+        assertEquals(ids(users), ids(reloaded.loadAll().join()));
+
+        // A fourth tombstone merges every cold user into one segment
+        users.removeIf(user -> List.of("u0", "u1", "u3").contains(user.getId()));
+        reloaded.save(List.of(), List.of("u0", "u1", "u3"), users).join();
+        assertEquals(1, reloaded.getSegmentCount());
+        assertEquals(0, reloaded.getHotUserCount());
+        try (var files = Files.list(tempDir)) {
+            assertEquals(1, files.filter(path -> path.toString().endsWith(".seg")).count());
+        }
+        List<User> merged = tiered(hotFile).loadAll().join();
+        assertEquals(ids(users), ids(merged));
+        assertEquals("F7", merged.stream().filter(user -> user.getId().equals("u7")).findFirst().get().getFirstname());
+    }
+
+    @Test
+    public void tieredShouldOnlyPublishWhatWasWritten() throws Exception {
+        Path hotFile = tempDir.resolve("users.json");
+        FailingFileStore fileStore = new FailingFileStore();
+        TieredUserRepository repository = new TieredUserRepository(
+                new JsonFileUserRepository(hotFile, fileStore, new UserDatabaseLoader()), fileStore, Duration.ofDays(1));
+        repository.loadAll().join();
+        User kept = new User("u0", CLIENT, LocalDate.of(1980, 1, 1), "u0@example.com", "F0", "L", false, 0.0);
+        repository.save(List.of(kept), List.of(), List.of(kept)).join();
+
+        User failed = new User("u1", CLIENT, LocalDate.of(1980, 1, 1), "u1@example.com", "F1", "L", false, 0.0);
+        fileStore.failing = true;
+        assertThrows(CompletionException.class,
+                () -> repository.save(List.of(failed), List.of("u0"), List.of(failed)).join());
+        assertEquals(1, repository.getHotUserCount());
+        assertEquals(List.of("u0"), ids(tiered(hotFile).loadAll().join()));
+
+        // The next save writes nothing of the failed one
+        fileStore.failing = false;
+        User added = new User("u2", CLIENT, LocalDate.of(1980, 1, 1), "u2@example.com", "F2", "L", false, 0.0);
+        repository.save(List.of(added), List.of(), List.of(kept, added)).join();
+        TieredUserRepository reloaded = tiered(hotFile);
+        assertEquals(List.of("u0", "u2"), ids(reloaded.loadAll().join()));
+
+        // Reloading forgets users another instance removed meanwhile
+        reloaded.save(List.of(), List.of("u0"), List.of(added)).join();
+        assertEquals(List.of("u2"), ids(repository.loadAll().join()));
+        assertEquals(1, repository.getHotUserCount());
+    }
+
+    private static List<String> ids(List<User> users) {
+        return users.stream().map(User::getId).sorted().collect(Collectors.toList());
+    }
+
+    private static TieredUserRepository tiered(Path hotFile) {
+        return new TieredUserRepository(new JsonFileUserRepository(hotFile), new AsyncFileStore(), Duration.ZERO, 4,
+                Clock.systemUTC());
+    }
+
+    private UserService newService(UserRepositoryFactory factory) {
+        UserServiceOptions options = new UserServiceOptions();
+        options.setShardCount(SHARD_COUNT);
+        options.setUserRepositoryFactory(factory);
+        options.setClientRepository(new InMemoryClientRepository(List.of(CLIENT)));
+        return new UserService(options);
+    }
+
+    private UserRepositoryFactory factory(String backend) {
+        switch (backend) {
+            case "json":
+                return (shard, count) -> new JsonFileUserRepository(tempDir.resolve("users-" + shard + ".json"));
+            case "wal":
+                return (shard, count) -> new WalUserRepository(tempDir.resolve("users-" + shard + ".wal"));
+            case "file-per-user":
+                return (shard, count) -> new FilePerUserRepository(tempDir.resolve("users-" + shard));
+            case "tiered":
+                return (shard, count) -> tiered(tempDir.resolve("users-" + shard + ".json"));
+            default:
+                Map<Integer, UserRepository> repositories = new ConcurrentHashMap<>();
+                return (shard, count) -> repositories.computeIfAbsent(shard, ignored -> new InMemoryUserRepository());
+        }
+    }
+
+    // Fails every write while `failing` is set
+    private static final class FailingFileStore implements FileStore {
+        private final FileStore files = new AsyncFileStore();
+        private volatile boolean failing;
+
+        @Override
+        public CompletableFuture<byte[]> read(Path path) {
+            return files.read(path);
+        }
+
+        @Override
+        public CompletableFuture<Void> write(Path path, byte[] data) {
+            return failing ? CompletableFuture.failedFuture(new IOException("Disk full")) : files.write(path, data);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+import com.speechify.Client;
+import com.speechify.InMemoryClientRepository;
+import com.speechify.User;
+import com.speechify.UserSearchIndex;
+import com.speechify.UserService;
+import com.speechify.UserServiceOptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class UserSearchIndexTest {
+    private static final Client CLIENT = new Client("c1", "Client");
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void prefixQueriesShouldFollowAddsAndUpdates() {
+        UserServiceOptions options = new UserServiceOptions();
+        options.setDataDirectory(tempDir);
+        options.setShardCount(3);
+        options.setClientRepository(new InMemoryClientRepository(List.of(CLIENT)));
+        UserService service = new UserService(options);
+        add(service, "Anna", "Smith", "anna@example.com");
+        add(service, "Bob", "Smithers", "bob@example.com");
+        add(service, "Carol", "Smith", "carol.smith@example.com");
+        add(service, "Dan", "Jones", "dan@example.com");
+
+        UserSearchIndex index = service.getSearchIndex().join();
+        // Exact term matches first, in no particular order between them
+        List<String> smiths = emails(index.findByPrefix("SMITH", 10));
+        assertEquals(Set.of("anna@example.com", "carol.smith@example.com"), Set.copyOf(smiths.subList(0, 2)));
+        assertEquals(List.of("bob@example.com"), smiths.subList(2, smiths.size()));
+        assertEquals(2, index.findByPrefix("smi", 2).size());
+        assertEquals(List.of("carol.smith@example.com"), emails(index.findByPrefix("carol.s", 10)));
+
+        User dan = service.getUserByEmail("dan@example.com").join();
+        dan.setSurname("Smithson");
+        dan.setEmail("daniel@example.com");
+        assertTrue(service.updateUser(dan).join());
+        assertEquals(List.of(), emails(index.findByPrefix("jones", 10)));
+        assertEquals(List.of(), emails(index.findByPrefix("dan@", 10)));
+        assertEquals(List.of("daniel@example.com"), emails(index.findByPrefix("smithso", 10)));
+
+        UserSearchIndex reloaded = new UserService(options).getSearchIndex().join();
+        assertEquals(index.size(), reloaded.size());
+    }
+
+    @Test
+    public void fuzzyQueriesShouldTolerateOneTypo() {
+        UserServiceOptions options = new UserServiceOptions();
+        options.setDataDirectory(tempDir);
+        options.setClientRepository(new InMemoryClientRepository(List.of(CLIENT)));
+        UserService service = new UserService(options);
+        add(service, "Anna", "Smith", "anna@example.com");
+        add(service, "Bob", "Smyth", "bob@example.com");
+        UserSearchIndex index = service.getSearchIndex().join();
+
+        for (String typo : List.of("smtih", "snith", "smih", "smiith")) {
+            assertEquals(List.of("anna@example.com"), emails(index.findByFuzzyPrefix(typo, 1)), typo);
+        }
+        assertEquals(List.of("anna@example.com", "bob@example.com"), emails(index.findByFuzzyPrefix("smith", 10)));
+        assertEquals(List.of(), emails(index.findByPrefix("smtih", 10)));
+    }
+
+    private static void add(UserService service, String firstname, String surname, String email) {
+        assertTrue(service.addUser(firstname, surname, email, LocalDate.of(1980, 1, 1), CLIENT.getId()).join());
+    }
+
+    private static List<String> emails(List<User> users) {
+        return users.stream().map(User::getEmail).collect(Collectors.toList());
+    }
+}
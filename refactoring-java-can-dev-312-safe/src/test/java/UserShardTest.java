@@ -0,0 +1,156 @@
+import com.speechify.Client;
+import com.speechify.InMemoryClientRepository;
+import com.speechify.InMemoryUserRepository;
+import com.speechify.User;
+import com.speechify.UserRepository;
+import com.speechify.UserService;
+import com.speechify.UserServiceOptions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class UserShardTest {
+    private static final int SHARD_COUNT = 4;
+    private static final Client CLIENT = new Client("c1", "Client");
+
+    private final List<FlakyRepository> repositories = new ArrayList<>();
+
+    public UserShardTest() {
+        for (int i = 0; i < SHARD_COUNT; i++) {
+            repositories.add(new FlakyRepository());
+        }
+    }
+
+    @Test
+    public void usersShouldBeStoredInTheShardTheirEmailRoutesTo() {
+        UserService service = newService();
+        for (int i = 0; i < 20; i++) {
+            assertTrue(add(service, "user" + i + "@example.com"));
+        }
+        for (int shard = 0; shard < SHARD_COUNT; shard++) {
+            for (User user : repositories.get(shard).loadAll().join()) {
+                assertEquals(shard, shardOf(user.getEmail()));
+            }
+        }
+        assertEquals(20, newService().getAllUsers().join().size());
+    }
+
+    @Test
+    public void emailChangeShouldMoveTheUserToItsNewShard() {
+        UserService service = newService();
+        String oldEmail = emailInShard(0, "old");
+        String newEmail = emailInShard(1, "new");
+        assertTrue(add(service, oldEmail));
+
+        User user = service.getUserByEmail(oldEmail).join();
+        user.setEmail(newEmail);
+        assertTrue(service.updateUser(user).join());
+
+        assertNull(service.getUserByEmail(oldEmail).join());
+        assertEquals(user.getId(), service.getUserByEmail(newEmail).join().getId());
+        assertTrue(repositories.get(0).loadAll().join().isEmpty());
+        assertEquals(1, repositories.get(1).loadAll().join().size());
+        assertEquals(1, newService().getAllUsers().join().size());
+    }
+
+    @Test
+    public void failedMoveShouldLeaveTheUserInItsSourceShard() {
+        UserService service = newService();
+        String oldEmail = emailInShard(0, "old");
+        assertTrue(add(service, oldEmail));
+        User user = service.getUserByEmail(oldEmail).join();
+        user.setEmail(emailInShard(1, "new"));
+
+        // The source marks the user as leaving, then neither the target nor the restore can be saved
+        repositories.get(0).savesBeforeFailure = 1;
+        repositories.get(1).savesBeforeFailure = 0;
+        assertFalse(service.updateUser(user).join());
+        assertEquals(user.getId(), service.getUserByEmail(oldEmail).join().getId());
+
+        repositories.get(0).savesBeforeFailure = Integer.MAX_VALUE;
+        repositories.get(1).savesBeforeFailure = Integer.MAX_VALUE;
+        UserService restarted = newService();
+        List<User> users = restarted.getAllUsers().join();
+        assertEquals(1, users.size());
+        assertEquals(oldEmail, users.get(0).getEmail());
+    }
+
+    @Test
+    public void moveInterruptedAfterTheTargetSaveShouldBeCompletedOnLoad() {
+        UserService service = newService();
+        String oldEmail = emailInShard(0, "old");
+        String newEmail = emailInShard(1, "new");
+        assertTrue(add(service, oldEmail));
+        User user = service.getUserByEmail(oldEmail).join();
+        user.setEmail(newEmail);
+
+        // The target save commits the move even though the source keeps its copy
+        repositories.get(0).savesBeforeFailure = 1;
+        assertTrue(service.updateUser(user).join());
+        assertEquals(1, repositories.get(0).loadAll().join().size());
+
+        repositories.get(0).savesBeforeFailure = Integer.MAX_VALUE;
+        UserService restarted = newService();
+        assertNull(restarted.getUserByEmail(oldEmail).join());
+        List<User> users = restarted.getAllUsers().join();
+        assertEquals(1, users.size());
+        assertEquals(newEmail, users.get(0).getEmail());
+        assertTrue(repositories.get(0).loadAll().join().isEmpty());
+    }
+
+    private UserService newService() {
+        UserServiceOptions options = new UserServiceOptions();
+        options.setShardCount(SHARD_COUNT);
+        options.setUserRepositoryFactory((shard, count) -> repositories.get(shard));
+        options.setClientRepository(new InMemoryClientRepository(List.of(CLIENT)));
+        return new UserService(options);
+    }
+
+    private static boolean add(UserService service, String email) {
+        return service.addUser("First", "Last", email, LocalDate.of(1980, 1, 1), CLIENT.getId()).join();
+    }
+
+    private static String emailInShard(int shard, String prefix) {
+        for (int i = 0; ; i++) {
+            String email = prefix + i + "@example.com";
+            if (shardOf(email) == shard) {
+                return email;
+            }
+        }
+    }
+
+    private static int shardOf(String email) {
+        return Math.floorMod(email.hashCode(), SHARD_COUNT);
+    }
+
+    // Keeps users in memory like a disk that outlives services, and fails saves on demand
+    private static final class FlakyRepository implements UserRepository {
+        private final InMemoryUserRepository stored = new InMemoryUserRepository();
+        private volatile int savesBeforeFailure = Integer.MAX_VALUE;
+
+        @Override
+        public CompletableFuture<List<User>> loadAll() {
+            return stored.loadAll();
+        }
+
+        @Override
+        public CompletableFuture<Void> save(List<User> upserted, List<String> removedIds, Iterable<User> allUsers) {
+            if (savesBeforeFailure <= 0) {
+                return CompletableFuture.failedFuture(new IOException("Disk full"));
+            }
+            if (savesBeforeFailure != Integer.MAX_VALUE) {
+                savesBeforeFailure--;
+            }
+            return stored.save(upserted, removedIds, allUsers);
+        }
+    }
+}
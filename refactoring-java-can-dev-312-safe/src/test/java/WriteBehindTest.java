@@ -0,0 +1,115 @@
+import com.speechify.Client;
+import com.speechify.HistogramMetricsRecorder;
+import com.speechify.InMemoryClientRepository;
+import com.speechify.User;
+import com.speechify.UserService;
+import com.speechify.UserServiceOptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class WriteBehindTest {
+    private static final Client CLIENT = new Client("c1", "Client");
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void repeatedUpdatesShouldBeAbsorbedIntoOneWrite() {
+        HistogramMetricsRecorder metrics = new HistogramMetricsRecorder();
+        try (UserService service = newService(metrics, 100)) {
+            addUsers(service, 1);
+            User user = service.getUserByEmail("user0@example.com").join();
+            long savesBefore = saves(metrics);
+
+            for (int i = 0; i < 50; i++) {
+                user.setSurname("Surname" + i);
+                assertTrue(service.updateUser(user).join());
+            }
+            assertEquals(savesBefore, saves(metrics));
+            assertEquals("Surname49", service.getUserByEmail("user0@example.com").join().getSurname());
+
+            service.flush().join();
+            assertEquals(savesBefore + 1, saves(metrics));
+        }
+        try (UserService reloaded = newService(new HistogramMetricsRecorder(), 100)) {
+            assertEquals("Surname49", reloaded.getUserByEmail("user0@example.com").join().getSurname());
+        }
+    }
+
+    @Test
+    public void evictedUpdatesShouldBeFlushedEarly() {
+        HistogramMetricsRecorder metrics = new HistogramMetricsRecorder();
+        try (UserService service = newService(metrics, 2)) {
+            addUsers(service, 3);
+            for (int i = 0; i < 3; i++) {
+                User user = service.getUserByEmail("user" + i + "@example.com").join();
+                user.setSurname("Updated");
+                assertTrue(service.updateUser(user).join());
+            }
+
+            // The first update was evicted by the third one; the other two are still buffered
+            try (UserService other = newService(new HistogramMetricsRecorder(), 2)) {
+                List<User> stored = other.getAllUsers().join();
+                assertEquals(1, stored.stream().filter(user -> "Updated".equals(user.getSurname())).count());
+            }
+        }
+    }
+
+    @Test
+    public void closeShouldWriteBufferedUpdatesAndStopTheTimer() throws Exception {
+        int timersBefore = threadsNamed("user-write-behind");
+        UserService service = newService(new HistogramMetricsRecorder(), 100);
+        assertEquals(timersBefore + 1, threadsNamed("user-write-behind"));
+        addUsers(service, 2);
+        for (int i = 0; i < 2; i++) {
+            User user = service.getUserByEmail("user" + i + "@example.com").join();
+            user.setSurname("Updated");
+            assertTrue(service.updateUser(user).join());
+        }
+
+        service.close();
+        try (UserService reloaded = newService(new HistogramMetricsRecorder(), 100)) {
+            assertTrue(reloaded.getAllUsers().join().stream().allMatch(user -> "Updated".equals(user.getSurname())));
+        }
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (threadsNamed("user-write-behind") > timersBefore) {
+            assertTrue(System.nanoTime() < deadline, "Write-behind timer still running");
+            Thread.sleep(10);
+        }
+    }
+
+    private UserService newService(HistogramMetricsRecorder metrics, int bufferSize) {
+        UserServiceOptions options = new UserServiceOptions();
+        options.setDataDirectory(tempDir);
+        options.setMetricsRecorder(metrics);
+        options.setClientRepository(new InMemoryClientRepository(List.of(CLIENT)));
+        options.setWriteBehindInterval(Duration.ofHours(1));
+        options.setWriteBehindBufferSize(bufferSize);
+        return new UserService(options);
+    }
+
+    private static void addUsers(UserService service, int count) {
+        for (int i = 0; i < count; i++) {
+            assertTrue(service.addUser("First" + i, "Last", "user" + i + "@example.com",
+                    LocalDate.of(1980, 1, 1), CLIENT.getId()).join());
+        }
+    }
+
+    private static int threadsNamed(String name) {
+        return (int) Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.getName().equals(name) && thread.isAlive())
+                .count();
+    }
+
+    private static long saves(HistogramMetricsRecorder metrics) {
+        return metrics.getHistogram("UserService.saveDatabase").getCount();
+    }
+}